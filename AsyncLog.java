@@ -0,0 +1,79 @@
+/* ------------------
+   AsyncLog
+   console log written by a background thread, so that the session and
+   pacing threads never block on System.out. Messages are dropped (and
+   counted) when the queue is full. Hot paths log through a Sampler,
+   which lets only one message out of every N through
+   ---------------------- */
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class AsyncLog implements Runnable {
+
+  final static int QUEUE_SIZE = 8192; // messages waiting to be written
+
+  static ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+  static AtomicLong dropped = new AtomicLong(0); // messages lost because the queue was full
+  static volatile Thread thread;
+
+  // --------------------------
+  // log: queue a message, never blocks
+  // --------------------------
+  public static void log(String message) {
+    if (thread == null)
+      start();
+    if (!queue.offer(message))
+      dropped.incrementAndGet();
+  }
+
+  public static long getdropped() {
+    return (dropped.get());
+  }
+
+  // --------------------------
+  // start the writer thread on first use
+  // --------------------------
+  static synchronized void start() {
+    if (thread == null) {
+      thread = new Thread(new AsyncLog(), "AsyncLog");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  // --------------------------
+  // run: write the queued messages
+  // --------------------------
+  public void run() {
+    try {
+      while (true) {
+        System.out.println(queue.take());
+      }
+    } catch (InterruptedException ie) {
+      // stop logging
+    }
+  }
+
+  // --------------------------
+  // Sampler: lets one call out of every n through, to log hot paths;
+  // build the message only when next() returns true
+  // --------------------------
+  public static class Sampler {
+    int every;
+    AtomicLong count = new AtomicLong(0);
+
+    public Sampler(int every) {
+      this.every = every;
+    }
+
+    public boolean next() {
+      return (count.getAndIncrement() % every == 0);
+    }
+
+    // number of calls so far, logged or not
+    public long getcount() {
+      return (count.get());
+    }
+  }
+}
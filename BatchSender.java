@@ -0,0 +1,113 @@
+/* ------------------
+   BatchSender
+   flushes the SendQueues of the sessions of one pacer: the sessions
+   queue the packets of their frames while the pacer runs the tasks due
+   at a tick, and the pacer then writes them all out in one pass before
+   sleeping (see Pacer.set_flush). Queues stopped by a full socket
+   buffer are registered with a selector and resumed once writable
+   ---------------------- */
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class BatchSender implements Runnable {
+
+  Pacer pacer; // thread running the flushes
+  ArrayDeque<SendQueue> pending; // queues with packets to write
+  Selector selector; // queues waiting for their channel to be writable
+
+  // counters, on the pacer thread
+  long flushes; // flushes that wrote something
+  long packets;
+
+  // --------------------------
+  // Constructor: flushes on the pacer once its due tasks ran
+  // --------------------------
+  public BatchSender(Pacer pacer) throws IOException {
+    this.pacer = pacer;
+    pending = new ArrayDeque<SendQueue>();
+    selector = Selector.open();
+    pacer.set_flush(this);
+  }
+
+  // --------------------------
+  // add: a queue has packets to write; from the pacer thread they go out
+  // at the end of the tick, from another thread the pacer is woken up
+  // --------------------------
+  public void add(SendQueue queue) {
+    synchronized (this) {
+      if (queue.pending)
+        return;
+      queue.pending = true;
+      pending.add(queue);
+    }
+    if (Thread.currentThread() != pacer.thread)
+      pacer.wakeup();
+  }
+
+  // --------------------------
+  // run: flush, called by the pacer thread
+  // --------------------------
+  public void run() {
+    // queues whose channel became writable again
+    if (!selector.keys().isEmpty()) {
+      try {
+        if (selector.selectNow() > 0) {
+          for (SelectionKey key : selector.selectedKeys()) {
+            try {
+              key.interestOps(0);
+            } catch (CancelledKeyException cke) {
+              ((SendQueue) key.attachment()).clear(); // closed meanwhile
+              continue;
+            }
+            add((SendQueue) key.attachment());
+          }
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException ioe) {
+        AsyncLog.log("BatchSender - Exception caught: " + ioe);
+      }
+    }
+
+    int written = 0;
+    while (true) {
+      SendQueue queue;
+      synchronized (this) {
+        queue = pending.poll();
+        if (queue == null)
+          break;
+        queue.pending = false;
+      }
+
+      int before = queue.getcount();
+      try {
+        if (!queue.flush()) {
+          // socket buffer full: resume when the channel is writable
+          if (queue.key == null)
+            queue.key = queue.register(selector);
+          else
+            queue.key.interestOps(SelectionKey.OP_WRITE);
+        }
+      } catch (IOException ioe) {
+        // closed session, or the client is gone
+        queue.clear();
+      } catch (CancelledKeyException cke) {
+        // the channel was closed since it was registered: drop the queue,
+        // the other sessions of the pacer go on
+        queue.clear();
+      }
+      written += before - queue.getcount();
+    }
+
+    if (written > 0) {
+      flushes++;
+      packets += written;
+    }
+  }
+
+  public String toString() {
+    return ("batches " + flushes + ", packets " + packets + ", avg batch "
+        + ((flushes == 0) ? 0 : packets / flushes));
+  }
+}
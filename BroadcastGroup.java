@@ -0,0 +1,278 @@
+/* ------------------
+   BroadcastGroup
+   live-style fan-out of one video to all the sessions watching it
+   ("live:" file names): the group plays the video in a loop on a pacer,
+   reads and packetizes each frame once, and builds its RTP packets once
+   in direct buffers. For every subscriber only the sequence number and
+   SSRC are patched in place before the send, so an extra viewer costs
+   little more than its send calls. Subscribers that asked for multicast
+   get a single copy per destination port on the multicast group. The
+   frames are read ahead of the pacer by the FramePrefetcher
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BroadcastGroup {
+
+  // prefix of the file names streamed through a broadcast group
+  final static String PREFIX = "live:";
+
+  String name; // file name, without the prefix
+  StreamingServer server;
+  VideoStream video;
+  int video_frames; // frames of the video, the group loops after the last one
+  int frame_period; // ms between two frames of the video, from its frame index
+  FramePrefetcher.Ring prefetch; // frames read ahead, in loop order; null reads them on the pacer
+  JpegPacketizer packetizer;
+  Pacer pacer;
+  Pacer.Entry pacing; // frame task, null when nobody watches
+  int sessions; // sessions set up on the group, under the server lock
+
+  // unicast subscribers, traversed without a lock by the pacer
+  CopyOnWriteArrayList<ServerSession> subscribers;
+
+  // multicast destinations, one per client port, with their subscriber count
+  InetAddress multicast_address;
+  DatagramChannel multicast_channel;
+  HashMap<InetSocketAddress, Integer> multicast_ports;
+  volatile InetSocketAddress[] multicast_destinations;
+  int multicast_ssrc;
+  int multicast_seq;
+
+  // current frame, built once
+  int imagenb; // frame nb in the video
+  long played; // frames played since the group started, for the timestamps
+  ByteBuffer[] packets; // complete RTP packets of the frame
+  int packet_count;
+
+  // counters
+  long frames;
+  long packets_sent;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public BroadcastGroup(StreamingServer server, String name, Pacer pacer, InetAddress multicast_address)
+      throws Exception {
+    this.server = server;
+    this.name = name;
+    this.pacer = pacer;
+    this.multicast_address = multicast_address;
+    video = new VideoStream(name, server.mapped, server.cache);
+    video_frames = video.getframes();
+    frame_period = video.getframe_period(StreamingServer.FRAME_PERIOD);
+    if (video_frames == 0) {
+      video.close();
+      throw new IOException("No frame to broadcast in " + name);
+    }
+    packetizer = new JpegPacketizer(StreamingServer.RTP_MTU - RTPpacket.HEADER_SIZE);
+    subscribers = new CopyOnWriteArrayList<ServerSession>();
+    multicast_ports = new HashMap<InetSocketAddress, Integer>();
+    multicast_destinations = new InetSocketAddress[0];
+    Random random = new Random();
+    multicast_ssrc = random.nextInt();
+    multicast_seq = random.nextInt(0x10000);
+    packets = new ByteBuffer[0];
+    if (StreamingServer.PREFETCH > 0)
+      prefetch = server.prefetcher.open(video, StreamingServer.PREFETCH, 1, 1, video_frames, true);
+  }
+
+  // --------------------------
+  // subscribe: start sending the frames to a session, from the live point;
+  // multicast subscribers are served by the copy sent to their port
+  // --------------------------
+  public synchronized void subscribe(ServerSession session, boolean multicast) throws IOException {
+    if (multicast) {
+      InetSocketAddress destination = new InetSocketAddress(multicast_address, session.RTP_dest_port);
+      Integer count = multicast_ports.get(destination);
+      multicast_ports.put(destination, (count == null) ? 1 : count + 1);
+      if (multicast_channel == null) {
+        multicast_channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        multicast_channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+      }
+      multicast_destinations = multicast_ports.keySet().toArray(new InetSocketAddress[0]);
+    } else {
+      subscribers.addIfAbsent(session);
+    }
+
+    if (pacing == null)
+      pacing = pacer.schedule(new Runnable() {
+        public void run() {
+          send_next_frame();
+        }
+      }, frame_period * 1000000L, 0);
+  }
+
+  // --------------------------
+  // unsubscribe: stop sending to a session; the group stops playing when
+  // nobody watches
+  // --------------------------
+  public synchronized void unsubscribe(ServerSession session, boolean multicast) {
+    if (multicast) {
+      InetSocketAddress destination = new InetSocketAddress(multicast_address, session.RTP_dest_port);
+      Integer count = multicast_ports.get(destination);
+      if (count != null) {
+        if (count > 1)
+          multicast_ports.put(destination, count - 1);
+        else
+          multicast_ports.remove(destination);
+        multicast_destinations = multicast_ports.keySet().toArray(new InetSocketAddress[0]);
+      }
+    } else {
+      subscribers.remove(session);
+    }
+
+    if (pacing != null && subscribers.isEmpty() && multicast_ports.isEmpty()) {
+      pacing.cancel();
+      pacing = null;
+    }
+  }
+
+  // ------------------------
+  // send_next_frame: build the packets of the next frame and fan them out,
+  // on the pacer thread
+  // ------------------------
+  void send_next_frame() {
+    imagenb = imagenb % video_frames + 1; // loops like a live channel
+    played++;
+    try {
+      if (prefetch != null) {
+        // a frame not read yet is skipped, like a late live frame
+        ByteBuffer frame = prefetch.take(played);
+        if (frame == null)
+          return;
+        try {
+          if (!build_packets(frame))
+            return;
+        } finally {
+          prefetch.release();
+        }
+      } else if (!build_packets(video.getframebuffer(imagenb))) {
+        return;
+      }
+    } catch (Exception ex) {
+      AsyncLog.log("Broadcast " + name + " - Exception caught: " + ex);
+      return;
+    }
+    frames++;
+
+    // unicast: each session patches its sequence number and SSRC
+    for (ServerSession session : subscribers)
+      session.send_broadcast(this);
+
+    // multicast: one copy per destination, with the group's own numbering
+    InetSocketAddress[] destinations = multicast_destinations;
+    if (destinations.length > 0) {
+      for (int i = 0; i < packet_count; i++) {
+        ByteBuffer packet = packets[i];
+        packet.putShort(2, (short) multicast_seq);
+        packet.putInt(8, multicast_ssrc);
+        multicast_seq = (multicast_seq + 1) & 0xFFFF;
+        for (InetSocketAddress destination : destinations) {
+          try {
+            packet.position(0);
+            multicast_channel.send(packet, destination);
+            packets_sent++;
+          } catch (IOException ioe) {
+            AsyncLog.log("Broadcast " + name + " - Exception caught: " + ioe);
+          }
+        }
+      }
+    }
+  }
+
+  // ------------------------
+  // build_packets: packetize the frame and build its RTP packets, with the
+  // sequence number and SSRC left to each destination; false if the frame
+  // cannot be sent
+  // ------------------------
+  boolean build_packets(ByteBuffer frame) {
+    try {
+      packet_count = packetizer.packetize(frame);
+    } catch (IOException ioe) {
+      return (false);
+    }
+    if (packets.length < packet_count) {
+      int old = packets.length;
+      packets = Arrays.copyOf(packets, packet_count);
+      for (int i = old; i < packet_count; i++)
+        packets[i] = ByteBuffer.allocateDirect(StreamingServer.RTP_MTU + 256);
+    }
+
+    int timestamp = (int) (played * frame_period);
+    for (int i = 0; i < packet_count; i++) {
+      ByteBuffer packet = packets[i];
+      packet.clear();
+      // RTP header, sequence number and SSRC patched per destination
+      int marker = (i == packet_count - 1) ? 1 : 0;
+      packet.put((byte) 0x80);
+      packet.put((byte) ((marker << 7) | StreamingServer.MJPEG_TYPE));
+      packet.putShort((short) 0);
+      packet.putInt(timestamp);
+      packet.putInt(0);
+      // payload format header and fragment
+      packet.put(packetizer.getheader(i));
+      int index = packetizer.getfragment_index(i);
+      frame.limit(frame.capacity());
+      frame.position(index);
+      frame.limit(index + packetizer.getfragment_length(i));
+      packet.put(frame);
+      packet.flip();
+    }
+    return (true);
+  }
+
+  // --------------------------
+  // packets of the current frame, valid during send_broadcast
+  // --------------------------
+  public int getpacket_count() {
+    return (packet_count);
+  }
+
+  public ByteBuffer getpacket(int i) {
+    return (packets[i]);
+  }
+
+  public int getframes() {
+    return (video_frames);
+  }
+
+  public long getplayed() {
+    return (played);
+  }
+
+  public int gettimestamp() {
+    return ((int) (played * frame_period));
+  }
+
+  // --------------------------
+  // close: stop playing and release the video, once no session uses the group
+  // --------------------------
+  public synchronized void close() {
+    if (pacing != null) {
+      pacing.cancel();
+      pacing = null;
+    }
+    if (prefetch != null)
+      prefetch.close();
+    try {
+      synchronized (video) {
+        video.close();
+      }
+      if (multicast_channel != null)
+        multicast_channel.close();
+    } catch (IOException ioe) {
+      // nothing to do, the file was only read
+    }
+  }
+
+  public String toString() {
+    return ("broadcast " + name + ": " + subscribers.size() + " unicast, " + multicast_destinations.length
+        + " multicast ports, " + frames + " frames" + ((prefetch != null) ? ", prefetch " + prefetch : ""));
+  }
+}
@@ -0,0 +1,52 @@
+/* ------------------
+   BufferPool
+   pool of direct ByteBuffers of a fixed size, shared by the sessions
+   so that the buffers handed to the sockets are allocated once
+   ---------------------- */
+
+import java.nio.*;
+import java.util.*;
+
+public class BufferPool {
+
+  int buffer_size; // capacity of the buffers of the pool
+  ArrayDeque<ByteBuffer> free; // buffers released and ready for reuse
+  int allocated; // buffers allocated by the pool so far
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public BufferPool(int buffer_size) {
+    this.buffer_size = buffer_size;
+    free = new ArrayDeque<ByteBuffer>();
+  }
+
+  // --------------------------
+  // acquire: returns a cleared buffer, allocated only when the pool is empty
+  // --------------------------
+  public synchronized ByteBuffer acquire() {
+    ByteBuffer buffer = free.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(buffer_size);
+      allocated++;
+    }
+    buffer.clear();
+    return (buffer);
+  }
+
+  // --------------------------
+  // release: give a buffer back to the pool
+  // --------------------------
+  public synchronized void release(ByteBuffer buffer) {
+    if (buffer != null && buffer.capacity() == buffer_size)
+      free.push(buffer);
+  }
+
+  public synchronized int getallocated() {
+    return (allocated);
+  }
+
+  public synchronized int getfree() {
+    return (free.size());
+  }
+}
@@ -1,15 +1,20 @@
 /* ------------------
    Client
-   usage: java Client [Server hostname] [Server RTSP listening port] [Video file requested]
+   usage: java Client [Server hostname] [Server RTSP listening port] [Video file requested] [multicast group | tcp]
+   ("live:" in front of the file name joins the broadcast of the file,
+   "tcp" receives RTP on the RTSP connection where UDP is blocked)
+   The buttons never wait for the server: the requests are pipelined and
+   their responses handled when they come back
    ---------------------- */
 
 import java.io.*;
 import java.net.*;
-import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
-import javax.swing.Timer;
 
 public class Client { // GUI
   // ----
@@ -27,33 +32,29 @@ public class Client { // GUI
 
   // RTP variables:
   // ----------------
-  DatagramPacket rcvdp; // UDP packet received from the server
-  DatagramSocket RTPsocket; // socket to be used to send and receive UDP packets
   static int RTP_RCV_PORT = 25000; // port where the client will receive the RTP packets
+  static InetAddress MulticastAddr; // multicast group to receive a broadcast on, null for unicast
+  static boolean Interleaved; // RTP and RTCP on the RTSP connection (RTP/AVP/TCP)
 
-  Timer timer; // timer used to receive data from the UDP socket
-  byte[] buf; // buffer used to store data received from the server
+  // RTSP session, RTP/RTCP sockets and receive stage
+  // ----------------
+  RTSPclient rtsp;
+
+  // pipeline: receive thread -> decoding threads -> Swing event thread
+  // ----------------
+  FrameDecoder decoder; // decodes the frames into images
+  static int QUEUE_SIZE = 2; // frames waiting between two stages, older ones are dropped
+  static int DECODERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  AtomicBoolean render_pending = new AtomicBoolean(); // a render is queued on the event thread
+  long last_rendered = -1; // number of the last frame displayed
 
   // RTSP variables
   // ----------------
   // rtsp states
-  final static int INIT = 0;
-  final static int READY = 1;
-  final static int PLAYING = 2;
-  static int state; // RTSP state == INIT or READY or PLAYING
-  Socket RTSPsocket; // socket used to send/receive RTSP messages
-  // input and output stream filters
-  static BufferedReader RTSPBufferedReader;
-  static BufferedWriter RTSPBufferedWriter;
+  final static int INIT = RTSPclient.INIT;
+  final static int READY = RTSPclient.READY;
+  final static int PLAYING = RTSPclient.PLAYING;
   static String VideoFileName; // video file to request to the server
-  int RTSPSeqNb = 0; // Sequence number of RTSP messages within the session
-  int RTSPid = 0; // ID of the RTSP session (given by the RTSP Server)
-
-  final static String CRLF = "\r\n";
-
-  // Video constants:
-  // ------------------
-  static int MJPEG_TYPE = 26; // RTP payload type for MJPEG video
 
   // --------------------------
   // Constructor
@@ -144,13 +145,6 @@ public class Client { // GUI
     f.setSize(new Dimension(650, 580));
     f.setLocationRelativeTo(null); // Center the window
     f.setVisible(true);
-
-    // init timer
-    // --------------------------
-    timer = new Timer(20, new timerListener());
-    timer.setInitialDelay(0);
-    timer.setCoalesce(true); // allocate enough memory for the buffer used to receive data from the server
-    buf = new byte[65536]; // Increased buffer size for larger frames
   }
 
   // ------------------------------------
@@ -169,16 +163,18 @@ public class Client { // GUI
     // get video filename to request:
     VideoFileName = argv[2];
 
-    // Establish a TCP connection with the server to exchange RTSP messages
-    // ------------------
-    theClient.RTSPsocket = new Socket(ServerIPAddr, RTSP_server_port);
+    // receive on the RTSP connection, or a broadcast on a multicast group
+    if (argv.length > 3 && argv[3].equals("tcp"))
+      Interleaved = true;
+    else if (argv.length > 3)
+      MulticastAddr = InetAddress.getByName(argv[3]);
 
-    // Set input and output stream filters:
-    RTSPBufferedReader = new BufferedReader(new InputStreamReader(theClient.RTSPsocket.getInputStream()));
-    RTSPBufferedWriter = new BufferedWriter(new OutputStreamWriter(theClient.RTSPsocket.getOutputStream()));
-
-    // init RTSP state:
-    state = INIT;
+    // Establish a TCP connection with the server to exchange RTSP messages,
+    // in the INIT state
+    // ------------------
+    theClient.rtsp = new RTSPclient(ServerIPAddr, RTSP_server_port, VideoFileName, RTP_RCV_PORT, MulticastAddr);
+    theClient.rtsp.verbose = true;
+    theClient.rtsp.interleaved = Interleaved;
   }
 
   // ------------------------------------
@@ -196,32 +192,23 @@ public class Client { // GUI
 
       // System.out.println("Setup Button pressed !");
 
-      if (state == INIT) {
-        // Init non-blocking RTPsocket that will be used to receive data
+      if (rtsp.getrequested() == INIT && decoder == null) {
+        // Init the RTPsocket and the pipeline that receives the frames, and
+        // send the SETUP message to the server
+        CompletableFuture<Integer> reply = null;
         try {
-          RTPsocket = new DatagramSocket(RTP_RCV_PORT);
-          RTPsocket.setSoTimeout(100); // Increased timeout for better frame reception
-        } catch (SocketException se) {
+          reply = rtsp.setup_async(QUEUE_SIZE, 2 * QUEUE_SIZE + DECODERS + 1);
+        } catch (IOException se) {
           System.out.println("Socket exception: " + se);
           System.exit(0);
         }
 
-        // init RTSP sequence number
-        RTSPSeqNb = 1;
+        // decoding threads after the receive stage
+        decoder = new FrameDecoder(rtsp.getreceiver(), QUEUE_SIZE, new renderListener());
+        decoder.start(DECODERS);
 
-        // Send SETUP message to the server
-        send_RTSP_request("SETUP");
-
-        // Wait for the response
-        if (parse_server_response() != 200)
-          System.out.println("Invalid Server Response");
-        else {
-          state = READY; // change RTSP state and print out new state
-          System.out.println("New RTSP state: READY");
-        }
-      } else if (state != INIT)
-
-      {
+        on_response(reply, "New RTSP state: READY", null);
+      } else {
         System.out.println("do nothing! Invalid state");
       }
     }
@@ -234,23 +221,10 @@ public class Client { // GUI
 
       // System.out.println("Play Button pressed !");
 
-      if (state == READY) {
-        // increase RTSP sequence number
-        // .....
-        RTSPSeqNb++;
-
+      if (rtsp.getrequested() == READY) {
         // Send PLAY message to the server
-        send_RTSP_request("PLAY");
-
-        // Wait for the response
-        if (parse_server_response() != 200)
-          System.out.println("Invalid Server Response");
-        else {
-          state = PLAYING; // change RTSP state and print out new state
-          System.out.println("New RTSP state: PLAYING");
-          timer.start();
-        }
-      } else if (state != READY) {
+        on_response(rtsp.play_async(), "New RTSP state: PLAYING", null);
+      } else {
         System.out.println("do nothing! Invalid state");
       }
     }
@@ -263,26 +237,10 @@ public class Client { // GUI
 
       // System.out.println("Pause Button pressed !");
 
-      if (state == PLAYING) {
-        // increase RTSP sequence number
-        // ........
-        RTSPSeqNb++;
+      if (rtsp.getrequested() == PLAYING) {
         // Send PAUSE message to the server
-        send_RTSP_request("PAUSE");
-
-        // Wait for the response
-        if (parse_server_response() != 200)
-          System.out.println("Invalid Server Response");
-        else {
-          // change RTSP state and print out new state
-          // ........
-          // System.out.println("New RTSP state: ...");
-          state = READY;
-          System.out.println("New RTSP state: READY");
-          // stop the timer
-          timer.stop();
-        }
-      } else if (state != PLAYING) {
+        on_response(rtsp.pause_async(), "New RTSP state: READY", null);
+      } else {
         System.out.println("do nothing! Invalid state");
       }
     }
@@ -295,22 +253,17 @@ public class Client { // GUI
 
       // System.out.println("Teardown Button pressed !");
 
-      // increase RTSP sequence number
-      // ..........
-      RTSPSeqNb++;
-
-      // Send TEARDOWN message to the server
-      send_RTSP_request("TEARDOWN");
-
-      // Wait for the response
-      if (parse_server_response() != 200)
-        System.out.println("Invalid Server Response");
-      else {
-        state = INIT;
-        System.out.println("New RTSP state: INIT");
-        timer.stop();
-        System.exit(0);
-      }
+      // Send TEARDOWN message to the server, and leave once it answers
+      on_response(rtsp.teardown_async(), "New RTSP state: INIT", new Runnable() {
+        public void run() {
+          if (decoder != null) {
+            System.out.println(rtsp + "\nDecoded " + decoder);
+            decoder.stop();
+          }
+          rtsp.close();
+          System.exit(0);
+        }
+      });
     }
   } // Handler for Advance button
   // -----------------------
@@ -319,65 +272,13 @@ public class Client { // GUI
     public void actionPerformed(ActionEvent e) {
       System.out.println("Advance Button pressed!");
 
-      if (state == READY || state == PLAYING) {
-        boolean wasPlaying = (state == PLAYING);
-
-        // If playing, pause the timer temporarily to avoid conflicts
-        if (wasPlaying) {
-          timer.stop();
-        }
+      if (rtsp.getrequested() == READY || rtsp.getrequested() == PLAYING) {
+        System.out.println("Sending ADVANCE request, sequence number: " + (rtsp.RTSPSeqNb + 1));
 
-        // increase RTSP sequence number
-        RTSPSeqNb++;
-        System.out.println("Sending ADVANCE request, sequence number: " + RTSPSeqNb);
-
-        // Send ADVANCE message to the server (custom RTSP command)
-        send_RTSP_request("ADVANCE");
-
-        // Wait for the response
-        int response = parse_server_response();
-        System.out.println("Received response code: " + response);
-
-        if (response != 200) {
-          System.out.println("Invalid Server Response");
-        } else {
-          System.out.println("Advanced to next frame");
-
-          // Force frame update by explicitly receiving a new frame
-          try {
-            // We need to receive the RTP packet that the server sent after ADVANCE
-            DatagramPacket framePacket = new DatagramPacket(buf, buf.length);
-            RTPsocket.setSoTimeout(1000); // Set a longer timeout to wait for frame
-            RTPsocket.receive(framePacket);
-            RTPsocket.setSoTimeout(5); // Reset timeout to original value
-
-            // Create an RTP packet from the received data
-            RTPpacket rtp_packet = new RTPpacket(framePacket.getData(), framePacket.getLength());
-
-            System.out.println("Received frame after ADVANCE: SeqNum # " +
-                rtp_packet.getsequencenumber() + " TimeStamp " + rtp_packet.gettimestamp());
-
-            // Get the payload and update the display
-            int payload_length = rtp_packet.getpayload_length();
-            byte[] payload = new byte[payload_length];
-            rtp_packet.getpayload(payload); // Update the image display
-            Toolkit toolkit = Toolkit.getDefaultToolkit();
-            Image image = toolkit.createImage(payload, 0, payload_length);
-            icon = new ImageIcon(image);
-            iconLabel.setIcon(icon);
-
-            // Ensure the image is centered within the label
-            iconLabel.setHorizontalAlignment(JLabel.CENTER);
-            iconLabel.setVerticalAlignment(JLabel.CENTER);
-          } catch (Exception ex) {
-            System.out.println("Error receiving frame after ADVANCE: " + ex);
-          }
-        }
-
-        // If was playing, restart the timer
-        if (wasPlaying) {
-          timer.start();
-        }
+        // Send ADVANCE message to the server (custom RTSP command), without
+        // waiting for the previous ones; the frame sent back goes through
+        // the pipeline
+        on_response(rtsp.advance_async(), "Advanced to next frame", null);
       } else {
         System.out.println("Cannot advance: Invalid state");
       }
@@ -389,65 +290,13 @@ public class Client { // GUI
     public void actionPerformed(ActionEvent e) {
       System.out.println("Go Back Button pressed!");
 
-      if (state == READY || state == PLAYING) {
-        boolean wasPlaying = (state == PLAYING);
-
-        // If playing, pause the timer temporarily to avoid conflicts
-        if (wasPlaying) {
-          timer.stop();
-        }
-
-        // increase RTSP sequence number
-        RTSPSeqNb++;
-        System.out.println("Sending BACK request, sequence number: " + RTSPSeqNb);
-
-        // Send BACK message to the server (custom RTSP command)
-        send_RTSP_request("BACK");
+      if (rtsp.getrequested() == READY || rtsp.getrequested() == PLAYING) {
+        System.out.println("Sending BACK request, sequence number: " + (rtsp.RTSPSeqNb + 1));
 
-        // Wait for the response
-        int response = parse_server_response();
-        System.out.println("Received response code: " + response);
-
-        if (response != 200) {
-          System.out.println("Invalid Server Response");
-        } else {
-          System.out.println("Went back to previous frame");
-
-          // Force frame update by explicitly receiving a new frame
-          try {
-            // We need to receive the RTP packet that the server sent after BACK
-            DatagramPacket framePacket = new DatagramPacket(buf, buf.length);
-            RTPsocket.setSoTimeout(1000); // Set a longer timeout to wait for frame
-            RTPsocket.receive(framePacket);
-            RTPsocket.setSoTimeout(5); // Reset timeout to original value
-
-            // Create an RTP packet from the received data
-            RTPpacket rtp_packet = new RTPpacket(framePacket.getData(), framePacket.getLength());
-
-            System.out.println("Received frame after BACK: SeqNum # " +
-                rtp_packet.getsequencenumber() + " TimeStamp " + rtp_packet.gettimestamp());
-
-            // Get the payload and update the display
-            int payload_length = rtp_packet.getpayload_length();
-            byte[] payload = new byte[payload_length];
-            rtp_packet.getpayload(payload); // Update the image display
-            Toolkit toolkit = Toolkit.getDefaultToolkit();
-            Image image = toolkit.createImage(payload, 0, payload_length);
-            icon = new ImageIcon(image);
-            iconLabel.setIcon(icon);
-
-            // Ensure the image is centered within the label
-            iconLabel.setHorizontalAlignment(JLabel.CENTER);
-            iconLabel.setVerticalAlignment(JLabel.CENTER);
-          } catch (Exception ex) {
-            System.out.println("Error receiving frame after BACK: " + ex);
-          }
-        }
-
-        // If was playing, restart the timer
-        if (wasPlaying) {
-          timer.start();
-        }
+        // Send BACK message to the server (custom RTSP command), without
+        // waiting for the previous ones; the frame sent back goes through
+        // the pipeline
+        on_response(rtsp.back_async(), "Went back to previous frame", null);
       } else {
         System.out.println("Cannot go back: Invalid state");
       }
@@ -455,112 +304,75 @@ public class Client { // GUI
   }
 
   // ------------------------------------
-  // Handler for timer
+  // Render stage: called by the decoding threads when a frame is ready,
+  // queues at most one render at a time on the event thread
   // ------------------------------------
 
-  class timerListener implements ActionListener {
-    public void actionPerformed(ActionEvent e) {
-
-      // Construct a DatagramPacket to receive data from the UDP socket
-      rcvdp = new DatagramPacket(buf, buf.length);
-
-      try {
-        // receive the DP from the socket:
-        RTPsocket.receive(rcvdp);
-
-        // create an RTPpacket object from the DP
-        RTPpacket rtp_packet = new RTPpacket(rcvdp.getData(), rcvdp.getLength());
-
-        // print important header fields of the RTP packet received:
-        System.out.println("Got RTP packet with SeqNum # " + rtp_packet.getsequencenumber() + " TimeStamp "
-            + rtp_packet.gettimestamp() + " ms, of type " + rtp_packet.getpayloadtype());
-
-        // print header bitstream:
-        rtp_packet.printheader();
-
-        // get the payload bitstream from the RTPpacket object
-        int payload_length = rtp_packet.getpayload_length();
-        byte[] payload = new byte[payload_length];
-        rtp_packet.getpayload(payload);
-
-        // get an Image object from the payload bitstream
-        Toolkit toolkit = Toolkit.getDefaultToolkit();
-        Image image = toolkit.createImage(payload, 0, payload_length); // display the image as an ImageIcon object and
-                                                                       // ensure centering
-        icon = new ImageIcon(image);
-        iconLabel.setIcon(icon);
-
-        // Ensure the image is centered within the label
-        iconLabel.setHorizontalAlignment(JLabel.CENTER);
-        iconLabel.setVerticalAlignment(JLabel.CENTER);
-      } catch (InterruptedIOException iioe) {
-        // System.out.println("Nothing to read");
-      } catch (IOException ioe) {
-        System.out.println("Exception caught: " + ioe);
-      }
+  class renderListener implements Runnable {
+    public void run() {
+      if (render_pending.compareAndSet(false, true))
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            display_frame();
+          }
+        });
     }
-
   }
 
   // ------------------------------------
-  // Parse Server Response
+  // Display the newest decoded frame, on the event thread; the frames
+  // decoded out of order or older than the one displayed are dropped
   // ------------------------------------
-  private int parse_server_response() {
-    int reply_code = 0;
-
-    try {
-      // parse status line and extract the reply_code:
-      String StatusLine = RTSPBufferedReader.readLine();
-      // System.out.println("RTSP Client - Received from Server:");
-      System.out.println(StatusLine);
-
-      StringTokenizer tokens = new StringTokenizer(StatusLine);
-      tokens.nextToken(); // skip over the RTSP version
-      reply_code = Integer.parseInt(tokens.nextToken());
-
-      // if reply code is OK get and print the 2 other lines
-      if (reply_code == 200) {
-        String SeqNumLine = RTSPBufferedReader.readLine();
-        System.out.println(SeqNumLine);
-
-        String SessionLine = RTSPBufferedReader.readLine();
-        System.out.println(SessionLine);
-
-        // if state == INIT gets the Session Id from the SessionLine
-        tokens = new StringTokenizer(SessionLine);
-        tokens.nextToken(); // skip over the Session:
-        RTSPid = Integer.parseInt(tokens.nextToken());
+  private void display_frame() {
+    render_pending.set(false);
+    RTPreceiver.Frame newest = null;
+    RTPreceiver.Frame frame;
+    while ((frame = decoder.poll()) != null) {
+      if (newest == null || frame.number > newest.number) {
+        if (newest != null)
+          rtsp.getreceiver().recycle(newest);
+        newest = frame;
+      } else {
+        rtsp.getreceiver().recycle(frame);
       }
-    } catch (Exception ex) {
-      System.out.println("Exception caught: " + ex);
-      System.exit(0);
     }
-
-    return (reply_code);
+    if (newest == null)
+      return;
+
+    if (newest.number > last_rendered) {
+      last_rendered = newest.number;
+      // display the image as an ImageIcon object and ensure centering
+      icon = new ImageIcon(newest.image);
+      iconLabel.setIcon(icon);
+
+      // Ensure the image is centered within the label
+      iconLabel.setHorizontalAlignment(JLabel.CENTER);
+      iconLabel.setVerticalAlignment(JLabel.CENTER);
+    }
+    rtsp.getreceiver().recycle(newest);
   }
 
   // ------------------------------------
-  // Send RTSP Request
+  // Handle the response to a request when it comes, on the RTSP response
+  // thread: print done and run then on a 200
   // ------------------------------------
-
-  // .............
-  // TO COMPLETE
-  // .............
-
-  private void send_RTSP_request(String request_type) {
-    try {
-      RTSPBufferedWriter.write(request_type + " " + VideoFileName + " RTSP/1.0" + CRLF);
-      RTSPBufferedWriter.write("CSeq: " + RTSPSeqNb + CRLF);
-      if (request_type.equals("SETUP")) {
-        RTSPBufferedWriter.write("Transport: RTP/UDP; client_port= " + RTP_RCV_PORT + CRLF);
-      } else {
-        RTSPBufferedWriter.write("Session: " + RTSPid + CRLF);
+  private void on_response(CompletableFuture<Integer> reply, final String done, final Runnable then) {
+    reply.whenComplete(new BiConsumer<Integer, Throwable>() {
+      public void accept(Integer reply_code, Throwable failure) {
+        if (failure != null) {
+          System.out.println("Exception caught: " + failure);
+          System.exit(0);
+        }
+        System.out.println("Received response code: " + reply_code);
+        if (reply_code != 200) {
+          System.out.println("Invalid Server Response");
+        } else {
+          System.out.println(done);
+          if (then != null)
+            then.run();
+        }
       }
-      RTSPBufferedWriter.flush();
-    } catch (Exception ex) {
-      System.out.println("Exception caught: " + ex);
-      System.exit(0);
-    }
+    });
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,436 @@
+/* ------------------
+   FrameCache
+   process-wide cache of video frames shared by all the sessions,
+   keyed by (video file, frame nb), bounded in bytes, LRU eviction.
+   The frames are kept off the Java heap, in slabs of direct memory
+   cut into blocks of a few size classes, so a large cache is not a
+   large heap: the collector neither scans nor copies it, and a cached
+   frame goes to the sockets from its block. A frame handed out is a
+   reference-counted Frame: eviction only drops the reference of the
+   cache, the block is reused once the sessions holding it release it.
+   Once the limit is reached, a class short of blocks takes the slab of
+   the least recently used frame of the other classes when that frame
+   is older than its own, and it has asked for as many bytes as the
+   slab holds: the frames of the slab are evicted, and it is cut again
+   once the sessions have released them all
+   ---------------------- */
+
+import java.nio.*;
+import java.util.*;
+
+public class FrameCache {
+
+  static int SLAB_SIZE = 1 << 20; // direct memory allocated at once, cut into blocks of one size class
+  static int MIN_BLOCK = 1024; // smallest size class
+  static double GROWTH = 1.25; // ratio between two size classes, the waste per frame is below it
+
+  long max_bytes; // size limit of the slabs
+  long slab_bytes; // size of the slabs allocated so far
+  long bytes; // size of the frames currently cached
+
+  int[] block_size; // size classes, the last one holds the largest frame
+  ArrayList<ArrayDeque<Frame>> free; // blocks of each class not holding a frame
+  Frame[] eldest; // least recently used frame of each class, and the newest
+  Frame[] newest;
+  long clock; // recency of the frames, ticks at every touch
+  long[] wanted; // bytes each class asked for since it last took a slab
+  ArrayDeque<Slab> spare; // slabs taken from their class and drained, to cut again
+
+  HashMap<Key, Frame> frames; // frames cached
+  Key probe; // key reused for the lookups, under the lock
+
+  // counters, to size the cache against real traffic
+  long hits;
+  long misses;
+  long evictions;
+  long rejected; // frames not cached, no block of their class was free
+  long moves; // slabs taken from a class for another one
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public FrameCache(long max_bytes) {
+    this.max_bytes = max_bytes;
+    ArrayList<Integer> sizes = new ArrayList<Integer>();
+    for (int size = MIN_BLOCK; sizes.isEmpty() || sizes.get(sizes.size() - 1) < VideoStream.MAX_FRAME_SIZE;
+        size = Math.min(VideoStream.MAX_FRAME_SIZE, ((int) (size * GROWTH) + 255) & ~255))
+      sizes.add(size);
+    block_size = new int[sizes.size()];
+    for (int i = 0; i < block_size.length; i++)
+      block_size[i] = sizes.get(i);
+    free = new ArrayList<ArrayDeque<Frame>>(block_size.length);
+    for (int i = 0; i < block_size.length; i++)
+      free.add(new ArrayDeque<Frame>());
+    spare = new ArrayDeque<Slab>();
+    wanted = new long[block_size.length];
+    eldest = new Frame[block_size.length];
+    newest = new Frame[block_size.length];
+    frames = new HashMap<Key, Frame>(1024);
+    probe = new Key(null, 0);
+  }
+
+  // --------------------------
+  // acquire: frame nb n of file, held until its release, or null if it
+  // is not cached
+  // --------------------------
+  public synchronized Frame acquire(String file, int n) {
+    Frame frame = frames.get(probe.set(file, n));
+    if (frame == null) {
+      misses++;
+      return (null);
+    }
+    hits++;
+    touch(frame);
+    frame.refs++;
+    return (frame);
+  }
+
+  // --------------------------
+  // get: copy frame nb n of file into frame and return its size,
+  // or return -1 if the frame is not cached
+  // --------------------------
+  public synchronized int get(String file, int n, byte[] frame) {
+    Frame cached = acquire(file, n);
+    if (cached == null)
+      return (-1);
+    cached.block.limit(cached.length).position(0);
+    cached.block.get(frame, 0, cached.length);
+    cached.refs--;
+    return (cached.length);
+  }
+
+  // --------------------------
+  // get: copy frame nb n of file into frame, which is cleared and then
+  // flipped, and return its size; or return -1 if the frame is not cached
+  // --------------------------
+  public synchronized int get(String file, int n, ByteBuffer frame) {
+    Frame cached = acquire(file, n);
+    if (cached == null)
+      return (-1);
+    cached.block.limit(cached.length).position(0);
+    frame.clear();
+    frame.put(cached.block);
+    frame.flip();
+    cached.refs--;
+    return (cached.length);
+  }
+
+  // --------------------------
+  // put: cache a copy of the length first bytes of frame as frame nb n of file
+  // --------------------------
+  public void put(String file, int n, byte[] frame, int length) {
+    put(file, n, ByteBuffer.wrap(frame, 0, length));
+  }
+
+  // --------------------------
+  // put: cache a copy of the bytes of frame between its position and
+  // limit as frame nb n of file; the position is left unchanged
+  // --------------------------
+  public void put(String file, int n, ByteBuffer frame) {
+    int length = frame.remaining();
+    // frames larger than the whole cache are not worth evicting everything for
+    if (length > max_bytes || length > block_size[block_size.length - 1])
+      return;
+
+    Frame block;
+    synchronized (this) {
+      if (frames.containsKey(probe.set(file, n)))
+        return; // cached by another session meanwhile
+      block = allocate(size_class(length));
+      if (block == null) {
+        rejected++;
+        return;
+      }
+      block.refs = 1; // not visible yet, held by the copy
+    }
+
+    // the copy is made out of the lock, nobody else can see the block
+    int position = frame.position();
+    ByteBuffer target = block.block.duplicate();
+    target.clear();
+    target.put(frame);
+    frame.position(position);
+
+    synchronized (this) {
+      block.length = length;
+      block.refs--;
+      Key key = new Key(file, n);
+      if (frames.containsKey(key) || block.slab.draining) {
+        free_block(block); // cached meanwhile, or its slab was taken
+        return;
+      }
+      block.key = key;
+      frames.put(key, block);
+      touch(block);
+      bytes += length;
+      block.slab.bytes += length;
+    }
+  }
+
+  // size class of a frame of length bytes
+  int size_class(int length) {
+    int i = 0;
+    while (block_size[i] < length)
+      i++;
+    return (i);
+  }
+
+  // a free block of size class c: from the free list, a new slab while
+  // the limit allows or a spare one, the slab of another class taken, or
+  // the least recently used frames of the class evicted; null if the
+  // blocks are all held by sessions
+  Frame allocate(int c) {
+    ArrayDeque<Frame> blocks = free.get(c);
+    if (blocks.isEmpty()) {
+      if (slab_bytes + SLAB_SIZE <= max_bytes) {
+        slab_bytes += SLAB_SIZE;
+        cut(new Slab(ByteBuffer.allocateDirect(SLAB_SIZE)), c);
+      } else if (!spare.isEmpty()) {
+        cut(spare.poll(), c);
+      }
+    }
+    if (blocks.isEmpty())
+      take_slab(c);
+    for (Frame frame = eldest[c]; blocks.isEmpty() && frame != null;) {
+      Frame next = frame.newer;
+      evict(frame);
+      frame = next;
+    }
+    Frame block = blocks.poll();
+    if (block != null)
+      block.slab.free--;
+    return (block);
+  }
+
+  // cut the slab into blocks of size class c, all free
+  void cut(Slab slab, int c) {
+    int size = block_size[c];
+    slab.size_class = c;
+    slab.blocks = new Frame[SLAB_SIZE / size];
+    slab.free = slab.blocks.length;
+    for (int i = 0; i < slab.blocks.length; i++) {
+      ByteBuffer block = slab.memory.duplicate();
+      block.limit((i + 1) * size).position(i * size);
+      slab.blocks[i] = new Frame(this, block.slice(), c, slab);
+      free.get(c).push(slab.blocks[i]);
+    }
+  }
+
+  // take for class c the slab of the least recently used frame of the
+  // other classes, if that frame is older than those of c and c has
+  // asked for as many bytes as the slab caches: one slab moves per slab
+  // worth of demand, so classes as hot as each other keep their slabs.
+  // Its free blocks leave their list and its frames are evicted; it is
+  // cut for c now if none is held, else it becomes a spare slab once the
+  // sessions release them
+  void take_slab(int c) {
+    Frame oldest = null;
+    for (int i = 0; i < eldest.length; i++)
+      if (i != c && eldest[i] != null && (oldest == null || eldest[i].used < oldest.used))
+        oldest = eldest[i];
+    if (oldest == null || (eldest[c] != null && eldest[c].used < oldest.used))
+      return;
+    Slab slab = oldest.slab;
+    wanted[c] += block_size[c];
+    if (wanted[c] < slab.bytes)
+      return;
+    wanted[c] = 0;
+    slab.draining = true;
+    for (Iterator<Frame> blocks = free.get(slab.size_class).iterator(); blocks.hasNext();)
+      if (blocks.next().slab == slab)
+        blocks.remove();
+    for (Frame frame : slab.blocks)
+      if (frame.key != null)
+        evict(frame);
+    moves++;
+    if (spare.remove(slab))
+      cut(slab, c);
+  }
+
+  // drop the frame from the cache, its block is free once released
+  void evict(Frame frame) {
+    frames.remove(frame.key);
+    unlink(frame);
+    frame.key = null;
+    bytes -= frame.length;
+    frame.slab.bytes -= frame.length;
+    evictions++;
+    if (frame.refs == 0)
+      free_block(frame);
+  }
+
+  // the block holds no frame and no session holds it: back to the free
+  // list, or to its slab when the slab is being taken
+  void free_block(Frame block) {
+    Slab slab = block.slab;
+    slab.free++;
+    if (!slab.draining)
+      free.get(block.size_class).push(block);
+    else if (slab.free == slab.blocks.length) {
+      slab.draining = false;
+      spare.add(slab);
+    }
+  }
+
+  // the frame becomes the newest of its class
+  void touch(Frame frame) {
+    frame.used = ++clock;
+    if (newest[frame.size_class] == frame)
+      return;
+    if (frame.older != null || eldest[frame.size_class] == frame)
+      unlink(frame);
+    frame.older = newest[frame.size_class];
+    frame.newer = null;
+    if (frame.older != null)
+      frame.older.newer = frame;
+    else
+      eldest[frame.size_class] = frame;
+    newest[frame.size_class] = frame;
+  }
+
+  void unlink(Frame frame) {
+    if (frame.older != null)
+      frame.older.newer = frame.newer;
+    else
+      eldest[frame.size_class] = frame.newer;
+    if (frame.newer != null)
+      frame.newer.older = frame.older;
+    else
+      newest[frame.size_class] = frame.older;
+    frame.older = null;
+    frame.newer = null;
+  }
+
+  // a session is done with the frame and its view buffer
+  synchronized void release(Frame frame, ByteBuffer buffer) {
+    if (buffer == frame.view)
+      frame.lent = false;
+    frame.refs--;
+    if (frame.refs == 0 && frame.key == null)
+      free_block(frame);
+  }
+
+  // --------------------------
+  // counters
+  // --------------------------
+  public synchronized long gethits() {
+    return (hits);
+  }
+
+  public synchronized long getmisses() {
+    return (misses);
+  }
+
+  public synchronized long getevictions() {
+    return (evictions);
+  }
+
+  public synchronized long getbytes() {
+    return (bytes);
+  }
+
+  public synchronized String toString() {
+    long lookups = hits + misses;
+    return ("cache " + (bytes >> 10) + "/" + (max_bytes >> 10) + " KB (" + (slab_bytes >> 10) + " KB off-heap), hits "
+        + hits + " (" + (lookups == 0 ? 0 : 100 * hits / lookups) + "%), misses " + misses + ", evictions "
+        + evictions + ", rejected " + rejected + ", slab moves " + moves);
+  }
+
+  // ------------------------------------
+  // Frame: a block of a slab and the frame it holds, if any. Its fields
+  // are under the lock of the cache
+  // ------------------------------------
+  public static class Frame {
+    FrameCache cache;
+    ByteBuffer block; // the block, written only while no session holds it
+    int size_class;
+    int length; // of the frame in the block
+    int refs; // sessions holding the frame
+    Key key; // of the frame, null once evicted
+    Frame older; // neighbours in the LRU list of the class
+    Frame newer;
+    long used; // clock of the cache at the last use
+    Slab slab; // slab the block is cut from
+    ByteBuffer view; // read-only view of the block, lent to one holder at a time; made on first use
+    boolean lent; // view is held, under the cache lock
+
+    Frame(FrameCache cache, ByteBuffer block, int size_class, Slab slab) {
+      this.cache = cache;
+      this.block = block;
+      this.size_class = size_class;
+      this.slab = slab;
+    }
+
+    // --------------------------
+    // getbuffer: a read-only view of the frame, valid until the release;
+    // the view of the block unless another holder has it, then a new one
+    // --------------------------
+    public ByteBuffer getbuffer() {
+      ByteBuffer buffer;
+      synchronized (cache) {
+        if (view == null)
+          view = block.asReadOnlyBuffer();
+        buffer = lent ? block.asReadOnlyBuffer() : view;
+        lent = true;
+      }
+      buffer.limit(length).position(0);
+      return (buffer);
+    }
+
+    // --------------------------
+    // release: the holder is done with the frame and with buffer, the
+    // view getbuffer gave it
+    // --------------------------
+    public void release(ByteBuffer buffer) {
+      cache.release(this, buffer);
+    }
+  }
+
+  // --------------------------
+  // slab: direct memory cut into the blocks of one size class, until it
+  // is taken for another class
+  // --------------------------
+  static class Slab {
+    ByteBuffer memory;
+    int size_class;
+    Frame[] blocks;
+    int free; // blocks holding no frame and held by no session
+    long bytes; // of the frames cached in its blocks
+    boolean draining; // taken for another class, waiting for its blocks to be released
+
+    Slab(ByteBuffer memory) {
+      this.memory = memory;
+    }
+  }
+
+  // --------------------------
+  // cache key: video file and frame nb
+  // --------------------------
+  static class Key {
+    String file;
+    int n;
+
+    Key(String file, int n) {
+      this.file = file;
+      this.n = n;
+    }
+
+    // only for the lookup key, the keys stored in the map never change
+    Key set(String file, int n) {
+      this.file = file;
+      this.n = n;
+      return (this);
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return (false);
+      Key k = (Key) o;
+      return (n == k.n && file.equals(k.file));
+    }
+
+    public int hashCode() {
+      return (31 * file.hashCode() + n);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/* ------------------
+   FrameDecoder
+   decode stage of the client pipeline: a pool of threads takes the
+   complete JPEG frames from the receive stage and decodes them with
+   ImageIO into BufferedImages, off the Swing event thread. The decoded
+   frames wait for the render stage in a bounded queue that drops the
+   oldest frame when full; the listener is told when a frame is ready
+   ---------------------- */
+
+import java.io.*;
+import java.util.concurrent.*;
+import javax.imageio.*;
+
+public class FrameDecoder implements Runnable {
+
+  RTPreceiver receiver; // source of the frames, and their pool
+  ArrayBlockingQueue<RTPreceiver.Frame> output; // decoded frames, to the render stage
+  Runnable listener; // called after a frame was queued
+  Thread[] threads;
+  volatile boolean running;
+
+  // counters
+  long decoded;
+  long errors; // frames ImageIO could not decode
+  long stale_frames; // dropped because the render stage was behind
+
+  // --------------------------
+  // Constructor: decoded frames are queued for the render stage up to capacity
+  // --------------------------
+  public FrameDecoder(RTPreceiver receiver, int capacity, Runnable listener) {
+    this.receiver = receiver;
+    this.listener = listener;
+    output = new ArrayBlockingQueue<RTPreceiver.Frame>(capacity);
+    ImageIO.setUseCache(false); // decode in memory, not through a temporary file
+  }
+
+  // --------------------------
+  // start the decoding threads
+  // --------------------------
+  public void start(int nb_threads) {
+    running = true;
+    threads = new Thread[nb_threads];
+    for (int i = 0; i < nb_threads; i++) {
+      threads[i] = new Thread(this, "JPEG decoder " + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  // --------------------------
+  // run: decoding loop of one thread
+  // --------------------------
+  public void run() {
+    while (running) {
+      RTPreceiver.Frame frame;
+      try {
+        frame = receiver.take();
+      } catch (InterruptedException ie) {
+        break;
+      }
+
+      try {
+        frame.image = ImageIO.read(new ByteArrayInputStream(frame.data, 0, frame.length));
+      } catch (IOException ioe) {
+        frame.image = null;
+      }
+      if (frame.image == null) {
+        synchronized (this) {
+          errors++;
+        }
+        receiver.recycle(frame);
+        continue;
+      }
+
+      // queue the frame, dropping the oldest one if the render stage is behind
+      synchronized (this) {
+        decoded++;
+        while (!output.offer(frame)) {
+          RTPreceiver.Frame stale = output.poll();
+          if (stale != null) {
+            stale_frames++;
+            receiver.recycle(stale);
+          }
+        }
+      }
+      listener.run();
+    }
+  }
+
+  // --------------------------
+  // poll: next decoded frame, null if none. The frames are not always in
+  // order with several threads, see RTPreceiver.Frame.number
+  // --------------------------
+  public RTPreceiver.Frame poll() {
+    return (output.poll());
+  }
+
+  // --------------------------
+  // stop the decoding threads
+  // --------------------------
+  public void stop() {
+    running = false;
+    if (threads != null)
+      for (Thread thread : threads)
+        thread.interrupt();
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+  public synchronized String toString() {
+    return ("decoded " + decoded + ", errors " + errors + ", stale " + stale_frames);
+  }
+}
@@ -0,0 +1,248 @@
+/* ------------------
+   FrameIndex
+   frame index of an MJPEG file kept in a binary sidecar next to it
+   (movie.Mjpeg.idx), so that a VideoStream can seek in a large file
+   without first scanning the length prefixes of all the frames before.
+   The sidecar is written once by the ingest step and memory-mapped by
+   the VideoStreams: opening it costs a stat of the video and a lookup
+   of the mapping, shared by all the sessions of the file. It records
+   the size and modification time of the video, a sidecar that does not
+   match them is stale and ignored
+   usage: java FrameIndex [frame period ms] [video file]...
+   sidecar: header, then per frame its offset (8 bytes), length and
+   timestamp in ms (4 bytes each), big-endian
+   ---------------------- */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class FrameIndex {
+
+  final static int MAGIC = 0x4D4A4958; // "MJIX"
+  final static int VERSION = 1;
+  // header: magic, version, frames, frame period, video size and mtime,
+  // CRC32 of the entries, reserved
+  final static int HEADER = 48;
+  final static int ENTRY = 16; // offset, length, timestamp
+  final static String SUFFIX = ".idx";
+
+  // sidecars mapped so far, by video file name
+  static ConcurrentHashMap<String, FrameIndex> opened = new ConcurrentHashMap<String, FrameIndex>();
+
+  MappedByteBuffer entries; // the whole sidecar, read-only
+  int frames;
+  int frame_period; // ms between two frames
+  long video_size; // size and modification time of the video indexed
+  long video_mtime;
+  long crc; // CRC32 of the entries
+
+  // --------------------------
+  // Constructor: map the sidecar file, which must be a frame index
+  // --------------------------
+  FrameIndex(File sidecar) throws IOException {
+    try (FileChannel channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER)
+        throw new IOException("Truncated frame index " + sidecar);
+      entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    if (entries.getInt(0) != MAGIC || entries.getInt(4) != VERSION)
+      throw new IOException("Not a frame index " + sidecar);
+    frames = entries.getInt(8);
+    frame_period = entries.getInt(12);
+    video_size = entries.getLong(16);
+    video_mtime = entries.getLong(24);
+    crc = entries.getLong(32);
+    if (entries.capacity() != HEADER + (long) frames * ENTRY)
+      throw new IOException("Truncated frame index " + sidecar);
+  }
+
+  // --------------------------
+  // open: the frame index of the video file filename, null if it has no
+  // sidecar or a stale one
+  // --------------------------
+  public static FrameIndex open(String filename) {
+    File video = new File(filename);
+    long size = video.length();
+    long mtime = video.lastModified();
+    FrameIndex index = opened.get(filename);
+    if (index != null && index.matches(size, mtime))
+      return (index);
+
+    File sidecar = new File(filename + SUFFIX);
+    if (!sidecar.isFile())
+      return (null);
+    try {
+      index = new FrameIndex(sidecar);
+    } catch (IOException ioe) {
+      AsyncLog.log("Ignoring the frame index of " + filename + ": " + ioe.getMessage());
+      return (null);
+    }
+    if (!index.matches(size, mtime)) {
+      AsyncLog.log("Ignoring the stale frame index of " + filename);
+      return (null);
+    }
+    opened.put(filename, index);
+    return (index);
+  }
+
+  // whether the index is the one of a video of this size and mtime
+  boolean matches(long size, long mtime) {
+    return (video_size == size && video_mtime == mtime);
+  }
+
+  // --------------------------
+  // frame nb n (starting at 1): offset of its payload in the video file,
+  // length and timestamp in ms
+  // --------------------------
+  public long getoffset(int n) {
+    return (entries.getLong(HEADER + (n - 1) * ENTRY));
+  }
+
+  public int getlength(int n) {
+    return (entries.getInt(HEADER + (n - 1) * ENTRY + 8));
+  }
+
+  public int gettimestamp(int n) {
+    return (entries.getInt(HEADER + (n - 1) * ENTRY + 12));
+  }
+
+  public int getframes() {
+    return (frames);
+  }
+
+  public int getframe_period() {
+    return (frame_period);
+  }
+
+  // --------------------------
+  // getframe_at: the frame shown at ms from the start of the video, the
+  // last one whose timestamp is not after ms, by a binary search of the
+  // timestamps (frame 1 before the first one)
+  // --------------------------
+  public int getframe_at(long ms) {
+    int low = 1;
+    int high = frames;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (gettimestamp(middle) <= ms)
+        low = middle;
+      else
+        high = middle - 1;
+    }
+    return (low);
+  }
+
+  // --------------------------
+  // verify: whether the entries match their checksum; reads the whole
+  // sidecar, so it is left to the ingest step
+  // --------------------------
+  public boolean verify() {
+    CRC32 checksum = new CRC32();
+    ByteBuffer view = entries.duplicate();
+    view.position(HEADER);
+    checksum.update(view);
+    return (checksum.getValue() == crc);
+  }
+
+  // ------------------------------------
+  // write: scan the length prefixes of the video file and write its
+  // sidecar; the frames are timestamped every frame_period ms. Returns
+  // the number of frames, a truncated last frame is left out
+  // ------------------------------------
+  public static int write(String filename, int frame_period) throws IOException {
+    File video = new File(filename);
+    // the video may be written to while it is scanned: take its size
+    // and mtime first, the sidecar is then stale rather than wrong
+    long mtime = video.lastModified();
+    long size = video.length();
+
+    long[] offsets = new long[1024];
+    int[] lengths = new int[1024];
+    int frames = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(video), 1 << 16))) {
+      byte[] prefix = new byte[VideoStream.LENGTH_PREFIX];
+      long offset = 0;
+      while (offset + VideoStream.LENGTH_PREFIX <= size) {
+        in.readFully(prefix);
+        int length = 0;
+        for (int i = 0; i < prefix.length; i++) {
+          int digit = prefix[i] - '0';
+          if (digit < 0 || digit > 9)
+            throw new IOException("Invalid length prefix for frame nb " + (frames + 1) + " of " + filename);
+          length = length * 10 + digit;
+        }
+        offset += VideoStream.LENGTH_PREFIX;
+        if (offset + length > size)
+          break; // truncated last frame
+        if (frames == offsets.length) {
+          offsets = java.util.Arrays.copyOf(offsets, 2 * frames);
+          lengths = java.util.Arrays.copyOf(lengths, 2 * frames);
+        }
+        offsets[frames] = offset;
+        lengths[frames] = length;
+        for (int skipped = 0; skipped < length;) {
+          int n = in.skipBytes(length - skipped);
+          if (n <= 0)
+            throw new EOFException("End of video file " + filename);
+          skipped += n;
+        }
+        offset += length;
+        frames++;
+      }
+    }
+    write(filename, size, mtime, frame_period, offsets, lengths, frames);
+    return (frames);
+  }
+
+  // ------------------------------------
+  // write: the sidecar of the video file of this size and mtime, with
+  // the offset and length of its frames, through a temporary file renamed
+  // over the old one
+  // ------------------------------------
+  public static void write(String filename, long size, long mtime, int frame_period, long[] offsets, int[] lengths,
+      int frames) throws IOException {
+    if (frame_period <= 0)
+      throw new IllegalArgumentException("Frame period of " + frame_period + " ms, it must be positive");
+    ByteBuffer body = ByteBuffer.allocate(frames * ENTRY);
+    for (int i = 0; i < frames; i++)
+      body.putLong(offsets[i]).putInt(lengths[i]).putInt(i * frame_period);
+    byte[] entries = body.array();
+    CRC32 checksum = new CRC32();
+    checksum.update(entries);
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+    header.putInt(MAGIC).putInt(VERSION).putInt(frames).putInt(frame_period);
+    header.putLong(size).putLong(mtime).putLong(checksum.getValue()).putLong(0);
+
+    Path sidecar = Paths.get(filename + SUFFIX);
+    Path temporary = Paths.get(filename + SUFFIX + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      header.flip();
+      body.flip();
+      while (header.hasRemaining() || body.hasRemaining())
+        channel.write(new ByteBuffer[] { header, body });
+      channel.force(false);
+    }
+    Files.move(temporary, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    opened.remove(filename);
+  }
+
+  // ------------------------------------
+  // main: the ingest step, writes the sidecar of each video file
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    int frame_period = Integer.parseInt(argv[0]);
+    for (int i = 1; i < argv.length; i++) {
+      long start = System.nanoTime();
+      int frames = write(argv[i], frame_period);
+      System.out.println(argv[i] + SUFFIX + ": " + frames + " frames in " + (System.nanoTime() - start) / 1000000
+          + " ms");
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/* ------------------
+   FramePrefetcher
+   read-ahead of the video frames, so that a disk stall (cold page
+   cache, slow volume) delays a background read instead of a pacer:
+   every session, or broadcast group, keeps the next frames of its
+   VideoStream in a Ring, filled by the I/O threads of the prefetcher.
+   The pacer only takes frames that are ready; a frame that is not is
+   an underrun, counted and skipped, and the read-ahead restarts after
+   it. The underruns and the read times tell when the storage is the
+   bottleneck. The slots are direct buffers, the frames read ahead are
+   not on the heap
+   ---------------------- */
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class FramePrefetcher implements Runnable {
+
+  Thread[] threads;
+  ArrayDeque<Ring> work; // rings with room for another frame, under the lock
+  volatile boolean running;
+
+  // counters over all the rings
+  AtomicLong reads = new AtomicLong();
+  AtomicLong read_bytes = new AtomicLong();
+  AtomicLong read_time = new AtomicLong(); // ns
+  AtomicLong read_max = new AtomicLong(); // ns, longest read
+  AtomicLong underruns = new AtomicLong();
+
+  // --------------------------
+  // Constructor: starts the I/O threads
+  // --------------------------
+  public FramePrefetcher(int thread_count) {
+    work = new ArrayDeque<Ring>();
+    running = true;
+    threads = new Thread[thread_count];
+    for (int i = 0; i < thread_count; i++) {
+      threads[i] = new Thread(this, "Prefetch-" + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  // --------------------------
+  // open: read ahead depth frames of video from play position first,
+  // stride positions apart; with loop the video restarts at frame 1
+  // after its last frame
+  // --------------------------
+  public Ring open(VideoStream video, int depth, long first, int stride, int last, boolean loop) {
+    Ring ring = new Ring(this, video, depth, last, loop);
+    ring.restart(first, stride);
+    return (ring);
+  }
+
+  // queue a ring that has room for another frame
+  synchronized void queue(Ring ring) {
+    work.add(ring);
+    notify();
+  }
+
+  // --------------------------
+  // run: read the next frame of the rings in turn
+  // --------------------------
+  public void run() {
+    while (running) {
+      Ring ring;
+      synchronized (this) {
+        while (running && work.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+        ring = work.poll();
+      }
+      if (ring != null)
+        ring.fill();
+    }
+  }
+
+  // --------------------------
+  // stop the I/O threads
+  // --------------------------
+  public synchronized void stop() {
+    running = false;
+    notifyAll();
+  }
+
+  public String toString() {
+    long count = reads.get();
+    return ("reads " + count + " (" + (read_bytes.get() >> 20) + " MB, avg "
+        + ((count == 0) ? 0 : read_time.get() / count / 1000) + " us, max " + read_max.get() / 1000
+        + " us), underruns " + underruns.get());
+  }
+
+  // ------------------------------------
+  // Ring: the frames read ahead for one consumer, in play order. A play
+  // position p is frame p of the video, or of its loop; the reads go
+  // stride frames at a time, backwards if it is negative (trick play)
+  // ------------------------------------
+  public static class Ring {
+    FramePrefetcher prefetcher;
+    VideoStream video; // used under its lock, the consumer may seek in it too
+    int depth; // frames read ahead
+    int last; // last frame of the video
+    boolean loop;
+    int stride = 1; // play positions between two frames read
+
+    // slots, the frames ready are count slots from head
+    ByteBuffer[] data; // direct, sized up to the largest frame read so far
+    ByteBuffer[] views; // read-only views of data
+    int[] length;
+    long[] play; // play position of the frame in the slot
+    int head;
+    int count;
+
+    long next_read; // play position of the next frame to read
+    int generation; // changed by restart, a read in flight for an older one is dropped
+    boolean queued; // waiting in the prefetcher queue, or being read
+    boolean closed;
+    Exception error; // the read of frame error_play failed
+    long error_play;
+
+    // counters
+    long frames; // frames taken
+    long underruns;
+
+    Ring(FramePrefetcher prefetcher, VideoStream video, int depth, int last, boolean loop) {
+      this.prefetcher = prefetcher;
+      this.video = video;
+      this.depth = depth;
+      this.last = last;
+      this.loop = loop;
+      data = new ByteBuffer[depth];
+      views = new ByteBuffer[depth];
+      length = new int[depth];
+      play = new long[depth];
+    }
+
+    // --------------------------
+    // take: the frame at play position p, null if it is not read yet (an
+    // underrun). The frames before p in play order are dropped. The buffer
+    // is valid and the slot held until release
+    // --------------------------
+    public synchronized ByteBuffer take(long p) throws Exception {
+      while (count > 0 && before(play[head], p))
+        drop();
+      if (count > 0 && play[head] == p) {
+        frames++;
+        views[head].limit(length[head]).position(0);
+        return (views[head]);
+      }
+      if (error != null && !before(p, error_play)) {
+        // read ahead again after the frame, a loop may come back to it
+        Exception failure = error;
+        restart(p + stride);
+        throw failure;
+      }
+
+      // not read yet: skip it, and read ahead from the next one if the
+      // reads are behind or elsewhere (seek)
+      underruns++;
+      prefetcher.underruns.incrementAndGet();
+      if (!before(p, next_read) || count > 0)
+        restart(p + stride);
+      return (null);
+    }
+
+    // --------------------------
+    // release: the consumer is done with the frame taken
+    // --------------------------
+    public synchronized void release() {
+      if (count > 0)
+        drop();
+    }
+
+    // --------------------------
+    // restart: drop the frames read and read ahead from play position p,
+    // the next ones stride positions apart
+    // --------------------------
+    public synchronized void restart(long p, int stride) {
+      this.stride = stride;
+      restart(p);
+    }
+
+    public synchronized void restart(long p) {
+      count = 0;
+      next_read = p;
+      generation++;
+      error = null;
+      schedule();
+    }
+
+    // --------------------------
+    // close: stop reading ahead; the video is closed by its owner
+    // --------------------------
+    public synchronized void close() {
+      closed = true;
+      count = 0;
+    }
+
+    void drop() {
+      head = (head + 1) % depth;
+      count--;
+      schedule();
+    }
+
+    // queue the ring for a read if it has room and something to read
+    void schedule() {
+      if (!queued && !closed && count < depth && error == null && readable(next_read)) {
+        queued = true;
+        prefetcher.queue(this);
+      }
+    }
+
+    // whether a is before b in play order
+    boolean before(long a, long b) {
+      return ((stride > 0) ? a < b : a > b);
+    }
+
+    // whether play position p is in the video
+    boolean readable(long p) {
+      return (loop || (p >= 1 && p <= last));
+    }
+
+    // frame number of play position p
+    int frame(long p) {
+      return (loop ? (int) ((p - 1) % last) + 1 : (int) p);
+    }
+
+    // --------------------------
+    // fill: read the next frame into the free slot after the ready ones,
+    // on an I/O thread; only one thread reads a ring at a time
+    // --------------------------
+    void fill() {
+      long p;
+      int slot;
+      int read_generation;
+      synchronized (this) {
+        if (closed || count == depth || error != null || !readable(next_read)) {
+          queued = false;
+          return;
+        }
+        p = next_read;
+        next_read += stride;
+        slot = (head + count) % depth;
+        read_generation = generation;
+      }
+
+      // the slot is not visible to the consumer until count covers it
+      Exception failure = null;
+      int frame_length = 0;
+      long start = System.nanoTime();
+      try {
+        synchronized (video) {
+          int n = frame(p);
+          frame_length = video.getframe_length(n);
+          if (data[slot] == null || data[slot].capacity() < frame_length) {
+            data[slot] = ByteBuffer.allocateDirect((frame_length + 4095) & ~4095);
+            views[slot] = data[slot].asReadOnlyBuffer();
+          }
+          video.getframe(n, data[slot]);
+        }
+      } catch (Exception ex) {
+        failure = ex;
+      }
+      long elapsed = System.nanoTime() - start;
+      prefetcher.reads.incrementAndGet();
+      prefetcher.read_bytes.addAndGet(frame_length);
+      prefetcher.read_time.addAndGet(elapsed);
+      long max = prefetcher.read_max.get();
+      while (elapsed > max && !prefetcher.read_max.compareAndSet(max, elapsed))
+        max = prefetcher.read_max.get();
+
+      synchronized (this) {
+        queued = false;
+        if (read_generation == generation && !closed) {
+          if (failure != null) {
+            error = failure;
+            error_play = p;
+            return;
+          }
+          length[slot] = frame_length;
+          play[slot] = p;
+          count++;
+        }
+        schedule();
+      }
+    }
+
+    public synchronized String toString() {
+      return ("frames " + frames + ", underruns " + underruns + ", read ahead " + count + "/" + depth);
+    }
+  }
+}
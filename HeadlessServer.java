@@ -0,0 +1,58 @@
+/* ------------------
+   HeadlessServer
+   Server without GUI, for hosts without a display: the status is
+   logged periodically instead of shown in a window
+   usage: java HeadlessServer [RTSP listening port] [max concurrent sessions] [stream|mmap] [frame cache MB]
+          [multicast group|-] [frames read ahead]
+   ---------------------- */
+
+public class HeadlessServer implements ServerStatus, Runnable {
+
+  static int STATUS_PERIOD = 10; // seconds between two status lines
+
+  StreamingServer core; // streaming core, shared with Server
+
+  // ------------------------------------
+  // main
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    HeadlessServer theServer = new HeadlessServer();
+    theServer.core = StreamingServer.create(argv, theServer);
+
+    // log the status periodically
+    Thread status_thread = new Thread(theServer, "Status");
+    status_thread.setDaemon(true);
+    status_thread.start();
+
+    // get RTSP socket port from the command line and accept RTSP connections
+    AsyncLog.log("Headless server listening on port " + argv[0]);
+    theServer.core.serve(Integer.parseInt(argv[0]));
+  }
+
+  // ------------------------------------
+  // run: status log loop
+  // ------------------------------------
+  public void run() {
+    try {
+      while (true) {
+        Thread.sleep(STATUS_PERIOD * 1000L);
+        AsyncLog.log(core.status_line() + "   dropped log lines: " + AsyncLog.getdropped());
+      }
+    } catch (InterruptedException ie) {
+      // stop logging
+    }
+  }
+
+  // ------------------------------------
+  // status events
+  // ------------------------------------
+  public void session_opened(ServerSession session) {
+    AsyncLog.log("Session " + session.RTSP_ID + " - opened by " + session.ClientIPAddr);
+  }
+
+  public void session_closed(ServerSession session) {
+  }
+
+  public void frame_sent(ServerSession session) {
+  }
+}
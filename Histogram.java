@@ -0,0 +1,98 @@
+/* ------------------
+   Histogram
+   distribution of non-negative values (latencies, interarrival times)
+   in log-linear buckets: exact below 16, then 8 buckets per power of 2,
+   so a percentile is known within 12.5% at any scale with a few hundred
+   counters. Histograms of several sessions can be added together
+   ---------------------- */
+
+public class Histogram {
+
+  final static int LINEAR = 16; // values recorded exactly
+  final static int SUB_BITS = 3; // 2^SUB_BITS buckets per power of 2
+  final static int BUCKETS = LINEAR + (63 - 4) * (1 << SUB_BITS);
+
+  long[] counts;
+  long count;
+  long sum;
+  long max;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public Histogram() {
+    counts = new long[BUCKETS];
+  }
+
+  // --------------------------
+  // record: account for one value, negative values count as 0
+  // --------------------------
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts[bucket(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  // --------------------------
+  // add: account for all the values of other
+  // --------------------------
+  public void add(Histogram other) {
+    for (int i = 0; i < BUCKETS; i++)
+      counts[i] += other.counts[i];
+    count += other.count;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  static int bucket(long value) {
+    if (value < LINEAR)
+      return ((int) value);
+    int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 4
+    int sub = (int) (value >> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+    return (LINEAR + (exponent - 4) * (1 << SUB_BITS) + sub);
+  }
+
+  // largest value of bucket i
+  static long upper_bound(int i) {
+    if (i < LINEAR)
+      return (i);
+    int exponent = (i - LINEAR) / (1 << SUB_BITS) + 4;
+    int sub = (i - LINEAR) % (1 << SUB_BITS);
+    return ((((long) (1 << SUB_BITS) + sub + 1) << (exponent - SUB_BITS)) - 1);
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+
+  // value below which a fraction p of the values are (upper bound of the bucket)
+  public long getpercentile(double p) {
+    long target = (long) Math.ceil(count * p);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target && seen > 0)
+        return (Math.min(upper_bound(i), max));
+    }
+    return (0);
+  }
+
+  public long getcount() {
+    return (count);
+  }
+
+  public long getmax() {
+    return (max);
+  }
+
+  public double getmean() {
+    return ((count == 0) ? 0 : (double) sum / count);
+  }
+
+  public String toString() {
+    return ("p50 " + getpercentile(0.5) + ", p95 " + getpercentile(0.95) + ", p99 " + getpercentile(0.99) + ", max "
+        + max);
+  }
+}
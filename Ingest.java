@@ -0,0 +1,270 @@
+/* ------------------
+   Ingest
+   batch ingest of a library of MJPEG files: every video file found in
+   the directories given, at any depth, is scanned on a fork-join pool
+   with a thread per core. The scan memory-maps the file by windows, so
+   the heap does not grow with the library, and checks what playback
+   relies on: the 5-digit length prefixes, that every frame is complete
+   and starts with the JPEG SOI marker and ends with EOI. A valid file
+   gets its frame index sidecar (FrameIndex); with -check nothing is
+   written and the sidecars present are verified instead. Per file and
+   over the library: frame count, frame size histogram, peak bit rate
+   usage: java Ingest [-check] [frame period ms] [directory or video file]...
+   ---------------------- */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Ingest {
+
+  static String EXTENSION = ".mjpeg"; // of the video files in the directories, in any case
+  static long WINDOW_SIZE = VideoStream.WINDOW_SIZE; // largest part of a file mapped at once
+
+  boolean check; // only validate, verify the sidecars instead of writing them
+  int frame_period; // ms between two frames, for the timestamps and the bit rate
+
+  // totals over the library, under the lock
+  int files;
+  int failed;
+  long frames;
+  long bytes;
+  long peak_bitrate; // bit/s, highest of the files
+  Histogram sizes = new Histogram(); // frame sizes, bytes
+
+  // ------------------------------------
+  // main
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    Ingest ingest = new Ingest();
+    int arg = 0;
+    if (argv[arg].equals("-check")) {
+      ingest.check = true;
+      arg++;
+    }
+    ingest.frame_period = Integer.parseInt(argv[arg++]);
+    if (ingest.frame_period <= 0)
+      throw new IllegalArgumentException("Frame period of " + ingest.frame_period + " ms, it must be positive");
+    ArrayList<Scan> roots = new ArrayList<Scan>();
+    for (; arg < argv.length; arg++)
+      roots.add(ingest.new Scan(new File(argv[arg]), true));
+
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    long start = System.nanoTime();
+    for (Scan root : roots)
+      pool.invoke(root);
+    long elapsed = (System.nanoTime() - start) / 1000000;
+    pool.shutdown();
+
+    System.out.println(ingest.summary(elapsed, pool.getParallelism()));
+    System.exit((ingest.failed == 0) ? 0 : 1);
+  }
+
+  // ------------------------------------
+  // Scan: a directory, forked into one task per entry, or a video file
+  // ------------------------------------
+  class Scan extends RecursiveAction {
+    private static final long serialVersionUID = 1L; // never serialized, RecursiveAction is Serializable
+
+    File path;
+    boolean root; // given on the command line: a file is a video whatever its name
+
+    Scan(File path, boolean root) {
+      this.path = path;
+      this.root = root;
+    }
+
+    protected void compute() {
+      if (path.isDirectory()) {
+        File[] entries = path.listFiles();
+        if (entries == null)
+          return;
+        ArrayList<Scan> tasks = new ArrayList<Scan>();
+        for (File entry : entries)
+          if (entry.isDirectory() || entry.getName().toLowerCase(Locale.ROOT).endsWith(EXTENSION))
+            tasks.add(new Scan(entry, false));
+        invokeAll(tasks);
+      } else if (root || path.isFile()) {
+        Report report = new Report(path);
+        report.scan();
+        System.out.println(report);
+        add(report);
+      }
+    }
+  }
+
+  // add the statistics of a valid file to the totals
+  synchronized void add(Report report) {
+    files++;
+    if (report.error != null) {
+      failed++;
+      return;
+    }
+    frames += report.frames;
+    bytes += report.bytes;
+    peak_bitrate = Math.max(peak_bitrate, report.peak_bitrate);
+    sizes.add(report.sizes);
+  }
+
+  synchronized String summary(long elapsed, int threads) {
+    return ("Ingest: " + files + " files, " + failed + " failed, " + frames + " frames, " + (bytes >> 20) + " MB in "
+        + elapsed + " ms (" + ((elapsed == 0) ? 0 : (bytes >> 10) * 1000 / 1024 / elapsed) + " MB/s) on " + threads
+        + " threads; frame size " + sizes + " bytes, peak " + peak_bitrate / 1000 + " kbit/s");
+  }
+
+  // ------------------------------------
+  // Report: the scan of one video file and its statistics
+  // ------------------------------------
+  class Report {
+    File file;
+    int frames;
+    long bytes; // of the frames, without the length prefixes
+    Histogram sizes = new Histogram();
+    long peak_bitrate; // bit/s over a second of frames
+    String error; // why the file is not valid, null if it is
+    String index; // what became of its sidecar
+
+    // offsets and lengths of the frames, for the sidecar
+    long[] offsets = new long[1024];
+    int[] lengths = new int[1024];
+
+    // mapped part of the file
+    FileChannel channel;
+    long size;
+    MappedByteBuffer window;
+    long window_start = -1;
+
+    Report(File file) {
+      this.file = file;
+    }
+
+    // --------------------------
+    // scan: validate the frames, then write or verify the sidecar
+    // --------------------------
+    void scan() {
+      long mtime = file.lastModified();
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        this.channel = channel;
+        size = channel.size();
+        scan_frames();
+      } catch (IOException ioe) {
+        error = ioe.toString();
+      }
+      window = null;
+      if (error != null)
+        return;
+
+      try {
+        if (check)
+          index = verify_index(mtime);
+        else {
+          FrameIndex.write(file.getPath(), size, mtime, frame_period, offsets, lengths, frames);
+          index = "indexed";
+        }
+      } catch (IOException ioe) {
+        error = "cannot write the frame index: " + ioe;
+      }
+    }
+
+    // walk the frames by their length prefixes; on an invalid one, error
+    // tells which frame and where
+    void scan_frames() throws IOException {
+      int window_frames = Math.max(1, 1000 / frame_period); // frames in a second, for the bit rate
+      long[] last_second = new long[window_frames];
+      long second_bytes = 0;
+
+      byte[] prefix = new byte[VideoStream.LENGTH_PREFIX];
+      long offset = 0;
+      while (offset < size) {
+        if (offset + prefix.length > size) {
+          error = "truncated length prefix of frame " + (frames + 1) + " at offset " + offset;
+          return;
+        }
+        map(offset, prefix.length).get(prefix);
+        int length = 0;
+        for (int i = 0; i < prefix.length; i++) {
+          int digit = prefix[i] - '0';
+          if (digit < 0 || digit > 9) {
+            error = "invalid length prefix of frame " + (frames + 1) + " at offset " + offset;
+            return;
+          }
+          length = length * 10 + digit;
+        }
+        offset += prefix.length;
+        if (offset + length > size) {
+          error = "truncated frame " + (frames + 1) + " at offset " + offset + ", " + length + " bytes announced, "
+              + (size - offset) + " left";
+          return;
+        }
+
+        // a JPEG image: SOI first, EOI last
+        ByteBuffer frame = map(offset, length);
+        int start = frame.position();
+        if (length < 4 || frame.get(start) != (byte) 0xFF || frame.get(start + 1) != (byte) 0xD8) {
+          error = "no JPEG SOI marker in frame " + (frames + 1) + " at offset " + offset;
+          return;
+        }
+        if (frame.get(start + length - 2) != (byte) 0xFF || frame.get(start + length - 1) != (byte) 0xD9) {
+          error = "no JPEG EOI marker at the end of frame " + (frames + 1) + " at offset " + offset;
+          return;
+        }
+
+        if (frames == offsets.length) {
+          offsets = Arrays.copyOf(offsets, 2 * frames);
+          lengths = Arrays.copyOf(lengths, 2 * frames);
+        }
+        offsets[frames] = offset;
+        lengths[frames] = length;
+        sizes.record(length);
+        bytes += length;
+        second_bytes += length - last_second[frames % window_frames];
+        last_second[frames % window_frames] = length;
+        peak_bitrate = Math.max(peak_bitrate, second_bytes * 8 * 1000 / (window_frames * frame_period));
+        frames++;
+        offset += length;
+      }
+    }
+
+    // the mapped window positioned at file offset, remapped when
+    // [offset, offset+length) is not inside it
+    MappedByteBuffer map(long offset, int length) throws IOException {
+      if (window_start < 0 || offset < window_start || offset + length > window_start + window.capacity()) {
+        window_start = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.max(length, Math.min(WINDOW_SIZE,
+            size - offset)));
+      }
+      window.position((int) (offset - window_start));
+      return (window);
+    }
+
+    // the state of the sidecar of a valid file
+    String verify_index(long mtime) {
+      File sidecar = new File(file.getPath() + FrameIndex.SUFFIX);
+      if (!sidecar.isFile())
+        return ("no index");
+      FrameIndex index;
+      try {
+        index = new FrameIndex(sidecar);
+      } catch (IOException ioe) {
+        return ("invalid index: " + ioe.getMessage());
+      }
+      if (!index.matches(size, mtime))
+        return ("stale index");
+      if (!index.verify())
+        return ("corrupt index, bad checksum");
+      if (index.getframes() != frames)
+        return ("wrong index, " + index.getframes() + " frames");
+      return ("index ok");
+    }
+
+    public String toString() {
+      if (error != null)
+        return (file + ": FAILED, " + error);
+      return (file + ": " + frames + " frames, " + (bytes >> 10) + " KB, frame size " + sizes + " bytes, peak "
+          + peak_bitrate / 1000 + " kbit/s, " + index);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/* ------------------
+   InterleavedConnection
+   client end of an RTSP connection that also carries the RTP and RTCP
+   packets of the session (RFC 2326 10.12, "RTP/AVP/TCP;interleaved="),
+   for the networks that block UDP. The receive thread of the RTPreceiver
+   reads the connection: the '$'-framed packets on the RTP channel go to
+   the jitter buffer, those on the RTCP channel to the RTCPreporter, and
+   the lines of the RTSP responses are queued for the RTSPclient
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+
+public class InterleavedConnection {
+
+  final static int PREFIX = 4; // '$', channel, 16-bit length
+
+  Socket socket; // RTSP connection
+  InputStream input;
+  OutputStream output;
+  int rtp_channel; // RTCP on the next channel
+  RTCPreporter reporter; // takes the sender reports, null if none
+
+  // bytes read and not parsed yet, buf[start..end)
+  byte[] buf;
+  int start;
+  int end;
+
+  LinkedBlockingQueue<String> lines; // lines of the RTSP responses
+  volatile boolean closed; // end of the connection reached
+
+  // counters, written by the receive thread
+  volatile long rtp_packets;
+  volatile long rtcp_packets;
+
+  // --------------------------
+  // Constructor: RTP packets on rtp_channel of the connection of socket
+  // --------------------------
+  public InterleavedConnection(Socket socket, int rtp_channel) throws IOException {
+    this.socket = socket;
+    this.rtp_channel = rtp_channel;
+    input = socket.getInputStream();
+    output = socket.getOutputStream();
+    buf = new byte[2 * (PREFIX + 0xFFFF)]; // room for a whole packet after a partial one
+    lines = new LinkedBlockingQueue<String>();
+    // the receive thread wakes up every tick, for the playout clock
+    socket.setSoTimeout(RTPreceiver.TICK);
+  }
+
+  // --------------------------
+  // set_reporter: hand the RTCP sender reports to reporter
+  // --------------------------
+  public void set_reporter(RTCPreporter reporter) {
+    this.reporter = reporter;
+  }
+
+  // --------------------------
+  // receive: read the connection until an RTP packet is in rtp_view,
+  // returns false if none came during a tick; on the receive thread.
+  // The packet stays in the buffer until the next call
+  // --------------------------
+  public boolean receive(RTPview rtp_view) throws IOException {
+    while (true) {
+      // whole packets and lines already read
+      while (start < end) {
+        if (buf[start] == '$') {
+          if (end - start < PREFIX)
+            break;
+          int channel = buf[start + 1] & 0xFF;
+          int length = ((buf[start + 2] & 0xFF) << 8) | (buf[start + 3] & 0xFF);
+          if (end - start < PREFIX + length)
+            break;
+          int offset = start + PREFIX;
+          start = offset + length;
+          if (channel == rtp_channel) {
+            rtp_packets++;
+            if (rtp_view.wrap(buf, offset, length))
+              return (true);
+          } else if (channel == rtp_channel + 1) {
+            rtcp_packets++;
+            rtcp(offset, length);
+          }
+          // other channels are not ours
+        } else {
+          int eol = start;
+          while (eol < end && buf[eol] != '\n')
+            eol++;
+          if (eol == end)
+            break;
+          int length = (eol > start && buf[eol - 1] == '\r') ? eol - 1 - start : eol - start;
+          lines.add(new String(buf, start, length, StandardCharsets.ISO_8859_1));
+          start = eol + 1;
+        }
+      }
+
+      if (closed) {
+        // nothing more will come, only the ticks of the playout clock
+        try {
+          Thread.sleep(RTPreceiver.TICK);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        return (false);
+      }
+
+      // keep the partial packet or line, and read more after it
+      if (start > 0) {
+        System.arraycopy(buf, start, buf, 0, end - start);
+        end -= start;
+        start = 0;
+      }
+      if (end == buf.length) {
+        closed = true;
+        throw new IOException("Invalid data on the RTSP connection");
+      }
+      int n;
+      try {
+        n = input.read(buf, end, buf.length - end);
+      } catch (SocketTimeoutException ste) {
+        return (false);
+      }
+      if (n < 0) {
+        closed = true;
+        continue;
+      }
+      end += n;
+    }
+  }
+
+  // sender reports of the server, to the reporter
+  void rtcp(int offset, int length) {
+    if (reporter == null)
+      return;
+    long now = System.currentTimeMillis();
+    for (RTCPpacket report : RTCPpacket.parse(buf, offset, length))
+      if (report instanceof RTCPsenderReport)
+        reporter.sender_report((RTCPsenderReport) report, socket.getRemoteSocketAddress(), now);
+  }
+
+  // --------------------------
+  // readline: next line of the RTSP responses, waits for it; null once
+  // the connection is closed
+  // --------------------------
+  public String readline() throws IOException {
+    try {
+      while (true) {
+        String line = lines.poll(100, TimeUnit.MILLISECONDS);
+        if (line != null || (closed && lines.isEmpty()))
+          return (line);
+      }
+    } catch (InterruptedException ie) {
+      throw new InterruptedIOException("Interrupted while waiting for the RTSP response");
+    }
+  }
+
+  // --------------------------
+  // send: an RTSP request; send_rtcp: an RTCP packet on the RTCP channel.
+  // From any thread, the messages are never mixed up
+  // --------------------------
+  public synchronized void send(byte[] request) throws IOException {
+    output.write(request);
+    output.flush();
+  }
+
+  public synchronized void send_rtcp(byte[] packet, int length) throws IOException {
+    byte[] framed = new byte[PREFIX + length];
+    framed[0] = '$';
+    framed[1] = (byte) (rtp_channel + 1);
+    framed[2] = (byte) (length >> 8);
+    framed[3] = (byte) length;
+    System.arraycopy(packet, 0, framed, PREFIX, length);
+    output.write(framed);
+    output.flush();
+  }
+
+  public String toString() {
+    return ("interleaved RTP packets " + rtp_packets + ", RTCP packets " + rtcp_packets);
+  }
+}
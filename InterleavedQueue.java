@@ -0,0 +1,208 @@
+/* ------------------
+   InterleavedQueue
+   send side of a session whose RTP and RTCP packets travel on the RTSP
+   connection itself (RFC 2326 10.12, "RTP/AVP/TCP;interleaved="), for
+   the clients that cannot receive UDP: each packet is framed by '$',
+   its channel and its length. The connection is non-blocking once set
+   up, so a slow client never holds up the pacer: the packets wait in
+   the ring of the SendQueue and the newest ones are dropped when it is
+   full. The RTSP responses and the RTCP packets jump the queue: they go
+   out at the end of the packet being written
+   ---------------------- */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class InterleavedQueue extends SendQueue {
+
+  final static int PREFIX = 4; // '$', channel, 16-bit length
+  final static int MAX_PACKET = 0xFFFF; // largest length of the prefix
+  final static int MAX_MESSAGES = 65536; // bytes of responses and RTCP waiting, beyond that the client is gone
+
+  SocketChannel socket; // RTSP connection
+  int rtp_channel; // interleaved channel of the RTP packets
+
+  boolean in_packet; // the head packet is partly written
+
+  ByteBuffer messages; // RTSP responses and RTCP packets, between two RTP packets
+
+  // --------------------------
+  // Constructor: RTP packets on rtp_channel, capacity packets of at most
+  // packet_size bytes with their prefix
+  // --------------------------
+  public InterleavedQueue(SocketChannel socket, int rtp_channel, int capacity, int packet_size) throws IOException {
+    super(capacity, packet_size);
+    this.socket = socket;
+    this.rtp_channel = rtp_channel;
+    messages = ByteBuffer.allocate(2048);
+    socket.configureBlocking(false);
+  }
+
+  // --------------------------
+  // next: a buffer to encode the next RTP packet into, after its prefix
+  // --------------------------
+  public synchronized ByteBuffer next() {
+    ByteBuffer slot = super.next();
+    if (slot != null)
+      slot.position(PREFIX);
+    return (slot);
+  }
+
+  // --------------------------
+  // commit: queue the packet encoded (and flipped) in the buffer of next
+  // --------------------------
+  public synchronized void commit() {
+    ByteBuffer slot = slots[(head + count) % slots.length];
+    int size = slot.limit() - PREFIX;
+    if (size > MAX_PACKET)
+      throw new IllegalArgumentException("Interleaved packet of " + size + " bytes");
+    slot.put(0, (byte) '$');
+    slot.put(1, (byte) rtp_channel);
+    slot.putShort(2, (short) size);
+    count++;
+  }
+
+  // --------------------------
+  // send_message: send bytes out of the packet sequence (an RTSP
+  // response) as soon as the packet being written is complete; returns
+  // true when they are written, otherwise the next flush writes them
+  // --------------------------
+  public synchronized boolean send_message(byte[] message, int length) throws IOException {
+    reserve(length);
+    messages.put(message, 0, length);
+    return (write(false));
+  }
+
+  // --------------------------
+  // send_message: the same, a packet on an interleaved channel (RTCP)
+  // --------------------------
+  public synchronized boolean send_message(int channel, byte[] packet, int length) throws IOException {
+    reserve(PREFIX + length);
+    messages.put((byte) '$').put((byte) channel).putShort((short) length).put(packet, 0, length);
+    return (write(false));
+  }
+
+  // make room for length more bytes of messages
+  void reserve(int length) throws IOException {
+    if (messages.remaining() >= length)
+      return;
+    if (messages.position() + length > MAX_MESSAGES)
+      throw new IOException("RTSP connection stalled, " + messages.position() + " bytes waiting");
+    ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * messages.capacity(), messages.position() + length));
+    messages.flip();
+    messages = larger.put(messages);
+  }
+
+  // --------------------------
+  // flush: write the messages and the queued packets until the socket
+  // buffer is full, returns true when everything is written
+  // --------------------------
+  public synchronized boolean flush() throws IOException {
+    return (write(true));
+  }
+
+  // write the rest of the packet in progress, the messages, and then the
+  // queued packets if packets is set
+  boolean write(boolean packets) throws IOException {
+    while (true) {
+      if (in_packet && !write_head())
+        return (false);
+      if (messages.position() > 0) {
+        messages.flip();
+        socket.write(messages);
+        messages.compact();
+        if (messages.position() > 0) {
+          blocked++;
+          return (false);
+        }
+      }
+      if (!packets || count == 0)
+        return (true);
+      in_packet = true;
+    }
+  }
+
+  // write the rest of the head packet, false if the socket buffer is full
+  boolean write_head() throws IOException {
+    ByteBuffer packet = slots[head];
+    if (packet.hasRemaining()) {
+      socket.write(packet);
+      if (packet.hasRemaining()) {
+        blocked++;
+        return (false);
+      }
+    }
+    in_packet = false;
+    sent++;
+    head = (head + 1) % slots.length;
+    count--;
+    return (true);
+  }
+
+  // --------------------------
+  // register: wait on selector for the connection to be writable again
+  // --------------------------
+  public SelectionKey register(Selector selector) throws IOException {
+    return (socket.register(selector, SelectionKey.OP_WRITE, this));
+  }
+
+  // --------------------------
+  // clear: drop the queued packets, the connection is going away
+  // --------------------------
+  public synchronized void clear() {
+    super.clear();
+    in_packet = false;
+    messages.clear();
+  }
+
+  // ------------------------------------
+  // Input: the RTSP requests of the connection, read whether it is
+  // blocking (before SETUP) or not; when there is nothing to read the
+  // session thread waits on its own selector
+  // ------------------------------------
+  static class Input extends InputStream {
+    SocketChannel channel;
+    Selector selector; // opened when the channel turns non-blocking
+    byte[] one = new byte[1];
+
+    Input(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    public int read() throws IOException {
+      return ((read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0)
+        return (0);
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      while (true) {
+        int n = channel.read(buffer);
+        if (n != 0)
+          return (n);
+        synchronized (this) {
+          if (selector == null) {
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+          }
+        }
+        try {
+          selector.select(1000);
+          selector.selectedKeys().clear();
+        } catch (ClosedSelectorException cse) {
+          return (-1);
+        }
+        if (!channel.isOpen())
+          return (-1);
+      }
+    }
+
+    // wake up the reading thread once the connection is closed
+    public synchronized void close() throws IOException {
+      if (selector != null)
+        selector.close();
+    }
+  }
+}
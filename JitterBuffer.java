@@ -0,0 +1,223 @@
+/* ------------------
+   JitterBuffer
+   client-side jitter buffer: the received RTP packets are stored by
+   sequence number, duplicates and late packets are dropped, gaps are
+   counted as lost, and the packets are released in order when the
+   playout time of their frame is reached. The playout time follows the
+   RTP timestamps, plus a playout delay that adapts to the measured
+   interarrival jitter (RFC 3550 estimator)
+   ---------------------- */
+
+public class JitterBuffer {
+
+  static int SLOTS = 1024; // packets held at most, power of 2, set before the first buffer is built
+  final static int SLOT_SIZE = 2048; // preallocated size of a slot
+
+  // playout delay bounds and its jitter multiple, in ms
+  static int MIN_DELAY = 20;
+  static int MAX_DELAY = 1000;
+  static int JITTER_FACTOR = 4;
+
+  int clock_rate; // RTP timestamp units per second
+
+  // packet slots, indexed by extended sequence number modulo SLOTS
+  byte[][] slot_data;
+  int[] slot_length;
+  long[] slot_seq; // extended sequence number, -1 when empty
+  int[] slot_timestamp;
+  boolean[] slot_marker;
+
+  boolean started; // the first packet was received
+  long max_seq; // highest extended sequence number received
+  long next_seq; // next sequence number to release
+
+  // playout clock: timestamp base_ts plays at base_time + delay
+  int base_ts;
+  long base_time; // ms
+  double delay; // current playout delay, ms
+  double jitter; // interarrival jitter estimate, ms
+  long last_transit; // ms
+  boolean has_transit;
+
+  // counters
+  long received;
+  long duplicates;
+  long late; // arrived after their sequence number was released
+  long lost; // skipped gaps
+  long resyncs; // playout clock restarted (pause, seek, clock jump)
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public JitterBuffer(int clock_rate) {
+    this.clock_rate = clock_rate;
+    slot_data = new byte[SLOTS][SLOT_SIZE];
+    slot_length = new int[SLOTS];
+    slot_seq = new long[SLOTS];
+    slot_timestamp = new int[SLOTS];
+    slot_marker = new boolean[SLOTS];
+    reset();
+  }
+
+  // --------------------------
+  // reset: drop all the packets and restart the playout clock
+  // --------------------------
+  public void reset() {
+    java.util.Arrays.fill(slot_seq, -1);
+    started = false;
+    has_transit = false;
+    delay = MIN_DELAY;
+  }
+
+  // --------------------------
+  // add: store the RTP packet of rtp_view received at now (ms)
+  // --------------------------
+  public void add(RTPview rtp_view, long now) {
+    int timestamp = rtp_view.gettimestamp();
+    long seq = extend(rtp_view.getsequencenumber());
+
+    if (!started) {
+      started = true;
+      max_seq = seq;
+      next_seq = seq;
+      resync(timestamp, now);
+    }
+
+    // a packet far out of the playout window means the sender jumped
+    // (PLAY after PAUSE, seek): restart from this packet
+    long playout = playout_time(timestamp);
+    if (seq < next_seq - SLOTS / 2 || seq >= next_seq + SLOTS || now - playout > MAX_DELAY
+        || playout - now > 2 * MAX_DELAY) {
+      java.util.Arrays.fill(slot_seq, -1);
+      max_seq = seq;
+      next_seq = seq;
+      resync(timestamp, now);
+    }
+
+    if (seq < next_seq) {
+      late++;
+      return;
+    }
+    int slot = (int) (seq & (SLOTS - 1));
+    if (slot_seq[slot] == seq) {
+      duplicates++;
+      return;
+    }
+
+    // keep a copy of the packet, the receive buffer is reused
+    int length = rtp_view.getpayload_length();
+    if (slot_data[slot].length < length)
+      slot_data[slot] = new byte[length];
+    System.arraycopy(rtp_view.getbuffer(), rtp_view.getpayload_offset(), slot_data[slot], 0, length);
+    slot_length[slot] = length;
+    slot_seq[slot] = seq;
+    slot_timestamp[slot] = timestamp;
+    slot_marker[slot] = rtp_view.getmarker() == 1;
+    if (seq > max_seq)
+      max_seq = seq;
+    received++;
+
+    // RFC 3550 interarrival jitter, in ms
+    long transit = now - timestamp * 1000L / clock_rate;
+    if (has_transit) {
+      long d = Math.abs(transit - last_transit);
+      jitter += (d - jitter) / 16.0;
+    }
+    last_transit = transit;
+    has_transit = true;
+  }
+
+  // --------------------------
+  // release: give the packets whose playout time is reached at now (ms)
+  // to the depacketizer, in sequence order. Returns true when at least one
+  // frame was completed, the last one is in the depacketizer
+  // --------------------------
+  public boolean release(long now, JpegDepacketizer depacketizer) {
+    boolean complete = false;
+    while (started && next_seq <= max_seq) {
+      int slot = (int) (next_seq & (SLOTS - 1));
+      if (slot_seq[slot] != next_seq) {
+        // gap: skip it once the next packet we have is due
+        long seq = next_seq + 1;
+        while (seq <= max_seq && slot_seq[(int) (seq & (SLOTS - 1))] != seq)
+          seq++;
+        if (seq > max_seq || playout_time(slot_timestamp[(int) (seq & (SLOTS - 1))]) > now)
+          break;
+        lost += seq - next_seq;
+        next_seq = seq;
+        continue;
+      }
+
+      if (playout_time(slot_timestamp[slot]) > now)
+        break;
+
+      // adapt the delay to the jitter once per frame, at its last packet
+      if (slot_marker[slot])
+        adapt_delay();
+
+      try {
+        if (depacketizer.add(slot_data[slot], 0, slot_length[slot], slot_timestamp[slot], slot_marker[slot]))
+          complete = true;
+      } catch (java.io.IOException ioe) {
+        // invalid payload, the depacketizer drops the frame
+      }
+      slot_seq[slot] = -1;
+      next_seq++;
+    }
+    return (complete);
+  }
+
+  // --------------------------
+  // playout_time: wall clock time (ms) at which timestamp is played
+  // --------------------------
+  long playout_time(int timestamp) {
+    return (base_time + (timestamp - base_ts) * 1000L / clock_rate + (long) delay);
+  }
+
+  // --------------------------
+  // adapt_delay: move the playout delay toward a multiple of the jitter
+  // --------------------------
+  void adapt_delay() {
+    double target = Math.max(MIN_DELAY, Math.min(MAX_DELAY, JITTER_FACTOR * jitter));
+    delay += (target - delay) / 8;
+  }
+
+  // restart the playout clock at the packet with timestamp received at now
+  void resync(int timestamp, long now) {
+    base_ts = timestamp;
+    base_time = now;
+    has_transit = false;
+    resyncs++;
+  }
+
+  // --------------------------
+  // extend: extended sequence number of a 16-bit sequence number, the
+  // closest to the highest received so far
+  // --------------------------
+  long extend(int seq) {
+    if (!started)
+      return (seq + 65536L);
+    long ext = (max_seq & ~0xFFFFL) | seq;
+    if (ext < max_seq - 32768)
+      ext += 65536;
+    else if (ext > max_seq + 32768)
+      ext -= 65536;
+    return (ext);
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+  public int getdelay() {
+    return ((int) delay);
+  }
+
+  public int getjitter() {
+    return ((int) jitter);
+  }
+
+  public String toString() {
+    return ("jitter " + (int) jitter + " ms, delay " + (int) delay + " ms, received " + received + ", lost " + lost
+        + ", late " + late + ", duplicates " + duplicates);
+  }
+}
@@ -0,0 +1,303 @@
+/* ------------------
+   JpegDepacketizer
+   reassembles the JPEG frames sent as RFC 2435 RTP payloads: the
+   fragments of a frame (same timestamp) are placed by offset, and
+   once the packet with the marker bit completes the frame the JFIF
+   headers are rebuilt from the JPEG header (RFC 2435 appendix B)
+   ---------------------- */
+
+import java.io.*;
+import javax.imageio.plugins.jpeg.*;
+
+public class JpegDepacketizer {
+
+  // position in the natural order of the coefficient nb i in zigzag order
+  final static int[] ZIGZAG = { 0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48,
+      41, 34, 27, 20, 13, 6, 7, 14, 21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51, 58, 59,
+      52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63 };
+
+  // size of the rebuilt JFIF headers with the standard Huffman tables
+  final static int MAX_HEADERS_SIZE = 1024;
+  // largest scan data accepted, the 24-bit fragment offset could ask for 16 MB
+  final static int MAX_SCAN_SIZE = 1 << 20;
+
+  // frame being reassembled
+  int timestamp; // RTP timestamp of the frame
+  boolean started; // at least one fragment of the frame was received
+  int type; // RFC 2435 type
+  int q; // RFC 2435 Q
+  int width; // in 8-pixel blocks
+  int height; // in 8-pixel blocks
+  int restart_interval;
+  byte[] qtables; // luminance then chrominance table, zigzag order
+  boolean has_qtables;
+  byte[] scan; // entropy-coded data, placed by fragment offset
+  int received; // bytes of scan data received
+  int scan_length; // size of the scan data, known once the marker packet arrived
+  boolean invalid_frame; // a payload of the frame was invalid, it is dropped
+
+  // last complete frame
+  byte[] frame;
+  int frame_length;
+
+  // counters
+  int frames;
+  int dropped_frames;
+  int invalid_packets; // payloads too short for their headers, or out of bounds
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public JpegDepacketizer() {
+    qtables = new byte[128];
+    scan = new byte[65536];
+    frame = new byte[65536 + MAX_HEADERS_SIZE];
+    scan_length = -1;
+  }
+
+  // --------------------------
+  // add: add the RTP payload of one packet, returns true when it completes
+  // a frame, which is then available with getframe. An invalid payload
+  // is counted, drops the frame it belongs to and throws an IOException
+  // --------------------------
+  public boolean add(byte[] payload, int offset, int length, int rtp_timestamp, boolean marker) throws IOException {
+    // a new timestamp starts a new frame, the previous one is lost if incomplete
+    if (!started || rtp_timestamp != timestamp) {
+      if (started)
+        dropped_frames++;
+      start(rtp_timestamp);
+    }
+
+    if (length < JpegPacketizer.JPEG_HEADER_SIZE)
+      throw invalid("Truncated JPEG header");
+
+    int pos = offset;
+    int end = offset + length;
+    int fragment_offset = ((payload[pos + 1] & 0xFF) << 16) | ((payload[pos + 2] & 0xFF) << 8)
+        | (payload[pos + 3] & 0xFF);
+    type = payload[pos + 4] & 0xFF;
+    q = payload[pos + 5] & 0xFF;
+    width = payload[pos + 6] & 0xFF;
+    height = payload[pos + 7] & 0xFF;
+    pos += JpegPacketizer.JPEG_HEADER_SIZE;
+
+    if ((type & 63) > 1)
+      throw invalid("Unsupported RFC 2435 type " + type);
+
+    // restart marker header
+    if (type >= 64) {
+      if (pos + JpegPacketizer.RESTART_HEADER_SIZE > end)
+        throw invalid("Truncated restart marker header");
+      restart_interval = ((payload[pos] & 0xFF) << 8) | (payload[pos + 1] & 0xFF);
+      pos += JpegPacketizer.RESTART_HEADER_SIZE;
+    }
+
+    // quantization tables: in-band in the first packet for Q >= 128,
+    // computed from the Q factor otherwise
+    if (fragment_offset == 0 && q >= 128) {
+      if (pos + JpegPacketizer.QTABLE_HEADER_SIZE > end)
+        throw invalid("Truncated quantization table header");
+      int table_length = ((payload[pos + 2] & 0xFF) << 8) | (payload[pos + 3] & 0xFF);
+      pos += JpegPacketizer.QTABLE_HEADER_SIZE;
+      if (pos + table_length > end)
+        throw invalid("Truncated quantization tables, " + table_length + " bytes announced");
+      if (table_length >= 128) {
+        System.arraycopy(payload, pos, qtables, 0, 128);
+      } else if (table_length == 64) {
+        System.arraycopy(payload, pos, qtables, 0, 64);
+        System.arraycopy(payload, pos, qtables, 64, 64);
+      }
+      pos += table_length;
+      has_qtables = true;
+    } else if (q < 128 && !has_qtables) {
+      make_tables(q, qtables);
+      has_qtables = true;
+    }
+
+    // place the fragment
+    int fragment_length = end - pos;
+    if (fragment_offset + fragment_length > MAX_SCAN_SIZE)
+      throw invalid("Fragment out of bounds at offset " + fragment_offset);
+    if (fragment_offset + fragment_length > scan.length)
+      scan = java.util.Arrays.copyOf(scan, Math.max(scan.length * 2, fragment_offset + fragment_length));
+    System.arraycopy(payload, pos, scan, fragment_offset, fragment_length);
+    received += fragment_length;
+    if (marker)
+      scan_length = fragment_offset + fragment_length;
+
+    // the frame is complete when the marker packet came and nothing is missing
+    if (scan_length >= 0 && received >= scan_length) {
+      if (!has_qtables || received != scan_length || invalid_frame) {
+        dropped_frames++;
+        started = false;
+        return (false);
+      }
+      build_frame();
+      frames++;
+      started = false;
+      return (true);
+    }
+    return (false);
+  }
+
+  // count an invalid payload, the frame it belongs to is dropped
+  IOException invalid(String message) {
+    invalid_packets++;
+    invalid_frame = true;
+    return (new IOException(message));
+  }
+
+  // --------------------------
+  // getframe: returns the last complete JPEG frame and its size
+  // --------------------------
+  public int getframe(byte[] data) {
+    System.arraycopy(frame, 0, data, 0, frame_length);
+    return (frame_length);
+  }
+
+  public byte[] getframe() {
+    return (frame);
+  }
+
+  public int getframe_length() {
+    return (frame_length);
+  }
+
+  // --------------------------
+  // start: reset the state for the frame with the given timestamp
+  // --------------------------
+  private void start(int rtp_timestamp) {
+    timestamp = rtp_timestamp;
+    started = true;
+    invalid_frame = false;
+    has_qtables = false;
+    restart_interval = 0;
+    received = 0;
+    scan_length = -1;
+  }
+
+  // --------------------------
+  // build_frame: rebuild the JFIF headers and append the scan data
+  // --------------------------
+  private void build_frame() {
+    int size = MAX_HEADERS_SIZE + scan_length + 2;
+    if (frame.length < size)
+      frame = new byte[size];
+
+    int pos = 0;
+    // start of image
+    frame[pos++] = (byte) 0xFF;
+    frame[pos++] = (byte) JpegPacketizer.SOI;
+
+    // quantization tables
+    pos = put_dqt(frame, pos, 0, qtables, 0);
+    pos = put_dqt(frame, pos, 1, qtables, 64);
+
+    // restart interval
+    if (restart_interval > 0) {
+      frame[pos++] = (byte) 0xFF;
+      frame[pos++] = (byte) JpegPacketizer.DRI;
+      frame[pos++] = 0;
+      frame[pos++] = 4;
+      frame[pos++] = (byte) (restart_interval >> 8);
+      frame[pos++] = (byte) restart_interval;
+    }
+
+    // start of frame, baseline, 3 components
+    int w = width * 8;
+    int h = height * 8;
+    frame[pos++] = (byte) 0xFF;
+    frame[pos++] = (byte) JpegPacketizer.SOF0;
+    frame[pos++] = 0;
+    frame[pos++] = 17;
+    frame[pos++] = 8; // sample precision
+    frame[pos++] = (byte) (h >> 8);
+    frame[pos++] = (byte) h;
+    frame[pos++] = (byte) (w >> 8);
+    frame[pos++] = (byte) w;
+    frame[pos++] = 3;
+    frame[pos++] = 0; // Y: id, sampling, table
+    frame[pos++] = (byte) (((type & 63) == 0) ? 0x21 : 0x22);
+    frame[pos++] = 0;
+    frame[pos++] = 1; // Cb
+    frame[pos++] = 0x11;
+    frame[pos++] = 1;
+    frame[pos++] = 2; // Cr
+    frame[pos++] = 0x11;
+    frame[pos++] = 1;
+
+    // standard Huffman tables
+    pos = put_dht(frame, pos, 0x00, 0);
+    pos = put_dht(frame, pos, 0x10, 1);
+    pos = put_dht(frame, pos, 0x01, 2);
+    pos = put_dht(frame, pos, 0x11, 3);
+
+    // start of scan
+    frame[pos++] = (byte) 0xFF;
+    frame[pos++] = (byte) JpegPacketizer.SOS;
+    frame[pos++] = 0;
+    frame[pos++] = 12;
+    frame[pos++] = 3;
+    frame[pos++] = 0; // Y uses the tables 0
+    frame[pos++] = 0x00;
+    frame[pos++] = 1; // Cb and Cr use the tables 1
+    frame[pos++] = 0x11;
+    frame[pos++] = 2;
+    frame[pos++] = 0x11;
+    frame[pos++] = 0; // spectral selection start
+    frame[pos++] = 63; // spectral selection end
+    frame[pos++] = 0; // successive approximation
+
+    // scan data and end of image
+    System.arraycopy(scan, 0, frame, pos, scan_length);
+    pos += scan_length;
+    frame[pos++] = (byte) 0xFF;
+    frame[pos++] = (byte) JpegPacketizer.EOI;
+
+    frame_length = pos;
+  }
+
+  static int put_dqt(byte[] out, int pos, int id, byte[] table, int offset) {
+    out[pos++] = (byte) 0xFF;
+    out[pos++] = (byte) JpegPacketizer.DQT;
+    out[pos++] = 0;
+    out[pos++] = 67;
+    out[pos++] = (byte) id;
+    System.arraycopy(table, offset, out, pos, 64);
+    return (pos + 64);
+  }
+
+  static int put_dht(byte[] out, int pos, int class_id, int table) {
+    short[] lengths = JpegPacketizer.STD_LENGTHS[table];
+    short[] values = JpegPacketizer.STD_VALUES[table];
+    int length = 2 + 1 + 16 + values.length;
+    out[pos++] = (byte) 0xFF;
+    out[pos++] = (byte) JpegPacketizer.DHT;
+    out[pos++] = (byte) (length >> 8);
+    out[pos++] = (byte) length;
+    out[pos++] = (byte) class_id;
+    for (int i = 0; i < 16; i++)
+      out[pos++] = (byte) lengths[i];
+    for (int i = 0; i < values.length; i++)
+      out[pos++] = (byte) values[i];
+    return (pos);
+  }
+
+  // --------------------------
+  // make_tables: quantization tables for a Q factor 1..99 (RFC 2435
+  // appendix A), scaled from the standard JPEG tables, zigzag order
+  // --------------------------
+  static void make_tables(int q, byte[] tables) {
+    int factor = Math.max(1, Math.min(q, 99));
+    factor = (factor < 50) ? 5000 / factor : 200 - factor * 2;
+
+    int[] luma = JPEGQTable.K1Luminance.getTable();
+    int[] chroma = JPEGQTable.K2Chrominance.getTable();
+    for (int i = 0; i < 64; i++) {
+      int lq = (luma[ZIGZAG[i]] * factor + 50) / 100;
+      int cq = (chroma[ZIGZAG[i]] * factor + 50) / 100;
+      tables[i] = (byte) Math.max(1, Math.min(lq, 255));
+      tables[i + 64] = (byte) Math.max(1, Math.min(cq, 255));
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/* ------------------
+   JpegPacketizer
+   splits a JPEG frame into MTU-sized RTP payloads as described in
+   RFC 2435: the JFIF headers are replaced by the 8-byte JPEG header,
+   the quantization tables are sent in-band (Q = 255) in the first
+   packet and the entropy-coded scan data is fragmented by offset
+   ---------------------- */
+
+import java.io.*;
+import java.nio.*;
+import javax.imageio.plugins.jpeg.*;
+
+public class JpegPacketizer {
+
+  // sizes of the RFC 2435 headers
+  final static int JPEG_HEADER_SIZE = 8;
+  final static int RESTART_HEADER_SIZE = 4;
+  final static int QTABLE_HEADER_SIZE = 4;
+
+  // JPEG markers
+  final static int SOI = 0xD8;
+  final static int EOI = 0xD9;
+  final static int SOF0 = 0xC0;
+  final static int SOF1 = 0xC1;
+  final static int DHT = 0xC4;
+  final static int DQT = 0xDB;
+  final static int DRI = 0xDD;
+  final static int SOS = 0xDA;
+
+  int max_payload; // largest RTP payload, JPEG headers included
+
+  // fields of the frame being packetized
+  int type; // RFC 2435 type: 0 (4:2:2) or 1 (4:2:0), +64 with restart markers
+  int width; // frame width in 8-pixel blocks
+  int height; // frame height in 8-pixel blocks
+  int restart_interval; // DRI restart interval, 0 when there is none
+  byte[] qtables; // luminance then chrominance table, zigzag order
+  byte[][] dqt; // quantization tables of the frame by id
+  boolean[] dqt_present; // tables defined by the frame
+  ByteBuffer jpeg; // buffer holding the frame
+  int scan_start; // index in jpeg of the entropy-coded data of the frame
+  int scan_end;
+
+  // fragmentation of the scan data
+  int fragment_count;
+  int[] fragment_offset; // offset in the scan data
+  int[] fragment_length;
+
+  // standard Huffman tables, copied once (getLengths/getValues copy)
+  final static short[][] STD_LENGTHS = { JPEGHuffmanTable.StdDCLuminance.getLengths(),
+      JPEGHuffmanTable.StdACLuminance.getLengths(), JPEGHuffmanTable.StdDCChrominance.getLengths(),
+      JPEGHuffmanTable.StdACChrominance.getLengths() };
+  final static short[][] STD_VALUES = { JPEGHuffmanTable.StdDCLuminance.getValues(),
+      JPEGHuffmanTable.StdACLuminance.getValues(), JPEGHuffmanTable.StdDCChrominance.getValues(),
+      JPEGHuffmanTable.StdACChrominance.getValues() };
+
+  ByteBuffer header; // reused buffer for the JPEG header of a packet
+
+  // --------------------------
+  // Constructor
+  // max_payload: largest RTP payload, JPEG headers included
+  // --------------------------
+  public JpegPacketizer(int max_payload) {
+    this.max_payload = max_payload;
+    qtables = new byte[128];
+    dqt = new byte[4][64];
+    dqt_present = new boolean[4];
+    fragment_offset = new int[64];
+    fragment_length = new int[64];
+    header = ByteBuffer.allocate(JPEG_HEADER_SIZE + RESTART_HEADER_SIZE + QTABLE_HEADER_SIZE + 128);
+  }
+
+  // --------------------------
+  // packetize: parse the JPEG frame in the remaining bytes of frame and
+  // split it into fragments, returns the number of RTP packets needed;
+  // frame is read with absolute gets only and is not modified
+  // --------------------------
+  public int packetize(ByteBuffer frame) throws IOException {
+    jpeg = frame;
+    int start = frame.position();
+    int end = frame.limit();
+    int pos = start;
+    int luma_table = -1;
+    int chroma_table = -1;
+
+    restart_interval = 0;
+    scan_start = -1;
+    java.util.Arrays.fill(dqt_present, false);
+
+    if (end - start < 4 || (jpeg.get(pos) & 0xFF) != 0xFF || (jpeg.get(pos + 1) & 0xFF) != SOI)
+      throw new IOException("Not a JPEG frame");
+    pos += 2;
+
+    // walk the marker segments up to the start of scan
+    while (scan_start < 0) {
+      if (pos + 4 > end || (jpeg.get(pos) & 0xFF) != 0xFF)
+        throw new IOException("Invalid JPEG marker at " + (pos - start));
+      int marker = jpeg.get(pos + 1) & 0xFF;
+      if (marker == 0xFF) {
+        pos++; // fill byte
+        continue;
+      }
+      int length = ((jpeg.get(pos + 2) & 0xFF) << 8) | (jpeg.get(pos + 3) & 0xFF);
+      int segment = pos + 4;
+      int segment_end = pos + 2 + length;
+      if (length < 2 || segment_end > end)
+        throw new IOException("Truncated JPEG segment");
+
+      if (marker == DQT) {
+        for (int i = segment; i < segment_end; i += 65) {
+          if (i + 65 > segment_end)
+            throw new IOException("Truncated quantization table");
+          int pq_tq = jpeg.get(i) & 0xFF;
+          if ((pq_tq >> 4) != 0)
+            throw new IOException("16-bit quantization tables are not supported");
+          for (int j = 0; j < 64; j++)
+            dqt[pq_tq & 3][j] = jpeg.get(i + 1 + j);
+          dqt_present[pq_tq & 3] = true;
+        }
+      } else if (marker == SOF0 || marker == SOF1) {
+        if (length < 17)
+          throw new IOException("Truncated frame header");
+        int h = ((jpeg.get(segment + 1) & 0xFF) << 8) | (jpeg.get(segment + 2) & 0xFF);
+        int w = ((jpeg.get(segment + 3) & 0xFF) << 8) | (jpeg.get(segment + 4) & 0xFF);
+        int components = jpeg.get(segment + 5) & 0xFF;
+        if (components != 3)
+          throw new IOException("Only 3-component YUV frames are supported");
+        int y_sampling = jpeg.get(segment + 7) & 0xFF;
+        if ((jpeg.get(segment + 10) & 0xFF) != 0x11 || (jpeg.get(segment + 13) & 0xFF) != 0x11)
+          throw new IOException("Unsupported chrominance sampling");
+        if (y_sampling == 0x21)
+          type = 0;
+        else if (y_sampling == 0x22)
+          type = 1;
+        else
+          throw new IOException("Unsupported luminance sampling " + Integer.toHexString(y_sampling));
+        luma_table = jpeg.get(segment + 8) & 3;
+        chroma_table = jpeg.get(segment + 11) & 3;
+        if ((jpeg.get(segment + 14) & 3) != chroma_table)
+          throw new IOException("Cb and Cr must share their quantization table");
+        width = (w + 7) / 8;
+        height = (h + 7) / 8;
+        if (width > 255 || height > 255)
+          throw new IOException("Frames larger than 2040x2040 cannot be sent");
+      } else if (marker == DHT) {
+        check_huffman(jpeg, segment, segment_end);
+      } else if (marker == DRI) {
+        if (length < 4)
+          throw new IOException("Truncated restart interval");
+        restart_interval = ((jpeg.get(segment) & 0xFF) << 8) | (jpeg.get(segment + 1) & 0xFF);
+      } else if (marker == SOS) {
+        // the scan data runs from the end of the SOS header to the EOI marker
+        scan_start = segment_end;
+        scan_end = end;
+        if ((jpeg.get(end - 2) & 0xFF) == 0xFF && (jpeg.get(end - 1) & 0xFF) == EOI)
+          scan_end = end - 2;
+      } else if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC8 && marker != 0xCC) {
+        throw new IOException("Only baseline JPEG frames are supported");
+      }
+      pos = segment_end;
+    }
+
+    if (luma_table < 0 || !dqt_present[luma_table] || !dqt_present[chroma_table])
+      throw new IOException("Missing frame or quantization table header");
+    System.arraycopy(dqt[luma_table], 0, qtables, 0, 64);
+    System.arraycopy(dqt[chroma_table], 0, qtables, 64, 64);
+    if (restart_interval > 0)
+      type += 64;
+
+    // split the scan data, the first packet also carries the tables
+    int offset = 0;
+    int size = scan_end - scan_start;
+    fragment_count = 0;
+    do {
+      if (fragment_count == fragment_offset.length) {
+        fragment_offset = java.util.Arrays.copyOf(fragment_offset, fragment_count * 2);
+        fragment_length = java.util.Arrays.copyOf(fragment_length, fragment_count * 2);
+      }
+      int room = max_payload - header_length(offset);
+      fragment_offset[fragment_count] = offset;
+      fragment_length[fragment_count] = Math.min(room, size - offset);
+      offset += fragment_length[fragment_count];
+      fragment_count++;
+    } while (offset < size);
+
+    return (fragment_count);
+  }
+
+  // --------------------------
+  // header_length: size of the JPEG headers of the packet at offset
+  // --------------------------
+  int header_length(int offset) {
+    int length = JPEG_HEADER_SIZE;
+    if (restart_interval > 0)
+      length += RESTART_HEADER_SIZE;
+    if (offset == 0)
+      length += QTABLE_HEADER_SIZE + 128;
+    return (length);
+  }
+
+  // --------------------------
+  // getheader: returns the JPEG headers of packet i (reused buffer)
+  // --------------------------
+  public ByteBuffer getheader(int i) {
+    int offset = fragment_offset[i];
+
+    header.clear();
+    // main JPEG header: type-specific, fragment offset, type, Q, width, height
+    header.put((byte) 0);
+    header.put((byte) (offset >> 16));
+    header.put((byte) (offset >> 8));
+    header.put((byte) offset);
+    header.put((byte) type);
+    header.put((byte) 255);
+    header.put((byte) width);
+    header.put((byte) height);
+
+    // restart marker header: the intervals are not aligned with the
+    // packets, so F = L = 1 and the restart count is 0x3FFF
+    if (restart_interval > 0) {
+      header.putShort((short) restart_interval);
+      header.putShort((short) 0xFFFF);
+    }
+
+    // quantization table header with the tables of the frame
+    if (offset == 0) {
+      header.put((byte) 0); // MBZ
+      header.put((byte) 0); // 8-bit precision for both tables
+      header.putShort((short) 128);
+      header.put(qtables);
+    }
+
+    header.flip();
+    return (header);
+  }
+
+  // --------------------------
+  // scan data carried by packet i: index in the frame buffer and length
+  // --------------------------
+  public int getfragment_index(int i) {
+    return (scan_start + fragment_offset[i]);
+  }
+
+  public int getfragment_length(int i) {
+    return (fragment_length[i]);
+  }
+
+  // --------------------------
+  // getfragment: returns the scan data carried by packet i as a new buffer
+  // --------------------------
+  public ByteBuffer getfragment(int i) {
+    ByteBuffer fragment = jpeg.duplicate();
+    fragment.limit(getfragment_index(i) + fragment_length[i]).position(getfragment_index(i));
+    return (fragment.slice());
+  }
+
+  // --------------------------
+  // check_huffman: the receiver rebuilds the JPEG headers with the
+  // standard Huffman tables, reject frames encoded with other tables
+  // --------------------------
+  static void check_huffman(ByteBuffer jpeg, int pos, int end) throws IOException {
+    while (pos < end) {
+      int tc_th = jpeg.get(pos) & 0xFF;
+      int std;
+      if (tc_th == 0x00)
+        std = 0;
+      else if (tc_th == 0x10)
+        std = 1;
+      else if (tc_th == 0x01)
+        std = 2;
+      else if (tc_th == 0x11)
+        std = 3;
+      else
+        throw new IOException("Unexpected Huffman table " + Integer.toHexString(tc_th));
+
+      short[] lengths = STD_LENGTHS[std];
+      short[] values = STD_VALUES[std];
+      if (pos + 17 + values.length > end)
+        throw new IOException("Truncated Huffman table");
+      int count = 0;
+      for (int i = 0; i < 16; i++) {
+        if ((jpeg.get(pos + 1 + i) & 0xFF) != lengths[i])
+          throw new IOException("Non-standard Huffman tables are not supported");
+        count += lengths[i];
+      }
+      for (int i = 0; i < count; i++) {
+        if ((jpeg.get(pos + 17 + i) & 0xFF) != values[i])
+          throw new IOException("Non-standard Huffman tables are not supported");
+      }
+      pos += 17 + count;
+    }
+  }
+}
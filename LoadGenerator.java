@@ -0,0 +1,242 @@
+/* ------------------
+   LoadGenerator
+   headless load-generating client, to find the number of sessions the
+   server can serve: it opens many RTSP sessions at once, each with its
+   own RTSPclient on an ephemeral RTP/RTCP port pair, and drives each one
+   through a script of requests. The frames are reassembled like in the
+   Client but not decoded. At the end it reports, per session and over
+   all of them, the frame rate received while playing, the packet loss,
+   the setup latency and the percentiles of the frame interarrival times
+   usage: java LoadGenerator [Server hostname] [Server RTSP listening port] [Video file requested]
+          [sessions] [script] [ramp-up ms between two sessions] [udp|tcp]
+   script: requests separated by commas, WAIT:s receives frames for s seconds, e.g. the default
+          SETUP,PLAY,WAIT:10,PAUSE,WAIT:1,PLAY,WAIT:5,ADVANCE,BACK,WAIT:1,TEARDOWN
+          SEEK:s plays from s seconds, SCALE:x at x times the normal speed (negative rewinds),
+          RENDITION:r switches to rendition r of the ladder (auto: the server picks it),
+          PREFETCH:k has the server read k frames ahead of the session,
+          PERIOD:ms sends a frame every ms milliseconds
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class LoadGenerator {
+
+  static String SCRIPT = "SETUP,PLAY,WAIT:10,PAUSE,WAIT:1,PLAY,WAIT:5,ADVANCE,BACK,WAIT:1,TEARDOWN";
+  static int RAMP_UP = 20; // ms between the starts of two sessions
+  static int QUEUE_SIZE = 2; // frames waiting between the receiver and the script thread
+  static int JITTER_SLOTS = 256; // packets per jitter buffer, a few frames; keeps hundreds of sessions small
+
+  InetAddress ServerIPAddr;
+  int RTSP_server_port;
+  String VideoFileName;
+  String[] script;
+  boolean interleaved; // RTP on the RTSP connections
+
+  // ------------------------------------
+  // main
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    LoadGenerator generator = new LoadGenerator();
+    generator.ServerIPAddr = InetAddress.getByName(argv[0]);
+    generator.RTSP_server_port = Integer.parseInt(argv[1]);
+    generator.VideoFileName = argv[2];
+    int sessions = (argv.length > 3) ? Integer.parseInt(argv[3]) : 100;
+    generator.script = ((argv.length > 4) ? argv[4] : SCRIPT).split(",");
+    int ramp_up = (argv.length > 5) ? Integer.parseInt(argv[5]) : RAMP_UP;
+    generator.interleaved = (argv.length > 6) && argv[6].equals("tcp");
+    JitterBuffer.SLOTS = JITTER_SLOTS;
+
+    System.out.println("Load: " + sessions + " sessions of " + generator.VideoFileName + ", script "
+        + String.join(",", generator.script) + (generator.interleaved ? ", RTP over TCP" : ""));
+    LoadSession[] load = new LoadSession[sessions];
+    Thread[] threads = new Thread[sessions];
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < sessions; i++) {
+      load[i] = generator.new LoadSession(i);
+      threads[i] = new Thread(load[i], "Load session " + i);
+      threads[i].start();
+      if (ramp_up > 0)
+        Thread.sleep(ramp_up);
+    }
+    for (int i = 0; i < sessions; i++)
+      threads[i].join();
+    generator.report(load, System.currentTimeMillis() - start);
+  }
+
+  // ------------------------------------
+  // LoadSession: one scripted client session and its statistics
+  // ------------------------------------
+  class LoadSession implements Runnable {
+    int id;
+    RTSPclient rtsp;
+    String error; // why the session stopped early, null if it ran the whole script
+
+    // statistics
+    long setup_latency = -1; // ms from connecting to the SETUP response
+    Histogram request_latency = new Histogram(); // ms, all the requests
+    Histogram interarrival = new Histogram(); // ms between two frames while playing
+    long frames;
+    long bytes;
+    long playing_frames; // frames and bytes received while in the PLAYING state
+    long playing_bytes;
+    long playing_time; // ms spent receiving while in the PLAYING state
+    long failed_requests; // replies other than 200
+    long expected; // RTP packets, from the RTCP statistics
+    long lost;
+    long stale; // frames dropped by the receiver because we were behind
+
+    LoadSession(int id) {
+      this.id = id;
+    }
+
+    public void run() {
+      try {
+        long start = System.currentTimeMillis();
+        rtsp = new RTSPclient(ServerIPAddr, RTSP_server_port, VideoFileName, 0, null);
+        rtsp.interleaved = interleaved;
+        for (String command : script) {
+          command = command.trim();
+          if (command.startsWith("WAIT:")) {
+            receive((long) (Double.parseDouble(command.substring(5)) * 1000));
+            continue;
+          }
+          long sent = System.currentTimeMillis();
+          int reply_code = request(command);
+          long now = System.currentTimeMillis();
+          request_latency.record(now - sent);
+          if (command.equals("SETUP"))
+            setup_latency = now - start;
+          if (reply_code != 200)
+            failed_requests++;
+        }
+      } catch (Exception ex) {
+        error = ex.toString();
+      }
+      if (rtsp != null) {
+        if (rtsp.getstats() != null && rtsp.getstats().getreceived() > 0) {
+          expected = rtsp.getstats().getexpected();
+          lost = rtsp.getstats().getcumulative_lost();
+          stale = rtsp.getreceiver().getstale_frames();
+        }
+        rtsp.close();
+      }
+    }
+
+    int request(String command) throws IOException {
+      if (command.equals("SETUP"))
+        return (rtsp.setup(QUEUE_SIZE, QUEUE_SIZE + 1));
+      if (command.equals("PLAY"))
+        return (rtsp.play());
+      if (command.equals("PAUSE"))
+        return (rtsp.pause());
+      if (command.equals("ADVANCE"))
+        return (rtsp.advance());
+      if (command.equals("BACK"))
+        return (rtsp.back());
+      if (command.equals("TEARDOWN"))
+        return (rtsp.teardown());
+      if (command.startsWith("SEEK:"))
+        return (rtsp.play(Double.parseDouble(command.substring(5)), rtsp.scale));
+      if (command.startsWith("SCALE:"))
+        return (rtsp.play(-1, Double.parseDouble(command.substring(6))));
+      if (command.startsWith("RENDITION:")) {
+        String rendition = command.substring(10);
+        return (rtsp.set_rendition(rendition.equals("auto") ? -1 : Integer.parseInt(rendition)));
+      }
+      if (command.startsWith("PREFETCH:"))
+        return (rtsp.set_prefetch(Integer.parseInt(command.substring(9))));
+      if (command.startsWith("PERIOD:"))
+        return (rtsp.set_frame_period(Integer.parseInt(command.substring(7))));
+      throw new IllegalArgumentException("Unknown script command " + command);
+    }
+
+    // receive the frames for duration ms; the interarrival times restart
+    // after every request, the gaps they cause are not the server's
+    void receive(long duration) throws InterruptedException {
+      long now = System.currentTimeMillis();
+      long end = now + duration;
+      long last_frame = -1;
+      boolean playing = rtsp.getstate() == RTSPclient.PLAYING;
+      while (now < end) {
+        RTPreceiver.Frame frame = (rtsp.getreceiver() == null) ? null : rtsp.getreceiver().poll(end - now);
+        if (frame == null) {
+          if (rtsp.getreceiver() == null)
+            Thread.sleep(end - now);
+          break;
+        }
+        now = System.currentTimeMillis();
+        if (playing) {
+          if (last_frame >= 0)
+            interarrival.record(now - last_frame);
+          last_frame = now;
+          playing_frames++;
+          playing_bytes += frame.length;
+        }
+        frames++;
+        bytes += frame.length;
+        rtsp.getreceiver().recycle(frame);
+      }
+      if (playing)
+        playing_time += duration;
+    }
+
+    double getfps() {
+      return ((playing_time == 0) ? 0 : playing_frames * 1000.0 / playing_time);
+    }
+
+    double getloss() {
+      return ((expected <= 0) ? 0 : 100.0 * lost / expected);
+    }
+  }
+
+  // ------------------------------------
+  // report: one line per session, then the whole load
+  // ------------------------------------
+  void report(LoadSession[] load, long elapsed) {
+    Histogram setup = new Histogram();
+    Histogram requests = new Histogram();
+    Histogram interarrival = new Histogram();
+    Histogram fps = new Histogram(); // per session, in 1/100 frame/s
+    long frames = 0;
+    long bytes = 0;
+    long expected = 0;
+    long lost = 0;
+    long stale = 0;
+    long failed_requests = 0;
+    int failed = 0;
+
+    System.out.println("session  setup ms  frames  fps     KB/s    loss %  stale  interarrival ms");
+    for (LoadSession session : load) {
+      System.out.println(String.format("%7d  %8d  %6d  %6.1f  %6.0f  %6.2f  %5d  %s", session.id,
+          session.setup_latency, session.frames, session.getfps(), (session.playing_time == 0) ? 0.0
+              : session.playing_bytes / (double) session.playing_time, session.getloss(), session.stale,
+          session.interarrival)
+          + ((session.error == null) ? "" : "  FAILED: " + session.error));
+      if (session.error != null)
+        failed++;
+      if (session.setup_latency >= 0)
+        setup.record(session.setup_latency);
+      requests.add(session.request_latency);
+      interarrival.add(session.interarrival);
+      fps.record(Math.round(session.getfps() * 100));
+      frames += session.frames;
+      bytes += session.bytes;
+      expected += session.expected;
+      lost += session.lost;
+      stale += session.stale;
+      failed_requests += session.failed_requests;
+    }
+
+    System.out.println("Sessions: " + load.length + ", failed " + failed + ", failed requests " + failed_requests
+        + ", in " + elapsed / 1000.0 + " s");
+    System.out.println(String.format("Frames: %d, %.1f MB, loss %.2f %% of %d packets, stale frames %d", frames,
+        bytes / 1e6, (expected == 0) ? 0.0 : 100.0 * lost / expected, expected, stale));
+    System.out.println(String.format("Frame rate per session: p5 %.1f, p50 %.1f, max %.1f fps",
+        fps.getpercentile(0.05) / 100.0, fps.getpercentile(0.5) / 100.0, fps.getmax() / 100.0));
+    System.out.println("Setup latency ms: " + setup);
+    System.out.println("Request latency ms: " + requests);
+    System.out.println("Frame interarrival ms: " + interarrival);
+  }
+}
@@ -0,0 +1,232 @@
+/* ------------------
+   Pacer
+   headless frame pacing: a dedicated thread runs the tasks of the
+   sessions at absolute deadlines (System.nanoTime), each task with its
+   own period. A deadline is the previous deadline plus the period, not
+   the run time plus the period, so late runs do not accumulate drift.
+   The lateness of every run is recorded to report the send jitter.
+   Once the tasks due at a tick ran, an optional flush task runs before
+   the thread sleeps, e.g. to send in one batch what the tasks queued.
+   ---------------------- */
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+public class Pacer implements Runnable {
+
+  // a task scheduled on the pacer
+  public static class Entry {
+    Runnable task;
+    long period; // ns
+    long deadline; // System.nanoTime of the next run
+    boolean cancelled;
+    Pacer pacer;
+
+    // change the period, from the next run on
+    public void set_period(long period_ns) {
+      synchronized (pacer) {
+        period = period_ns;
+      }
+    }
+
+    public long get_period() {
+      synchronized (pacer) {
+        return (period);
+      }
+    }
+
+    // stop running the task
+    public void cancel() {
+      synchronized (pacer) {
+        cancelled = true;
+      }
+    }
+  }
+
+  // when a task is more than this many periods late, its deadlines are
+  // moved to now instead of sending a burst to catch up
+  final static int MAX_CATCH_UP = 2;
+
+  // tasks due within a tick of now run together, so that what they send
+  // can be flushed in one batch; their deadlines do not move
+  static long TICK = 1000000; // ns
+
+  // lateness histogram: bucket i counts runs late by [2^(i-1), 2^i) us
+  final static int BUCKETS = 32;
+
+  Thread thread;
+  PriorityQueue<Entry> entries; // by deadline
+  volatile boolean running;
+  Runnable flush; // run when no task is due, before sleeping; may be null
+
+  // jitter statistics, under the lock
+  long runs;
+  long late_sum; // ns
+  long late_max; // ns
+  long resyncs; // deadlines moved to now after falling too far behind
+  long[] histogram;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public Pacer(String name) {
+    entries = new PriorityQueue<Entry>(64, new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+        return (Long.compare(a.deadline - b.deadline, 0));
+      }
+    });
+    histogram = new long[BUCKETS];
+    running = true;
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MAX_PRIORITY);
+    thread.start();
+  }
+
+  // --------------------------
+  // schedule: run task every period_ns, the first run after delay_ns
+  // --------------------------
+  public Entry schedule(Runnable task, long period_ns, long delay_ns) {
+    Entry entry = new Entry();
+    entry.task = task;
+    entry.period = period_ns;
+    entry.pacer = this;
+    synchronized (this) {
+      entry.deadline = System.nanoTime() + delay_ns;
+      entries.add(entry);
+    }
+    // wake up the thread, the new deadline may be the earliest
+    LockSupport.unpark(thread);
+    return (entry);
+  }
+
+  // --------------------------
+  // set_flush: run flush once the tasks due at a tick ran, before sleeping
+  // --------------------------
+  public void set_flush(Runnable flush) {
+    this.flush = flush;
+  }
+
+  // --------------------------
+  // wakeup: make the thread run its flush task now
+  // --------------------------
+  public void wakeup() {
+    LockSupport.unpark(thread);
+  }
+
+  // --------------------------
+  // run: pacing loop
+  // --------------------------
+  public void run() {
+    boolean flushed = true; // nothing ran since the last flush
+    while (running) {
+      Entry entry;
+      long now;
+      synchronized (this) {
+        entry = entries.peek();
+        while (entry != null && entry.cancelled) {
+          entries.poll();
+          entry = entries.peek();
+        }
+        now = System.nanoTime();
+        if (entry != null && entry.deadline - now <= TICK)
+          entries.poll();
+      }
+
+      if (entry == null || entry.deadline - now > TICK) {
+        // nothing due: flush what the tasks of this tick left, then sleep
+        if (!flushed && flush != null) {
+          flushed = true;
+          try {
+            flush.run();
+          } catch (RuntimeException re) {
+            AsyncLog.log("Pacer - Exception caught in flush: " + re);
+          }
+          continue;
+        }
+        // sleep until the deadline, or until an earlier task is scheduled
+        // or a wakeup
+        if (entry == null)
+          LockSupport.park(this);
+        else
+          LockSupport.parkNanos(this, entry.deadline - now);
+        flushed = false;
+        continue;
+      }
+      flushed = false;
+
+      try {
+        entry.task.run();
+      } catch (RuntimeException re) {
+        AsyncLog.log("Pacer - Exception caught: " + re);
+      }
+
+      synchronized (this) {
+        record(now - entry.deadline);
+        if (entry.cancelled)
+          continue;
+        // next absolute deadline, resynchronized if too far behind
+        entry.deadline += entry.period;
+        if (now - entry.deadline > MAX_CATCH_UP * entry.period) {
+          entry.deadline = now + entry.period;
+          resyncs++;
+        }
+        entries.add(entry);
+      }
+    }
+  }
+
+  // --------------------------
+  // record the lateness of a run
+  // --------------------------
+  private void record(long late) {
+    late = Math.max(late, 0); // run early, within the tick
+    runs++;
+    late_sum += late;
+    if (late > late_max)
+      late_max = late;
+    int bucket = 64 - Long.numberOfLeadingZeros(late / 1000);
+    histogram[Math.min(bucket, BUCKETS - 1)]++;
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+  public synchronized long getruns() {
+    return (runs);
+  }
+
+  // lateness below which a fraction p of the runs were, in us (upper bound of the bucket)
+  public synchronized long getpercentile(double p) {
+    long target = (long) Math.ceil(runs * p);
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += histogram[i];
+      if (count >= target && count > 0)
+        return (1L << i);
+    }
+    return (0);
+  }
+
+  public synchronized String toString() {
+    long avg = (runs == 0) ? 0 : late_sum / runs / 1000;
+    return ("runs " + runs + ", late avg " + avg + " us, p99 < " + getpercentile(0.99) + " us, max " + late_max / 1000
+        + " us, resyncs " + resyncs);
+  }
+
+  public synchronized void reset() {
+    runs = 0;
+    late_sum = 0;
+    late_max = 0;
+    resyncs = 0;
+    Arrays.fill(histogram, 0);
+  }
+
+  // --------------------------
+  // stop the pacing thread
+  // --------------------------
+  public void stop() {
+    running = false;
+    LockSupport.unpark(thread);
+  }
+}
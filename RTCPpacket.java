@@ -0,0 +1,182 @@
+/* ------------------
+   RTCPpacket
+   RTCP packet (RFC 3550 section 6): common header, SSRC of the sender
+   and report blocks, shared by the sender reports (RTCPsenderReport)
+   and the receiver reports (RTCPreceiverReport). parse decodes the
+   reports of a compound packet
+   ---------------------- */
+
+import java.util.*;
+
+public class RTCPpacket {
+
+  // packet types
+  final static int SR = 200;
+  final static int RR = 201;
+
+  // sizes in bytes
+  final static int HEADER_SIZE = 8; // common header and SSRC
+  final static int REPORT_BLOCK_SIZE = 24;
+  final static int MAX_REPORT_COUNT = 31;
+
+  // seconds between 1900 (NTP epoch) and 1970 (Java epoch)
+  final static long NTP_OFFSET = 2208988800L;
+
+  // a reception report block: reception statistics of one RTP source
+  public static class ReportBlock {
+    public int Ssrc; // source the block is about
+    public int FractionLost; // lost since the previous report, in 1/256
+    public int CumulativeLost; // lost since the beginning, 24-bit signed
+    public int HighestSeq; // extended highest sequence number received
+    public int Jitter; // interarrival jitter, in RTP timestamp units
+    public int Lsr; // middle 32 bits of the NTP timestamp of the last SR
+    public int Dlsr; // delay since the last SR, in 1/65536 s
+
+    int put(byte[] packet, int pos) {
+      pos = put_int(packet, pos, Ssrc);
+      pos = put_int(packet, pos, (FractionLost << 24) | (CumulativeLost & 0xFFFFFF));
+      pos = put_int(packet, pos, HighestSeq);
+      pos = put_int(packet, pos, Jitter);
+      pos = put_int(packet, pos, Lsr);
+      return (put_int(packet, pos, Dlsr));
+    }
+
+    int get(byte[] packet, int pos) {
+      Ssrc = get_int(packet, pos);
+      int lost = get_int(packet, pos + 4);
+      FractionLost = (lost >> 24) & 0xFF;
+      CumulativeLost = (lost << 8) >> 8; // sign extend the 24 bits
+      HighestSeq = get_int(packet, pos + 8);
+      Jitter = get_int(packet, pos + 12);
+      Lsr = get_int(packet, pos + 16);
+      Dlsr = get_int(packet, pos + 20);
+      return (pos + REPORT_BLOCK_SIZE);
+    }
+  }
+
+  // header fields
+  public int Version;
+  public int PacketType;
+  public int Ssrc; // SSRC of the sender of this packet
+
+  public ReportBlock[] blocks; // reception report blocks
+
+  // --------------------------
+  // Constructor of an RTCP packet from its header fields and report blocks
+  // --------------------------
+  public RTCPpacket(int PType, int Ssrc, ReportBlock[] blocks) {
+    Version = 2;
+    PacketType = PType;
+    this.Ssrc = Ssrc;
+    this.blocks = (blocks == null) ? new ReportBlock[0] : blocks;
+    if (this.blocks.length > MAX_REPORT_COUNT)
+      throw new IllegalArgumentException("Too many report blocks: " + this.blocks.length);
+  }
+
+  // --------------------------
+  // parse: decode the sender and receiver reports of the compound packet of
+  // length bytes at offset, the other packet types are skipped
+  // --------------------------
+  public static List<RTCPpacket> parse(byte[] packet, int offset, int length) {
+    List<RTCPpacket> reports = new ArrayList<RTCPpacket>();
+    int end = offset + length;
+    while (offset + HEADER_SIZE <= end) {
+      int version = (packet[offset] >> 6) & 3;
+      int count = packet[offset] & 31;
+      int type = packet[offset + 1] & 0xFF;
+      int size = 4 * ((((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF)) + 1);
+      if (version != 2 || offset + size > end)
+        break; // not RTCP, or truncated
+
+      int pos = offset + HEADER_SIZE;
+      RTCPpacket report = null;
+      if (type == SR && size >= HEADER_SIZE + RTCPsenderReport.SENDER_INFO_SIZE + count * REPORT_BLOCK_SIZE) {
+        RTCPsenderReport sr = new RTCPsenderReport(get_int(packet, offset + 4), 0, 0, 0, 0, null);
+        pos = sr.get_sender_info(packet, pos);
+        report = sr;
+      } else if (type == RR && size >= HEADER_SIZE + count * REPORT_BLOCK_SIZE) {
+        report = new RTCPreceiverReport(get_int(packet, offset + 4), null);
+      }
+
+      if (report != null) {
+        report.blocks = new ReportBlock[count];
+        for (int i = 0; i < count; i++) {
+          report.blocks[i] = new ReportBlock();
+          pos = report.blocks[i].get(packet, pos);
+        }
+        reports.add(report);
+      }
+      offset += size;
+    }
+    return (reports);
+  }
+
+  // --------------------------
+  // getlength: return the total length of the RTCP packet
+  // --------------------------
+  public int getlength() {
+    return (HEADER_SIZE + getbody_length() + blocks.length * REPORT_BLOCK_SIZE);
+  }
+
+  // --------------------------
+  // getpacket: returns the packet bitstream and its length
+  // --------------------------
+  public int getpacket(byte[] packet) {
+    int length = getlength();
+    packet[0] = (byte) ((Version << 6) | blocks.length);
+    packet[1] = (byte) PacketType;
+    packet[2] = (byte) ((length / 4 - 1) >> 8);
+    packet[3] = (byte) (length / 4 - 1);
+    int pos = put_int(packet, 4, Ssrc);
+    pos = put_body(packet, pos);
+    for (ReportBlock block : blocks)
+      pos = block.put(packet, pos);
+    return (length);
+  }
+
+  // --------------------------
+  // getreport: the report block about source ssrc, null if none
+  // --------------------------
+  public ReportBlock getreport(int ssrc) {
+    for (ReportBlock block : blocks)
+      if (block.Ssrc == ssrc)
+        return (block);
+    return (null);
+  }
+
+  // size and encoding of the fields between the SSRC and the report blocks
+  int getbody_length() {
+    return (0);
+  }
+
+  int put_body(byte[] packet, int pos) {
+    return (pos);
+  }
+
+  // --------------------------
+  // NTP timestamps (64 bits: seconds since 1900, fraction) from Java time
+  // --------------------------
+  public static long ntp_time(long millis) {
+    long seconds = millis / 1000 + NTP_OFFSET;
+    long fraction = ((millis % 1000) << 32) / 1000;
+    return ((seconds << 32) | fraction);
+  }
+
+  // middle 32 bits of an NTP timestamp, in 1/65536 s, used by LSR and DLSR
+  public static int ntp_middle(long ntp) {
+    return ((int) (ntp >>> 16));
+  }
+
+  static int put_int(byte[] packet, int pos, int value) {
+    packet[pos] = (byte) (value >> 24);
+    packet[pos + 1] = (byte) (value >> 16);
+    packet[pos + 2] = (byte) (value >> 8);
+    packet[pos + 3] = (byte) value;
+    return (pos + 4);
+  }
+
+  static int get_int(byte[] packet, int pos) {
+    return (((packet[pos] & 0xFF) << 24) | ((packet[pos + 1] & 0xFF) << 16) | ((packet[pos + 2] & 0xFF) << 8)
+        | (packet[pos + 3] & 0xFF));
+  }
+}
@@ -0,0 +1,16 @@
+/* ------------------
+   RTCPreceiverReport
+   RTCP receiver report (RR, RFC 3550 section 6.4.2): sent by the
+   client, one report block per source with its loss, jitter and the
+   LSR/DLSR fields the sender uses to compute the round trip time
+   ---------------------- */
+
+public class RTCPreceiverReport extends RTCPpacket {
+
+  // --------------------------
+  // Constructor of a receiver report from its fields
+  // --------------------------
+  public RTCPreceiverReport(int Ssrc, ReportBlock[] blocks) {
+    super(RR, Ssrc, blocks);
+  }
+}
@@ -0,0 +1,138 @@
+/* ------------------
+   RTCPreporter
+   client side of the RTCP channel: a thread listens on the RTCP port
+   (RTP port + 1) for the sender reports of the server and answers with
+   a receiver report built from the RTCPstats every REPORT_INTERVAL. The
+   reports go back to the address the sender reports come from. With an
+   interleaved transport both go through the RTSP connection
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class RTCPreporter implements Runnable {
+
+  // period of the receiver reports, in ms
+  static int REPORT_INTERVAL = 1000;
+
+  DatagramSocket socket; // bound to the RTCP port
+  InterleavedConnection connection; // RTCP on the RTSP connection, null for UDP
+  RTCPstats stats; // reception statistics of the RTP stream
+  int ssrc; // our SSRC, chosen at random
+  volatile SocketAddress sender; // where the sender reports come from, null until the first one
+  byte[] buf;
+  DatagramPacket packet;
+
+  Thread thread;
+  volatile boolean running;
+  volatile long reports_sent;
+  volatile long sender_reports;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public RTCPreporter(DatagramSocket socket, RTCPstats stats) {
+    this.socket = socket;
+    this.stats = stats;
+    ssrc = new Random().nextInt();
+    buf = new byte[1500];
+    packet = new DatagramPacket(buf, buf.length);
+  }
+
+  // --------------------------
+  // Constructor of the reporter of an interleaved connection, which hands
+  // it the sender reports
+  // --------------------------
+  public RTCPreporter(InterleavedConnection connection, RTCPstats stats) {
+    this((DatagramSocket) null, stats);
+    this.connection = connection;
+    connection.set_reporter(this);
+  }
+
+  // --------------------------
+  // start the reporting thread
+  // --------------------------
+  public void start() {
+    running = true;
+    thread = new Thread(this, "RTCP reporter");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // --------------------------
+  // run: receive the sender reports, send the receiver reports on time
+  // --------------------------
+  public void run() {
+    long next_report = System.currentTimeMillis() + REPORT_INTERVAL;
+    while (running) {
+      try {
+        long now = System.currentTimeMillis();
+        if (now >= next_report) {
+          send_report(now);
+          next_report += REPORT_INTERVAL;
+          if (next_report <= now)
+            next_report = now + REPORT_INTERVAL;
+          continue;
+        }
+
+        if (connection != null) {
+          // the sender reports come from the connection
+          Thread.sleep(next_report - now);
+          continue;
+        }
+        socket.setSoTimeout((int) (next_report - now));
+        packet.setLength(buf.length);
+        socket.receive(packet);
+        now = System.currentTimeMillis();
+        for (RTCPpacket report : RTCPpacket.parse(packet.getData(), packet.getOffset(), packet.getLength()))
+          if (report instanceof RTCPsenderReport)
+            sender_report((RTCPsenderReport) report, packet.getSocketAddress(), now);
+      } catch (SocketTimeoutException ste) {
+        // time to report
+      } catch (InterruptedException ie) {
+        return;
+      } catch (IOException ioe) {
+        if (running)
+          System.out.println("RTCPreporter - Exception caught: " + ioe);
+      }
+    }
+  }
+
+  // --------------------------
+  // sender_report: a sender report of the server, from address, received
+  // at now (ms)
+  // --------------------------
+  void sender_report(RTCPsenderReport report, SocketAddress address, long now) {
+    stats.sender_report(report, now);
+    sender = address;
+    sender_reports++;
+  }
+
+  // --------------------------
+  // send_report: send a receiver report to the sender, once it is known
+  // --------------------------
+  void send_report(long now) throws IOException {
+    RTCPpacket.ReportBlock block = stats.report(now);
+    if (sender == null || block == null)
+      return;
+    RTCPreceiverReport rr = new RTCPreceiverReport(ssrc, new RTCPpacket.ReportBlock[] { block });
+    int length = rr.getpacket(buf);
+    if (connection != null)
+      connection.send_rtcp(buf, length);
+    else
+      socket.send(new DatagramPacket(buf, length, sender));
+    reports_sent++;
+  }
+
+  // --------------------------
+  // stop the reporting thread
+  // --------------------------
+  public void stop() {
+    running = false;
+  }
+
+  public String toString() {
+    return ("sender reports " + sender_reports + ", receiver reports " + reports_sent + ", " + stats);
+  }
+}
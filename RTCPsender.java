@@ -0,0 +1,148 @@
+/* ------------------
+   RTCPsender
+   RTCP side of a session on the server: sends the sender reports of
+   the session's RTP stream to the client RTCP port (RTP port + 1)
+   through the shared RTCPserver, and keeps the last receiver report the
+   client sent back: the loss, jitter and round trip time it sees. The
+   reports of an interleaved session go on its RTSP connection instead
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+public class RTCPsender {
+
+  // period of the sender reports, in ms
+  static int REPORT_INTERVAL = 1000;
+
+  RTCPserver server; // shared RTCP socket, null when interleaved
+  InetSocketAddress client; // client RTCP port
+  InterleavedQueue queue; // RTSP connection of an interleaved session, null for UDP
+  int channel; // interleaved channel of the reports
+  RTPwriter writer; // RTP stream described by the reports
+  int ssrc; // SSRC of the stream
+  int clock_rate; // RTP timestamp units per second
+  byte[] packet; // encoded report
+  ByteBuffer buffer; // wraps packet
+
+  // last receiver report about our stream
+  long reports; // receiver reports received
+  long last_report; // ms, when the last one arrived
+  int fraction_lost; // in 1/256
+  int cumulative_lost;
+  int highest_seq;
+  int jitter; // RTP timestamp units
+  int rtt = -1; // round trip time in ms, -1 until known
+
+  // --------------------------
+  // Constructor: registers with the RTCP server until close
+  // --------------------------
+  public RTCPsender(RTCPserver server, InetSocketAddress client, RTPwriter writer, int clock_rate) {
+    this.server = server;
+    this.client = client;
+    this.writer = writer;
+    this.clock_rate = clock_rate;
+    ssrc = writer.getssrc();
+    packet = new byte[256];
+    buffer = ByteBuffer.wrap(packet);
+    if (server != null)
+      server.register(this);
+  }
+
+  // --------------------------
+  // Constructor of the reports on channel of an interleaved session: the
+  // receiver reports come in on the RTSP connection, see ServerSession
+  // --------------------------
+  public RTCPsender(InterleavedQueue queue, int channel, RTPwriter writer, int clock_rate) {
+    this((RTCPserver) null, null, writer, clock_rate);
+    this.queue = queue;
+    this.channel = channel;
+  }
+
+  // --------------------------
+  // send_report: send a sender report, rtp_timestamp being the timestamp
+  // of the frame being played now; must run with the writer idle
+  // --------------------------
+  public void send_report(int rtp_timestamp) throws IOException {
+    long payload_bytes = writer.bytes - writer.packets * RTPpacket.HEADER_SIZE;
+    RTCPsenderReport sr = new RTCPsenderReport(ssrc, RTCPpacket.ntp_time(System.currentTimeMillis()), rtp_timestamp,
+        (int) writer.packets, (int) payload_bytes, null);
+    int length = sr.getpacket(packet);
+    if (queue != null) {
+      queue.send_message(channel, packet, length);
+      return;
+    }
+    buffer.clear().limit(length);
+    server.send(buffer, client);
+  }
+
+  // record a report block about our stream received at now (ms)
+  synchronized void receiver_report(RTCPpacket.ReportBlock block, long now) {
+    reports++;
+    last_report = now;
+    fraction_lost = block.FractionLost;
+    cumulative_lost = block.CumulativeLost;
+    highest_seq = block.HighestSeq;
+    jitter = block.Jitter;
+
+    // round trip time: now - LSR - DLSR, in 1/65536 s (RFC 3550 6.4.1)
+    if (block.Lsr != 0) {
+      int a = RTCPpacket.ntp_middle(RTCPpacket.ntp_time(now));
+      long delay = (a - block.Lsr - block.Dlsr) & 0xFFFFFFFFL;
+      if (delay < 0x80000000L)
+        rtt = (int) (delay * 1000 / 65536);
+    }
+  }
+
+  // --------------------------
+  // statistics from the last receiver report
+  // --------------------------
+  public synchronized long getreports() {
+    return (reports);
+  }
+
+  public synchronized long getlast_report() {
+    return (last_report);
+  }
+
+  // fraction of the packets lost since the previous report, 0..1
+  public synchronized double getfraction_lost() {
+    return (fraction_lost / 256.0);
+  }
+
+  public synchronized int getcumulative_lost() {
+    return (cumulative_lost);
+  }
+
+  public synchronized int gethighest_seq() {
+    return (highest_seq);
+  }
+
+  // interarrival jitter in ms
+  public synchronized double getjitter() {
+    return (jitter * 1000.0 / clock_rate);
+  }
+
+  // round trip time in ms, -1 if not known yet
+  public synchronized int getrtt() {
+    return (rtt);
+  }
+
+  public synchronized String toString() {
+    return ("reports " + reports + ", fraction lost " + fraction_lost + "/256, lost " + cumulative_lost
+        + ", jitter " + (int) getjitter() + " ms, rtt " + rtt + " ms");
+  }
+
+  public int getssrc() {
+    return (ssrc);
+  }
+
+  // --------------------------
+  // close: stop receiving the reports of this session
+  // --------------------------
+  public void close() {
+    if (server != null)
+      server.unregister(this);
+  }
+}
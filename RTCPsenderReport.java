@@ -0,0 +1,50 @@
+/* ------------------
+   RTCPsenderReport
+   RTCP sender report (SR, RFC 3550 section 6.4.1): sent by the server,
+   it maps the RTP timestamps to wall clock time and gives the packet
+   and byte counts of the stream. Its NTP timestamp comes back in the
+   LSR field of the receiver reports to measure the round trip time
+   ---------------------- */
+
+public class RTCPsenderReport extends RTCPpacket {
+
+  final static int SENDER_INFO_SIZE = 20;
+
+  // sender info
+  public long NtpTimestamp; // wall clock time of the report
+  public int RtpTimestamp; // same instant, in RTP timestamp units
+  public int PacketCount; // RTP packets sent
+  public int OctetCount; // RTP payload bytes sent
+
+  // --------------------------
+  // Constructor of a sender report from its fields
+  // --------------------------
+  public RTCPsenderReport(int Ssrc, long NtpTimestamp, int RtpTimestamp, int PacketCount, int OctetCount,
+      ReportBlock[] blocks) {
+    super(SR, Ssrc, blocks);
+    this.NtpTimestamp = NtpTimestamp;
+    this.RtpTimestamp = RtpTimestamp;
+    this.PacketCount = PacketCount;
+    this.OctetCount = OctetCount;
+  }
+
+  int getbody_length() {
+    return (SENDER_INFO_SIZE);
+  }
+
+  int put_body(byte[] packet, int pos) {
+    pos = put_int(packet, pos, (int) (NtpTimestamp >>> 32));
+    pos = put_int(packet, pos, (int) NtpTimestamp);
+    pos = put_int(packet, pos, RtpTimestamp);
+    pos = put_int(packet, pos, PacketCount);
+    return (put_int(packet, pos, OctetCount));
+  }
+
+  int get_sender_info(byte[] packet, int pos) {
+    NtpTimestamp = ((long) get_int(packet, pos) << 32) | (get_int(packet, pos + 4) & 0xFFFFFFFFL);
+    RtpTimestamp = get_int(packet, pos + 8);
+    PacketCount = get_int(packet, pos + 12);
+    OctetCount = get_int(packet, pos + 16);
+    return (pos + SENDER_INFO_SIZE);
+  }
+}
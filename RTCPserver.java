@@ -0,0 +1,101 @@
+/* ------------------
+   RTCPserver
+   RTCP socket shared by all the sessions of the server: the sender
+   reports of every session go out through it, and a single thread
+   receives the receiver reports coming back (symmetric RTCP, the
+   clients answer to the address of the sender reports). The reports
+   are timestamped on arrival, for the round trip time, and handed to
+   the RTCPsender of the session by the SSRC of their report blocks
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+public class RTCPserver implements Runnable {
+
+  DatagramChannel channel; // bound to an ephemeral port
+  ConcurrentHashMap<Integer, RTCPsender> senders; // by SSRC of their RTP stream
+  byte[] packet; // received packet
+  ByteBuffer buffer; // wraps packet
+
+  Thread thread;
+  volatile boolean running;
+  volatile long unknown_reports; // reports about no stream of ours, or from another address
+
+  // --------------------------
+  // Constructor: opens the socket and starts the receiving thread
+  // --------------------------
+  public RTCPserver() throws IOException {
+    channel = DatagramChannel.open();
+    channel.bind(null);
+    senders = new ConcurrentHashMap<Integer, RTCPsender>();
+    packet = new byte[1500];
+    buffer = ByteBuffer.wrap(packet);
+    running = true;
+    thread = new Thread(this, "RTCP server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // --------------------------
+  // register / unregister the RTCP side of a session
+  // --------------------------
+  public void register(RTCPsender sender) {
+    senders.put(sender.getssrc(), sender);
+  }
+
+  public void unregister(RTCPsender sender) {
+    senders.remove(sender.getssrc(), sender);
+  }
+
+  // --------------------------
+  // send a report to a client, from any thread
+  // --------------------------
+  public void send(ByteBuffer report, SocketAddress client) throws IOException {
+    channel.send(report, client);
+  }
+
+  // --------------------------
+  // run: receive the receiver reports and dispatch them to the sessions
+  // --------------------------
+  public void run() {
+    while (running) {
+      InetSocketAddress source;
+      try {
+        buffer.clear();
+        source = (InetSocketAddress) channel.receive(buffer);
+      } catch (IOException ioe) {
+        if (running)
+          AsyncLog.log("RTCPserver - Exception caught: " + ioe);
+        continue;
+      }
+      long now = System.currentTimeMillis();
+
+      for (RTCPpacket report : RTCPpacket.parse(packet, 0, buffer.position())) {
+        for (RTCPpacket.ReportBlock block : report.blocks) {
+          RTCPsender sender = senders.get(block.Ssrc);
+          // only the client of the session may report on its stream
+          if (sender != null && sender.client.getAddress().equals(source.getAddress()))
+            sender.receiver_report(block, now);
+          else
+            unknown_reports++;
+        }
+      }
+    }
+  }
+
+  // --------------------------
+  // close the socket and stop the thread
+  // --------------------------
+  public void close() {
+    running = false;
+    try {
+      channel.close();
+    } catch (IOException ioe) {
+      // nothing to do, the socket is released anyway
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/* ------------------
+   RTCPstats
+   receiver-side statistics of an RTP source, as defined by RFC 3550
+   appendix A: extended highest sequence number, cumulative loss and
+   fraction lost between reports, interarrival jitter, and the LSR/DLSR
+   fields that let the sender compute the round trip time. Updated by
+   the receive thread, read by the thread sending the receiver reports
+   ---------------------- */
+
+public class RTCPstats {
+
+  // sequence number jumps (RFC 3550 A.1)
+  final static int MAX_DROPOUT = 3000;
+  final static int MAX_MISORDER = 100;
+
+  int clock_rate; // RTP timestamp units per second
+
+  boolean started;
+  int ssrc; // source of the packets
+  int base_seq; // first sequence number
+  int max_seq; // highest sequence number, 16 bits
+  int cycles; // sequence number wraparounds, shifted by 16
+  int bad_seq; // sequence number expected after a large jump
+  long received; // packets received
+  long expected_prior; // packets expected at the previous report
+  long received_prior; // packets received at the previous report
+  int fraction_lost; // of the previous report, in 1/256
+
+  // interarrival jitter (RFC 3550 A.8), in RTP timestamp units
+  double jitter;
+  long last_transit;
+  long last_arrival; // ms
+  boolean has_transit;
+
+  // last sender report
+  int lsr; // middle 32 bits of its NTP timestamp
+  long lsr_arrival; // ms, when it was received
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public RTCPstats(int clock_rate) {
+    this.clock_rate = clock_rate;
+  }
+
+  // --------------------------
+  // update: account for the RTP packet of rtp_view received at now (ms)
+  // --------------------------
+  public synchronized void update(RTPview rtp_view, long now) {
+    int seq = rtp_view.getsequencenumber();
+    if (!started || rtp_view.getssrc() != ssrc) {
+      // new source
+      init_seq(seq);
+      ssrc = rtp_view.getssrc();
+      started = true;
+      has_transit = false;
+    } else {
+      int udelta = (seq - max_seq) & 0xFFFF;
+      if (udelta < MAX_DROPOUT) {
+        // in order, with permissible gap
+        if (seq < max_seq)
+          cycles += 65536;
+        max_seq = seq;
+      } else if (udelta <= 65536 - MAX_MISORDER) {
+        // the sequence number made a very large jump: restart from it
+        // when the next packet follows it, drop it otherwise
+        if (seq != bad_seq) {
+          bad_seq = (seq + 1) & 0xFFFF;
+          return;
+        }
+        init_seq(seq);
+      }
+      // else duplicate or reordered packet
+    }
+    received++;
+
+    // interarrival jitter; the transit time restarts after a pause in
+    // the stream, which would otherwise count as one huge jitter sample
+    long transit = now * clock_rate / 1000 - (rtp_view.gettimestamp() & 0xFFFFFFFFL);
+    if (has_transit && now - last_arrival < 1000) {
+      long d = Math.abs(transit - last_transit);
+      jitter += (d - jitter) / 16.0;
+    }
+    last_transit = transit;
+    last_arrival = now;
+    has_transit = true;
+  }
+
+  // --------------------------
+  // resync: restart the jitter estimate from the next packet, when the
+  // timestamps jump on purpose (PLAY after PAUSE, ADVANCE, BACK)
+  // --------------------------
+  public synchronized void resync() {
+    has_transit = false;
+  }
+
+  void init_seq(int seq) {
+    base_seq = seq;
+    max_seq = seq;
+    bad_seq = (seq + 1) & 0xFFFF;
+    cycles = 0;
+    received = 0;
+    expected_prior = 0;
+    received_prior = 0;
+  }
+
+  // --------------------------
+  // sender_report: record the sender report sr received at now (ms)
+  // --------------------------
+  public synchronized void sender_report(RTCPsenderReport sr, long now) {
+    lsr = RTCPpacket.ntp_middle(sr.NtpTimestamp);
+    lsr_arrival = now;
+  }
+
+  // --------------------------
+  // report: the report block about the source at now (ms), null if no
+  // packet was received; starts a new interval for the fraction lost
+  // --------------------------
+  public synchronized RTCPpacket.ReportBlock report(long now) {
+    if (!started)
+      return (null);
+
+    long expected = getexpected();
+    long expected_interval = expected - expected_prior;
+    long received_interval = received - received_prior;
+    expected_prior = expected;
+    received_prior = received;
+    long lost_interval = expected_interval - received_interval;
+    fraction_lost = (expected_interval == 0 || lost_interval <= 0) ? 0
+        : (int) ((lost_interval << 8) / expected_interval);
+
+    RTCPpacket.ReportBlock block = new RTCPpacket.ReportBlock();
+    block.Ssrc = ssrc;
+    block.FractionLost = fraction_lost;
+    block.CumulativeLost = (int) Math.max(-0x800000, Math.min(getcumulative_lost(), 0x7FFFFF));
+    block.HighestSeq = gethighest_seq();
+    block.Jitter = (int) jitter;
+    if (lsr_arrival != 0) {
+      block.Lsr = lsr;
+      block.Dlsr = (int) ((now - lsr_arrival) * 65536 / 1000);
+    }
+    return (block);
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+  public synchronized long getexpected() {
+    return (gethighest_seq() - base_seq + 1);
+  }
+
+  public synchronized long getcumulative_lost() {
+    return (getexpected() - received);
+  }
+
+  // fraction lost of the last report, 0..1
+  public synchronized double getfraction_lost() {
+    return (fraction_lost / 256.0);
+  }
+
+  public synchronized int gethighest_seq() {
+    return (cycles + max_seq);
+  }
+
+  // interarrival jitter in ms
+  public synchronized double getjitter() {
+    return (jitter * 1000 / clock_rate);
+  }
+
+  public synchronized long getreceived() {
+    return (received);
+  }
+
+  public synchronized String toString() {
+    return ("received " + received + ", lost " + getcumulative_lost() + ", fraction lost " + fraction_lost
+        + "/256, jitter " + (int) getjitter() + " ms, highest seq " + gethighest_seq());
+  }
+}
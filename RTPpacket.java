@@ -1,3 +1,7 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
 public class RTPpacket {
 
   // size of the RTP header:
@@ -21,17 +25,66 @@ public class RTPpacket {
   public int payload_size;
   // Bitstream of the RTP payload
   public byte[] payload;
+  // RTP payload referenced without a copy (instead of payload), see the ByteBuffer constructor
+  public ByteBuffer payload_buffer;
+  // payload format header sent in front of payload_buffer (e.g. the RFC 2435 JPEG header)
+  public ByteBuffer payload_header;
 
   // --------------------------
   // Constructor of an RTPpacket object from header fields and payload bitstream
   // --------------------------
   public RTPpacket(int PType, int Framenb, int Time, byte[] data, int data_length) {
+    // build the header bistream:
+    // --------------------------
+    build_header(PType, Framenb, Time);
+
+    // fill the payload bitstream:
+    // --------------------------
+    payload_size = data_length;
+    payload = new byte[data_length];
+
+    // fill payload array of byte from data (given in parameter of the constructor)
+    for (int i = 0; i < data_length; i++)
+      payload[i] = data[i];
+
+  }
+
+  // --------------------------
+  // Constructor of an RTPpacket object from header fields and a payload buffer:
+  // the payload is referenced, not copied, and is sent with send(channel)
+  // --------------------------
+  public RTPpacket(int PType, int Framenb, int Time, ByteBuffer data) {
+    this(PType, Framenb, Time, 0, null, data);
+  }
+
+  // --------------------------
+  // Constructor of an RTPpacket object from header fields, the marker bit
+  // and a payload made of a payload format header (may be null) and data
+  // --------------------------
+  public RTPpacket(int PType, int Framenb, int Time, int Mark, ByteBuffer data_header, ByteBuffer data) {
+    // build the header bistream:
+    // --------------------------
+    Marker = Mark;
+    build_header(PType, Framenb, Time);
+
+    // keep a reference to the remaining bytes of data as payload
+    payload_buffer = data.slice();
+    payload_size = payload_buffer.remaining();
+    if (data_header != null) {
+      payload_header = data_header.slice();
+      payload_size += payload_header.remaining();
+    }
+  }
+
+  // --------------------------
+  // build_header: fill the header fields and the header bitstream
+  // --------------------------
+  private void build_header(int PType, int Framenb, int Time) {
     // fill by default header fields:
     Version = 2;
     Padding = 0;
     Extension = 0;
     CC = 0;
-    Marker = 0;
     Ssrc = 0;
 
     // fill changing header fields:
@@ -39,8 +92,6 @@ public class RTPpacket {
     TimeStamp = Time;
     PayloadType = PType;
 
-    // build the header bistream:
-    // --------------------------
     header = new byte[HEADER_SIZE];
 
     // .............
@@ -62,15 +113,6 @@ public class RTPpacket {
     header[9] = (byte) ((Ssrc >> 16) & 255);
     header[10] = (byte) ((Ssrc >> 8) & 255);
     header[11] = (byte) (Ssrc & 255);
-    // fill the payload bitstream:
-    // --------------------------
-    payload_size = data_length;
-    payload = new byte[data_length];
-
-    // fill payload array of byte from data (given in parameter of the constructor)
-    for (int i = 0; i < data_length; i++)
-      payload[i] = data[i];
-
   }
 
   // --------------------------
@@ -99,10 +141,13 @@ public class RTPpacket {
         payload[i - HEADER_SIZE] = packet[i];
 
       // interpret the changing fields of the header:
+      Marker = (header[1] >> 7) & 1;
       PayloadType = header[1] & 127;
       SequenceNumber = unsigned_int(header[3]) + 256 * unsigned_int(header[2]);
       TimeStamp = unsigned_int(header[7]) + 256 * unsigned_int(header[6]) + 65536 * unsigned_int(header[5])
           + 16777216 * unsigned_int(header[4]);
+      Ssrc = unsigned_int(header[11]) + 256 * unsigned_int(header[10]) + 65536 * unsigned_int(header[9])
+          + 16777216 * unsigned_int(header[8]);
     }
   }
 
@@ -111,8 +156,11 @@ public class RTPpacket {
   // --------------------------
   public int getpayload(byte[] data) {
 
-    for (int i = 0; i < payload_size; i++)
-      data[i] = payload[i];
+    if (payload_buffer != null)
+      get_payload_buffers(data, 0);
+    else
+      for (int i = 0; i < payload_size; i++)
+        data[i] = payload[i];
 
     return (payload_size);
   }
@@ -138,13 +186,46 @@ public class RTPpacket {
     // construct the packet = header + payload
     for (int i = 0; i < HEADER_SIZE; i++)
       packet[i] = header[i];
-    for (int i = 0; i < payload_size; i++)
-      packet[i + HEADER_SIZE] = payload[i];
+    if (payload_buffer != null)
+      get_payload_buffers(packet, HEADER_SIZE);
+    else
+      for (int i = 0; i < payload_size; i++)
+        packet[i + HEADER_SIZE] = payload[i];
 
     // return total size of the packet
     return (payload_size + HEADER_SIZE);
   }
 
+  // --------------------------
+  // send: write the packet to a connected channel with a gathering write,
+  // so the payload goes from its buffer to the socket without a copy
+  // --------------------------
+  public int send(DatagramChannel channel) throws IOException {
+    ByteBuffer[] packet;
+    if (payload_header != null)
+      packet = new ByteBuffer[] { ByteBuffer.wrap(header), payload_header.duplicate(), payload_buffer.duplicate() };
+    else
+      packet = new ByteBuffer[] { ByteBuffer.wrap(header), payload_buffer.duplicate() };
+    return ((int) channel.write(packet));
+  }
+
+  // copy the payload header and the payload buffer to data at offset
+  private void get_payload_buffers(byte[] data, int offset) {
+    if (payload_header != null) {
+      int length = payload_header.remaining();
+      payload_header.duplicate().get(data, offset, length);
+      offset += length;
+    }
+    payload_buffer.duplicate().get(data, offset, payload_buffer.remaining());
+  }
+
+  // --------------------------
+  // getmarker
+  // --------------------------
+  public int getmarker() {
+    return (Marker);
+  }
+
   // --------------------------
   // gettimestamp
   // --------------------------
@@ -0,0 +1,224 @@
+/* ------------------
+   RTPreceiver
+   receive stage of the client pipeline: a dedicated thread reads the
+   RTP packets from the socket, orders them in the jitter buffer and
+   reassembles the frames whose playout time is reached. The complete
+   frames are copied into recycled Frame objects and handed to the next
+   stage through a bounded queue; when the queue is full the oldest
+   frame is dropped as stale, so a slow consumer never stalls the socket.
+   With an interleaved transport the thread reads the RTSP connection
+   instead of the socket
+   ---------------------- */
+
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+public class RTPreceiver implements Runnable {
+
+  // a frame travelling through the pipeline, recycled at the end of it
+  public static class Frame {
+    public byte[] data = new byte[65536]; // JPEG frame
+    public int length;
+    public int timestamp; // RTP timestamp
+    public long number; // order of reception, later stages drop older frames
+    public BufferedImage image; // decoded image, set by the decode stage
+  }
+
+  // socket timeout, also the resolution of the playout clock, in ms
+  static int TICK = 5;
+
+  DatagramSocket socket;
+  InterleavedConnection connection; // RTP on the RTSP connection, null for UDP
+  byte[] buf; // receive buffer
+  DatagramPacket rcvdp; // reused for every packet
+  RTPview rtp_view; // view of the packet in buf
+  JitterBuffer jitter_buffer;
+  JpegDepacketizer depacketizer;
+  RTCPstats stats; // reception statistics for RTCP, may be null
+
+  ArrayBlockingQueue<Frame> output; // complete frames, to the next stage
+  ArrayBlockingQueue<Frame> free; // recycled frames
+
+  Thread thread;
+  volatile boolean running;
+  volatile boolean reset_pending; // restart the jitter buffer on the receive thread
+
+  // counters, written by the receive thread
+  volatile long frames;
+  volatile long stale_frames; // dropped because the next stage was behind
+
+  // --------------------------
+  // Constructor: frames are queued for the next stage up to capacity,
+  // pool_size frames are allocated for the whole pipeline
+  // --------------------------
+  public RTPreceiver(DatagramSocket socket, int clock_rate, int capacity, int pool_size) {
+    this.socket = socket;
+    buf = new byte[65536];
+    rcvdp = new DatagramPacket(buf, buf.length);
+    rtp_view = new RTPview();
+    jitter_buffer = new JitterBuffer(clock_rate);
+    depacketizer = new JpegDepacketizer();
+    output = new ArrayBlockingQueue<Frame>(capacity);
+    free = new ArrayBlockingQueue<Frame>(pool_size);
+    for (int i = 0; i < pool_size; i++)
+      free.add(new Frame());
+  }
+
+  // --------------------------
+  // Constructor of a receiver of the RTP packets of an interleaved
+  // connection, see above
+  // --------------------------
+  public RTPreceiver(InterleavedConnection connection, int clock_rate, int capacity, int pool_size) {
+    this((DatagramSocket) null, clock_rate, capacity, pool_size);
+    this.connection = connection;
+  }
+
+  // --------------------------
+  // set_stats: account for the received packets in stats, before start
+  // --------------------------
+  public void set_stats(RTCPstats stats) {
+    this.stats = stats;
+  }
+
+  // --------------------------
+  // start the receive thread
+  // --------------------------
+  public void start() throws SocketException {
+    if (socket != null)
+      socket.setSoTimeout(TICK);
+    running = true;
+    thread = new Thread(this, "RTP receiver");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MAX_PRIORITY);
+    thread.start();
+  }
+
+  // --------------------------
+  // run: receive loop
+  // --------------------------
+  public void run() {
+    while (running) {
+      boolean received = false;
+      try {
+        if (connection != null) {
+          received = connection.receive(rtp_view);
+        } else {
+          rcvdp.setLength(buf.length);
+          socket.receive(rcvdp);
+          received = rtp_view.wrap(rcvdp.getData(), rcvdp.getOffset(), rcvdp.getLength());
+        }
+      } catch (SocketTimeoutException ste) {
+        // no packet during this tick
+      } catch (IOException ioe) {
+        if (running)
+          System.out.println("RTPreceiver - Exception caught: " + ioe);
+        continue;
+      }
+
+      // a reset asked while blocked in receive applies to this packet already
+      if (reset_pending) {
+        reset_pending = false;
+        jitter_buffer.reset();
+        if (stats != null)
+          stats.resync();
+      }
+
+      if (received) {
+        long now = System.currentTimeMillis();
+        if (stats != null)
+          stats.update(rtp_view, now);
+        jitter_buffer.add(rtp_view, now);
+      }
+
+      // pass on the last frame whose playout time is reached
+      if (jitter_buffer.release(System.currentTimeMillis(), depacketizer))
+        emit();
+    }
+  }
+
+  // --------------------------
+  // emit: copy the frame of the depacketizer into a free frame and queue it,
+  // dropping the oldest queued frame if the next stage is behind
+  // --------------------------
+  void emit() {
+    Frame frame = free.poll();
+    if (frame == null) {
+      // every frame is in use: reuse the oldest one waiting in the queue
+      frame = output.poll();
+      if (frame == null)
+        return;
+      stale_frames++;
+    }
+
+    int length = depacketizer.getframe_length();
+    if (frame.data.length < length)
+      frame.data = new byte[length];
+    frame.length = depacketizer.getframe(frame.data);
+    frame.timestamp = depacketizer.timestamp;
+    frame.number = frames++;
+    frame.image = null;
+
+    while (!output.offer(frame)) {
+      Frame stale = output.poll();
+      if (stale != null) {
+        stale_frames++;
+        recycle(stale);
+      }
+    }
+  }
+
+  // --------------------------
+  // take: next complete frame, waits for it
+  // --------------------------
+  public Frame take() throws InterruptedException {
+    return (output.take());
+  }
+
+  // --------------------------
+  // poll: next complete frame, null if none came within timeout ms
+  // --------------------------
+  public Frame poll(long timeout) throws InterruptedException {
+    return (output.poll(timeout, TimeUnit.MILLISECONDS));
+  }
+
+  // --------------------------
+  // recycle: give a frame back once the pipeline is done with it
+  // --------------------------
+  public void recycle(Frame frame) {
+    frame.image = null;
+    free.offer(frame);
+  }
+
+  // --------------------------
+  // reset: restart the playout clock, e.g. before a frame out of the
+  // playout sequence (ADVANCE, BACK); done by the receive thread
+  // --------------------------
+  public void reset() {
+    reset_pending = true;
+  }
+
+  // --------------------------
+  // stop the receive thread
+  // --------------------------
+  public void stop() {
+    running = false;
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+  public long getframes() {
+    return (frames);
+  }
+
+  public long getstale_frames() {
+    return (stale_frames);
+  }
+
+  public String toString() {
+    return ("frames " + frames + ", stale " + stale_frames + ", lost frames " + depacketizer.dropped_frames
+        + ", invalid packets " + depacketizer.invalid_packets + ", " + jitter_buffer);
+  }
+}
@@ -0,0 +1,113 @@
+/* ------------------
+   RTPview
+   read-only flyweight view of an RTP packet in a receive buffer: the
+   header fields are decoded on demand from their offsets and the
+   payload is exposed as an offset and a length, so a single RTPview
+   can be reused for every packet without copying or allocating
+   ---------------------- */
+
+import java.nio.*;
+
+public class RTPview {
+
+  // size of the fixed RTP header
+  final static int HEADER_SIZE = 12;
+
+  byte[] packet; // buffer holding the packet
+  int offset; // offset of the packet in the buffer
+  int length; // size of the packet
+
+  // --------------------------
+  // Constructor: an empty view, see wrap
+  // --------------------------
+  public RTPview() {
+  }
+
+  // --------------------------
+  // wrap: make the view point at the packet of length bytes at offset in
+  // packet, returns false if it is too short to be an RTP packet
+  // --------------------------
+  public boolean wrap(byte[] packet, int offset, int length) {
+    this.packet = packet;
+    this.offset = offset;
+    this.length = length;
+    return (length >= HEADER_SIZE && getpayload_offset() <= offset + length - getpadding_length());
+  }
+
+  // --------------------------
+  // header fields
+  // --------------------------
+  public int getversion() {
+    return ((packet[offset] >> 6) & 3);
+  }
+
+  public int getcsrccount() {
+    return (packet[offset] & 15);
+  }
+
+  public int getmarker() {
+    return ((packet[offset + 1] >> 7) & 1);
+  }
+
+  public int getpayloadtype() {
+    return (packet[offset + 1] & 127);
+  }
+
+  public int getsequencenumber() {
+    return (((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF));
+  }
+
+  public int gettimestamp() {
+    return (get_int(offset + 4));
+  }
+
+  public int getssrc() {
+    return (get_int(offset + 8));
+  }
+
+  // --------------------------
+  // payload: after the CSRC list and the header extension, before the padding
+  // --------------------------
+  public int getpayload_offset() {
+    int pos = offset + HEADER_SIZE + 4 * getcsrccount();
+    if ((packet[offset] & 0x10) != 0 && pos + 4 <= offset + length) {
+      // header extension: 4-byte header then length 32-bit words
+      pos += 4 + 4 * (((packet[pos + 2] & 0xFF) << 8) | (packet[pos + 3] & 0xFF));
+    }
+    return (pos);
+  }
+
+  public int getpayload_length() {
+    return (offset + length - getpadding_length() - getpayload_offset());
+  }
+
+  public byte[] getbuffer() {
+    return (packet);
+  }
+
+  // --------------------------
+  // getpayload: set the position and limit of buffer (a wrap of the
+  // same array) to the payload and return it
+  // --------------------------
+  public ByteBuffer getpayload(ByteBuffer buffer) {
+    int start = getpayload_offset();
+    buffer.limit(start + getpayload_length()).position(start);
+    return (buffer);
+  }
+
+  public int getlength() {
+    return (length);
+  }
+
+  // size of the padding, given by the last byte when the P bit is set
+  int getpadding_length() {
+    if ((packet[offset] & 0x20) == 0 || length < HEADER_SIZE)
+      return (0);
+    return (packet[offset + length - 1] & 0xFF);
+  }
+
+  int get_int(int pos) {
+    return (((packet[pos] & 0xFF) << 24) | ((packet[pos + 1] & 0xFF) << 16) | ((packet[pos + 2] & 0xFF) << 8)
+        | (packet[pos + 3] & 0xFF));
+  }
+}
@@ -0,0 +1,198 @@
+/* ------------------
+   RTPwriter
+   sends RTP packets on a connected DatagramChannel without allocating:
+   the 12-byte header and the payload format header are encoded into a
+   pooled direct buffer and sent with the payload in one gathering write.
+   With a SendQueue the packets are encoded into the queue instead and
+   sent later in a batch; with an InterleavedQueue the payload can stay
+   in the video file
+   ---------------------- */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class RTPwriter {
+
+  // direct buffers for the headers: RTP header plus the largest payload
+  // format header (RFC 2435 JPEG, restart and quantization table headers)
+  static BufferPool HEADER_POOL = new BufferPool(256);
+
+  DatagramChannel channel; // channel connected to the receiver
+  ByteBuffer header; // RTP header and payload format header of the next packet
+  ByteBuffer[] packet; // header and payload, for the gathering write
+  SendQueue queue; // packets encoded for a batched send, null to write directly
+
+  // header fields that do not change from packet to packet
+  int PayloadType;
+  int Ssrc;
+  int SequenceNumber; // sequence number of the next packet
+
+  // counters
+  long packets;
+  long bytes;
+  long dropped; // packets the non-blocking channel did not take, its send buffer was full
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public RTPwriter(DatagramChannel channel, int PType, int FirstSequenceNumber, int Ssrc) {
+    this.channel = channel;
+    this.PayloadType = PType;
+    this.SequenceNumber = FirstSequenceNumber & 0xFFFF;
+    this.Ssrc = Ssrc;
+    header = HEADER_POOL.acquire();
+    packet = new ByteBuffer[2];
+    packet[0] = header;
+  }
+
+  // --------------------------
+  // Constructor of a writer queueing the packets in queue, see send
+  // --------------------------
+  public RTPwriter(DatagramChannel channel, int PType, int FirstSequenceNumber, int Ssrc, SendQueue queue) {
+    this(channel, PType, FirstSequenceNumber, Ssrc);
+    this.queue = queue;
+  }
+
+  // --------------------------
+  // send: send one RTP packet made of the header fields, the payload format
+  // header (may be null) and the length bytes of data at offset, returns
+  // the number of bytes sent, 0 if the packet was dropped (the send buffer
+  // of a non-blocking channel was full, counted). With a queue the packet is only queued, the
+  // caller has it flushed; a packet dropped by a full queue still uses a
+  // sequence number, so the receiver sees it as lost
+  // --------------------------
+  public int send(int TimeStamp, int Marker, ByteBuffer payload_header, ByteBuffer data, int offset, int length)
+      throws IOException {
+    if (queue != null)
+      return (enqueue(TimeStamp, Marker, payload_header, data, offset, length));
+
+    // encode the RTP header and the payload format header
+    header.clear();
+    encode_header(header, TimeStamp, Marker, payload_header);
+    header.flip();
+
+    // select the payload in data
+    data.limit(data.capacity());
+    data.position(offset);
+    data.limit(offset + length);
+    packet[1] = data;
+
+    int sent = (int) channel.write(packet);
+    packet[1] = null;
+    if (sent == 0)
+      dropped++;
+
+    SequenceNumber = (SequenceNumber + 1) & 0xFFFF;
+    packets++;
+    bytes += sent;
+    return (sent);
+  }
+
+  // --------------------------
+  // enqueue: encode the whole packet into the next buffer of the queue
+  // --------------------------
+  int enqueue(int TimeStamp, int Marker, ByteBuffer payload_header, ByteBuffer data, int offset, int length) {
+    ByteBuffer slot = queue.next();
+    int size = 0;
+    if (slot != null) {
+      int start = slot.position();
+      encode_header(slot, TimeStamp, Marker, payload_header);
+      data.limit(data.capacity());
+      data.position(offset);
+      data.limit(offset + length);
+      slot.put(data);
+      size = slot.position() - start;
+      slot.flip();
+      queue.commit();
+    }
+
+    SequenceNumber = (SequenceNumber + 1) & 0xFFFF;
+    packets++;
+    bytes += size;
+    return (size);
+  }
+
+  // encode the RTP header and the payload format header into buffer
+  void encode_header(ByteBuffer buffer, int TimeStamp, int Marker, ByteBuffer payload_header) {
+    buffer.put((byte) 0x80); // version 2, no padding, no extension, no CSRC
+    buffer.put((byte) ((Marker << 7) | (PayloadType & 127)));
+    buffer.putShort((short) SequenceNumber);
+    buffer.putInt(TimeStamp);
+    buffer.putInt(Ssrc);
+    if (payload_header != null) {
+      int start = payload_header.position();
+      buffer.put(payload_header);
+      payload_header.position(start);
+    }
+  }
+
+  // --------------------------
+  // send_packet: send a complete RTP packet built by someone else (e.g. a
+  // BroadcastGroup), after patching in our sequence number and SSRC;
+  // returns the number of bytes sent, 0 if the packet was dropped
+  // --------------------------
+  public int send_packet(ByteBuffer packet) throws IOException {
+    packet.putShort(2, (short) SequenceNumber);
+    packet.putInt(8, Ssrc);
+    packet.position(0);
+    int sent = channel.write(packet);
+    if (sent == 0)
+      dropped++;
+
+    SequenceNumber = (SequenceNumber + 1) & 0xFFFF;
+    packets++;
+    bytes += sent;
+    return (sent);
+  }
+
+  // --------------------------
+  // queue_packet: the same, the packet being queued like those of send
+  // --------------------------
+  public int queue_packet(ByteBuffer packet) {
+    ByteBuffer slot = queue.next();
+    int size = 0;
+    if (slot != null) {
+      packet.putShort(2, (short) SequenceNumber);
+      packet.putInt(8, Ssrc);
+      packet.position(0);
+      size = packet.remaining();
+      slot.put(packet);
+      slot.flip();
+      queue.commit();
+    }
+
+    SequenceNumber = (SequenceNumber + 1) & 0xFFFF;
+    packets++;
+    bytes += size;
+    return (size);
+  }
+
+  // --------------------------
+  // getsequencenumber: sequence number of the next packet
+  // --------------------------
+  public int getsequencenumber() {
+    return (SequenceNumber);
+  }
+
+  public int getssrc() {
+    return (Ssrc);
+  }
+
+  // --------------------------
+  // getdropped: packets written directly that the channel did not take
+  // --------------------------
+  public long getdropped() {
+    return (dropped);
+  }
+
+  // --------------------------
+  // close: give the header buffer back to the pool
+  // --------------------------
+  public void close() {
+    if (header != null) {
+      HEADER_POOL.release(header);
+      header = null;
+    }
+  }
+}
@@ -0,0 +1,496 @@
+/* ------------------
+   RTSPclient
+   one RTSP session with the server and its receive side, without any
+   GUI: the RTSP requests and the client state machine, the RTP socket
+   with the receive pipeline (RTPreceiver) and the RTCP receiver reports.
+   Used by the Swing Client and by the headless LoadGenerator; the RTP
+   port can be fixed or an ephemeral one, so that many clients can run
+   on the same host. With the interleaved transport there are no UDP
+   sockets: RTP and RTCP come on the RTSP connection.
+   The requests are pipelined: each one is sent at once with the next
+   CSeq and returns a CompletableFuture of its reply code, completed by
+   the response thread when the response with that CSeq comes back.
+   The blocking requests wait for their future
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RTSPclient {
+
+  // rtsp states
+  final static int INIT = 0;
+  final static int READY = 1;
+  final static int PLAYING = 2;
+
+  final static String CRLF = "\r\n";
+
+  static int RTP_CLOCK_RATE = 1000; // the server timestamps the frames in ms
+  static int PORT_ATTEMPTS = 32; // ephemeral ports tried for a free RTP/RTCP pair
+  static int INTERLEAVED_CHANNEL = 0; // RTP channel of the interleaved transport, RTCP on the next one
+
+  // RTSP
+  volatile int state = INIT; // RTSP state == INIT or READY or PLAYING, set by the responses
+  volatile int requested = INIT; // state once the requests sent are answered, what a new request is checked against
+  Socket RTSPsocket; // socket used to send/receive RTSP messages
+  BufferedReader RTSPBufferedReader;
+  BufferedWriter RTSPBufferedWriter;
+  String VideoFileName; // video file to request to the server
+  int RTSPSeqNb = 0; // Sequence number of RTSP messages within the session
+  volatile int RTSPid = 0; // ID of the RTSP session (given by the RTSP Server)
+  boolean verbose; // print the server responses
+  volatile String range; // npt Range of the last PLAY response, e.g. "12.000-"
+  volatile double scale = 1; // Scale of the last PLAY response
+  volatile String rendition; // Rendition of the last response, e.g. "1/3;auto", null before
+  LinkedHashMap<Integer, Request> pending; // requests waiting for their response, by CSeq, under its lock
+  Thread responses; // reads the responses, started by the first request
+
+  // RTP and RTCP
+  boolean interleaved; // on the RTSP connection (RTP/AVP/TCP), set before setup
+  InterleavedConnection connection; // reads the RTSP connection when interleaved
+  int RTP_RCV_PORT; // port where the RTP packets are received, 0 for an ephemeral one
+  InetAddress MulticastAddr; // multicast group to receive a broadcast on, null for unicast
+  DatagramSocket RTPsocket;
+  DatagramSocket RTCPsocket; // RTCP reports, on the port after RTP_RCV_PORT
+  RTCPstats stats;
+  RTPreceiver receiver; // receives the packets and reassembles the frames
+  RTCPreporter reporter; // sends the receiver reports to the server
+
+  // --------------------------
+  // Constructor: RTSP connection to the server, for VideoFileName; the
+  // RTP packets are received on RTP_RCV_PORT (0 for an ephemeral port),
+  // from MulticastAddr if not null
+  // --------------------------
+  public RTSPclient(InetAddress ServerIPAddr, int RTSP_server_port, String VideoFileName, int RTP_RCV_PORT,
+      InetAddress MulticastAddr) throws IOException {
+    this.VideoFileName = VideoFileName;
+    this.RTP_RCV_PORT = RTP_RCV_PORT;
+    this.MulticastAddr = MulticastAddr;
+
+    // Establish a TCP connection with the server to exchange RTSP messages
+    RTSPsocket = new Socket(ServerIPAddr, RTSP_server_port);
+    RTSPsocket.setTcpNoDelay(true);
+    RTSPBufferedReader = new BufferedReader(new InputStreamReader(RTSPsocket.getInputStream()));
+    RTSPBufferedWriter = new BufferedWriter(new OutputStreamWriter(RTSPsocket.getOutputStream()));
+    pending = new LinkedHashMap<Integer, Request>();
+  }
+
+  // ------------------------------------
+  // setup: open the RTP/RTCP sockets and the receive pipeline, queueing up
+  // to capacity frames for the next stage with pool_size frames in all,
+  // then SETUP; returns the reply code
+  // ------------------------------------
+  public int setup(int capacity, int pool_size) throws IOException {
+    return (await(setup_async(capacity, pool_size)));
+  }
+
+  public CompletableFuture<Integer> setup_async(int capacity, int pool_size) throws IOException {
+    if (requested != INIT || receiver != null)
+      return (CompletableFuture.completedFuture(0));
+    stats = new RTCPstats(RTP_CLOCK_RATE);
+    if (interleaved) {
+      // the receive thread reads the responses along with the packets
+      connection = new InterleavedConnection(RTSPsocket, INTERLEAVED_CHANNEL);
+      receiver = new RTPreceiver(connection, RTP_CLOCK_RATE, capacity, pool_size);
+      reporter = new RTCPreporter(connection, stats);
+    } else {
+      open_sockets();
+      receiver = new RTPreceiver(RTPsocket, RTP_CLOCK_RATE, capacity, pool_size);
+      reporter = new RTCPreporter(RTCPsocket, stats);
+    }
+    receiver.set_stats(stats);
+    receiver.start();
+    reporter.start();
+
+    return (request_async("SETUP", "", READY));
+  }
+
+  // ------------------------------------
+  // open_sockets: the RTP socket and the RTCP socket on the next port; an
+  // ephemeral RTP port is even, with a free odd port after it (RFC 3550)
+  // ------------------------------------
+  void open_sockets() throws IOException {
+    if (RTP_RCV_PORT != 0) {
+      if (MulticastAddr != null) {
+        MulticastSocket socket = new MulticastSocket(RTP_RCV_PORT);
+        socket.joinGroup(new InetSocketAddress(MulticastAddr, 0), null);
+        RTPsocket = socket;
+      } else {
+        RTPsocket = new DatagramSocket(RTP_RCV_PORT);
+      }
+      RTCPsocket = new DatagramSocket(RTP_RCV_PORT + 1);
+      return;
+    }
+
+    for (int attempt = 0; attempt < PORT_ATTEMPTS; attempt++) {
+      DatagramSocket socket = (MulticastAddr != null) ? new MulticastSocket(0) : new DatagramSocket(0);
+      int port = socket.getLocalPort();
+      if (port % 2 == 0 && port < 65535) {
+        try {
+          RTCPsocket = new DatagramSocket(port + 1);
+          if (MulticastAddr != null)
+            ((MulticastSocket) socket).joinGroup(new InetSocketAddress(MulticastAddr, 0), null);
+          RTPsocket = socket;
+          RTP_RCV_PORT = port;
+          return;
+        } catch (SocketException se) {
+          // the next port is taken, try another pair
+        }
+      }
+      socket.close();
+    }
+    throw new SocketException("No free RTP/RTCP port pair");
+  }
+
+  // ------------------------------------
+  // play, pause, advance, back, teardown: send the request, the state is
+  // updated by the response. The _async versions return at once with the
+  // future reply code (0 if the request is not valid in the state the
+  // requests already sent lead to, so SETUP then PLAY can be pipelined),
+  // the others wait for it
+  // ------------------------------------
+  public int play() throws IOException {
+    return (await(play_async()));
+  }
+
+  public CompletableFuture<Integer> play_async() {
+    if (requested != READY)
+      return (CompletableFuture.completedFuture(0));
+    // the timestamps resume where they paused: restart the playout clock
+    receiver.reset();
+    return (request_async("PLAY", "", PLAYING));
+  }
+
+  // ------------------------------------
+  // play from position seconds (-1 from where the play is) at scale
+  // times the normal speed, negative to rewind; also while playing, to
+  // seek or change the speed
+  // ------------------------------------
+  public int play(double position, double scale) throws IOException {
+    return (await(play_async(position, scale)));
+  }
+
+  public CompletableFuture<Integer> play_async(double position, double scale) {
+    if (requested != READY && requested != PLAYING)
+      return (CompletableFuture.completedFuture(0));
+    receiver.reset();
+    String headers = (position >= 0) ? String.format(Locale.ROOT, "Range: npt=%.3f-", position) + CRLF : "";
+    if (scale != 1)
+      headers += "Scale: " + scale + CRLF;
+    return (request_async("PLAY", headers, PLAYING));
+  }
+
+  // ------------------------------------
+  // set_rendition: receive rendition r of the ladder of the video from
+  // the next frame, 0 the full quality; -1 lets the server pick it from
+  // the receiver reports
+  // ------------------------------------
+  public int set_rendition(int r) throws IOException {
+    return (await(set_rendition_async(r)));
+  }
+
+  public CompletableFuture<Integer> set_rendition_async(int r) {
+    if (requested != READY && requested != PLAYING)
+      return (CompletableFuture.completedFuture(0));
+    return (request_async("SET_PARAMETER", "Rendition: " + ((r < 0) ? "auto" : String.valueOf(r)) + CRLF, -1));
+  }
+
+  // ------------------------------------
+  // set_prefetch: ask the server to read k frames ahead of this session,
+  // 0 for none, up to its maximum
+  // ------------------------------------
+  public int set_prefetch(int k) throws IOException {
+    return (await(set_prefetch_async(k)));
+  }
+
+  public CompletableFuture<Integer> set_prefetch_async(int k) {
+    if (requested != READY && requested != PLAYING)
+      return (CompletableFuture.completedFuture(0));
+    return (request_async("SET_PARAMETER", "Prefetch: " + k + CRLF, -1));
+  }
+
+  // ------------------------------------
+  // set_frame_period: ask the server to send a frame every period ms,
+  // faster or slower than the video, from the next frame
+  // ------------------------------------
+  public int set_frame_period(int period) throws IOException {
+    return (await(set_frame_period_async(period)));
+  }
+
+  public CompletableFuture<Integer> set_frame_period_async(int period) {
+    if (requested != READY && requested != PLAYING)
+      return (CompletableFuture.completedFuture(0));
+    return (request_async("SET_PARAMETER", "Frame-Period: " + period + CRLF, -1));
+  }
+
+  public int pause() throws IOException {
+    return (await(pause_async()));
+  }
+
+  public CompletableFuture<Integer> pause_async() {
+    if (requested != PLAYING)
+      return (CompletableFuture.completedFuture(0));
+    return (request_async("PAUSE", "", READY));
+  }
+
+  public int advance() throws IOException {
+    return (await(advance_async()));
+  }
+
+  public CompletableFuture<Integer> advance_async() {
+    return (step("ADVANCE"));
+  }
+
+  public int back() throws IOException {
+    return (await(back_async()));
+  }
+
+  public CompletableFuture<Integer> back_async() {
+    return (step("BACK"));
+  }
+
+  // the frame sent back is out of the playout sequence: restart the
+  // playout clock, the frame goes through the pipeline like the others
+  CompletableFuture<Integer> step(String request_type) {
+    if (requested != READY && requested != PLAYING)
+      return (CompletableFuture.completedFuture(0));
+    receiver.reset();
+    return (request_async(request_type, "", -1));
+  }
+
+  public int teardown() throws IOException {
+    return (await(teardown_async()));
+  }
+
+  public CompletableFuture<Integer> teardown_async() {
+    return (request_async("TEARDOWN", "", INIT));
+  }
+
+  // ------------------------------------
+  // close: stop the pipeline and release the sockets
+  // ------------------------------------
+  public void close() {
+    if (reporter != null)
+      reporter.stop();
+    if (receiver != null)
+      receiver.stop();
+    if (RTPsocket != null)
+      RTPsocket.close();
+    if (RTCPsocket != null)
+      RTCPsocket.close();
+    try {
+      RTSPsocket.close();
+    } catch (IOException ioe) {
+      // nothing to do, the server is gone
+    }
+  }
+
+  // ------------------------------------
+  // request_async: send the request with the next CSeq and the headers,
+  // without waiting for the responses to the previous ones; the future
+  // completes with the reply code, and a 200 moves the client to
+  // next_state (-1 stays)
+  // ------------------------------------
+  synchronized CompletableFuture<Integer> request_async(String request_type, String headers, int next_state) {
+    if (responses == null) {
+      // the responses are read on their own thread from the first request
+      responses = new Thread(new Runnable() {
+        public void run() {
+          read_responses();
+        }
+      }, "RTSP-responses");
+      responses.setDaemon(true);
+      responses.start();
+    }
+    Request request = new Request(++RTSPSeqNb, next_state);
+    synchronized (pending) {
+      pending.put(request.cseq, request);
+    }
+    try {
+      send_RTSP_request(request_type, headers, request.cseq);
+      if (next_state >= 0)
+        requested = next_state;
+    } catch (IOException ioe) {
+      synchronized (pending) {
+        pending.remove(request.cseq);
+      }
+      request.reply.completeExceptionally(ioe);
+    }
+    return (request.reply);
+  }
+
+  // wait for the reply code of a request
+  int await(CompletableFuture<Integer> reply) throws IOException {
+    try {
+      return (reply.get());
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the RTSP response");
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException)
+        throw (IOException) ee.getCause();
+      throw new IOException("RTSP request failed", ee.getCause());
+    }
+  }
+
+  // ------------------------------------
+  // read_responses: parse the server responses and complete the requests
+  // they answer, on the response thread. A response ends with a blank
+  // line, or with its Session header: the server sends it last
+  // ------------------------------------
+  void read_responses() {
+    IOException failure = new EOFException("RTSP connection closed by the server");
+    int reply_code = -1; // of the response being parsed, -1 between two
+    int cseq = -1;
+    try {
+      String line;
+      while ((line = readline()) != null) {
+        if (verbose)
+          System.out.println(line);
+
+        if (line.startsWith("RTSP/")) {
+          // parse status line and extract the reply_code
+          if (reply_code >= 0)
+            complete(cseq, reply_code);
+          StringTokenizer tokens = new StringTokenizer(line);
+          tokens.nextToken(); // skip over the RTSP version
+          reply_code = Integer.parseInt(tokens.nextToken());
+          cseq = -1;
+        } else if (reply_code < 0) {
+          continue; // between two responses
+        } else if (line.isEmpty()) {
+          complete(cseq, reply_code);
+          reply_code = -1;
+        } else {
+          int colon = line.indexOf(':');
+          if (colon < 0)
+            continue;
+          String name = line.substring(0, colon).trim();
+          String value = line.substring(colon + 1).trim();
+          if (name.equalsIgnoreCase("CSeq")) {
+            cseq = Integer.parseInt(value);
+          } else if (name.equalsIgnoreCase("Range")) {
+            range = value.startsWith("npt=") ? value.substring(4) : value;
+          } else if (name.equalsIgnoreCase("Scale")) {
+            scale = Double.parseDouble(value);
+          } else if (name.equalsIgnoreCase("Rendition")) {
+            rendition = value;
+          } else if (name.equalsIgnoreCase("Session")) {
+            // gets the Session Id, the response is complete
+            int end = value.indexOf(';');
+            RTSPid = Integer.parseInt((end < 0) ? value : value.substring(0, end));
+            complete(cseq, reply_code);
+            reply_code = -1;
+          }
+        }
+      }
+    } catch (IOException ioe) {
+      failure = ioe;
+    } catch (RuntimeException re) {
+      failure = new IOException("Invalid RTSP response", re);
+    }
+    if (reply_code >= 0)
+      complete(cseq, reply_code); // cut short, e.g. 503 when the server is full
+
+    // nothing more will be answered
+    ArrayList<Request> failed;
+    synchronized (pending) {
+      failed = new ArrayList<Request>(pending.values());
+      pending.clear();
+    }
+    requested = state;
+    for (Request request : failed)
+      request.reply.completeExceptionally(failure);
+  }
+
+  // complete the request answered by a response, the oldest one when the
+  // response has no CSeq or CSeq 0 (a server refusing the connection
+  // before reading the request)
+  void complete(int cseq, int reply_code) {
+    Request request = null;
+    synchronized (pending) {
+      if (cseq > 0)
+        request = pending.remove(cseq);
+      else if (!pending.isEmpty())
+        request = pending.remove(pending.keySet().iterator().next());
+    }
+    if (request == null)
+      return; // not ours, or already failed
+    if (reply_code == 200 && request.next_state >= 0)
+      state = request.next_state;
+    else if (request.next_state >= 0)
+      requested = state; // refused, back to the state the server confirmed
+    request.reply.complete(reply_code);
+  }
+
+  // next line of the response, from the receive thread when interleaved
+  private String readline() throws IOException {
+    return ((connection != null) ? connection.readline() : RTSPBufferedReader.readLine());
+  }
+
+  // ------------------------------------
+  // Send RTSP Request
+  // ------------------------------------
+  private void send_RTSP_request(String request_type, String headers, int cseq) throws IOException {
+    // the headers end with a blank line, as RFC 2326 asks
+    String request = request_type + " " + VideoFileName + " RTSP/1.0" + CRLF + "CSeq: " + cseq + CRLF + headers;
+    if (!request_type.equals("SETUP"))
+      request += "Session: " + RTSPid + CRLF;
+    else if (interleaved)
+      request += "Transport: RTP/AVP/TCP;interleaved=" + INTERLEAVED_CHANNEL + "-" + (INTERLEAVED_CHANNEL + 1) + CRLF;
+    else
+      request += "Transport: RTP/UDP; client_port= " + RTP_RCV_PORT + ((MulticastAddr != null) ? "; multicast" : "")
+          + CRLF;
+    request += CRLF;
+
+    // the reporter thread sends its RTCP packets on the same connection
+    if (connection != null) {
+      connection.send(request.getBytes(StandardCharsets.ISO_8859_1));
+      return;
+    }
+    RTSPBufferedWriter.write(request);
+    RTSPBufferedWriter.flush();
+  }
+
+  // ------------------------------------
+  // statistics
+  // ------------------------------------
+  public int getstate() {
+    return (state);
+  }
+
+  // state once the requests already sent are answered, what a new request
+  // is checked against; getstate is the one the server confirmed
+  public int getrequested() {
+    return (requested);
+  }
+
+  public RTCPstats getstats() {
+    return (stats);
+  }
+
+  public RTPreceiver getreceiver() {
+    return (receiver);
+  }
+
+  // ------------------------------------
+  // Request: a request waiting for its response
+  // ------------------------------------
+  static class Request {
+    int cseq;
+    int next_state; // state after a 200, -1 for none
+    CompletableFuture<Integer> reply = new CompletableFuture<Integer>();
+
+    Request(int cseq, int next_state) {
+      this.cseq = cseq;
+      this.next_state = next_state;
+    }
+  }
+
+  public String toString() {
+    return ("Received " + receiver + "\nRTCP " + reporter + ((connection != null) ? "\n" + connection : ""));
+  }
+}
@@ -0,0 +1,184 @@
+/* ------------------
+   RateController
+   congestion control of a session, driven by the RTCP receiver reports
+   of its client: when the reported loss or jitter is high the session
+   moves one level down the ladder, sending fewer frames (every 2nd,
+   3rd, ... frame; MJPEG frames are all key frames, so any of them can
+   be skipped). After a run of clean reports it probes one level back
+   up; a probe that fails right away makes the next probe wait longer.
+   With a rendition ladder the first levels down switch to the lower
+   renditions, at the full frame rate, before any frame is skipped
+   ---------------------- */
+
+public class RateController {
+
+  // frames sent 1 in SKIP[level]; level 0 is the full frame rate
+  final static int[] SKIP = { 1, 2, 3, 5, 10 };
+
+  // congestion: fraction lost in 1/256, jitter in ms
+  static int LOSS_HIGH = 13; // 5%
+  static int LOSS_LOW = 3; // 1%
+  static int JITTER_HIGH = 60;
+  static int JITTER_LOW = 20;
+
+  // the loss is measured over at least this many packets, over several
+  // reports if needed (few packets per report at low frame rates)
+  static int MIN_PACKETS = 20;
+
+  // probing: clean reports needed before going back up a level, doubled
+  // by every failed probe up to MAX_PROBE_WAIT
+  static int PROBE_WAIT = 4;
+  static int MAX_PROBE_WAIT = 32;
+
+  // reports missing for this many report intervals after some were
+  // received: the feedback itself is lost, back off as for congestion
+  static int FEEDBACK_TIMEOUT = 5;
+
+  int level; // current level: a rendition, then a level in SKIP
+  int steps; // levels that switch rendition rather than skip frames
+  int probe_wait; // clean reports needed before the next probe
+  int clean; // consecutive clean reports
+  boolean probing; // the last change was a probe up, not confirmed yet
+  long reports; // receiver reports handled so far
+  int highest_seq; // extended highest sequence number of the last report
+  int cumulative_lost; // of the last report
+  int window_expected; // packets expected in the loss window so far
+  int window_lost; // packets lost in the loss window so far
+  long last_change; // ms, when the level last changed
+
+  // counters
+  long decreases;
+  long increases;
+  long skipped_frames;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public RateController() {
+    probe_wait = PROBE_WAIT;
+  }
+
+  // --------------------------
+  // update: look at the last receiver report of rtcp at now (ms); returns
+  // true when the level changed
+  // --------------------------
+  public boolean update(RTCPsender rtcp, long now) {
+    long count = rtcp.getreports();
+    if (count == reports) {
+      // no new report: the feedback is lost if it stopped for too long
+      if (count > 0 && now - Math.max(rtcp.getlast_report(), last_change) > FEEDBACK_TIMEOUT
+          * RTCPsender.REPORT_INTERVAL)
+        return (decrease(now));
+      return (false);
+    }
+    if (reports > 0) {
+      window_expected += rtcp.gethighest_seq() - highest_seq;
+      window_lost += rtcp.getcumulative_lost() - cumulative_lost;
+    }
+    reports = count;
+    highest_seq = rtcp.gethighest_seq();
+    cumulative_lost = rtcp.getcumulative_lost();
+
+    double jitter = rtcp.getjitter();
+    if (jitter > JITTER_HIGH)
+      return (decrease(now));
+    int fraction_lost = 0;
+    if (window_expected >= MIN_PACKETS) {
+      fraction_lost = Math.max(0, window_lost) * 256 / window_expected;
+      window_expected = 0;
+      window_lost = 0;
+      if (fraction_lost > LOSS_HIGH)
+        return (decrease(now));
+    } else if (window_lost > 0) {
+      return (false); // some loss, not enough packets to tell how much yet
+    }
+
+    if (fraction_lost <= LOSS_LOW && jitter <= JITTER_LOW) {
+      clean++;
+      if (probing && clean >= 2) {
+        // the probe held: the next one can come sooner again
+        probing = false;
+        probe_wait = PROBE_WAIT;
+      }
+      if (level > 0 && clean >= probe_wait)
+        return (increase(now));
+    } else {
+      // in between: hold the level
+      clean = 0;
+    }
+    return (false);
+  }
+
+  // one level down, fewer frames
+  boolean decrease(long now) {
+    clean = 0;
+    window_expected = 0;
+    window_lost = 0;
+    last_change = now;
+    if (probing) {
+      // the level just probed does not hold: wait longer before the next probe
+      probing = false;
+      probe_wait = Math.min(probe_wait * 2, MAX_PROBE_WAIT);
+    }
+    if (level == steps + SKIP.length - 1)
+      return (false);
+    level++;
+    decreases++;
+    return (true);
+  }
+
+  // one level up, more frames
+  boolean increase(long now) {
+    clean = 0;
+    window_expected = 0;
+    window_lost = 0;
+    last_change = now;
+    probing = true;
+    level--;
+    increases++;
+    return (true);
+  }
+
+  // --------------------------
+  // send: whether frame nb imagenb is sent at the current level
+  // --------------------------
+  public boolean send(int imagenb) {
+    if (imagenb % getskip() == 0)
+      return (true);
+    skipped_frames++;
+    return (false);
+  }
+
+  // --------------------------
+  // set_renditions: the session has count renditions to step down
+  // before skipping frames, 1 when it has a single one or the client
+  // chose it
+  // --------------------------
+  public void set_renditions(int count) {
+    int skip_level = Math.max(0, level - steps);
+    steps = count - 1;
+    level = (skip_level > 0) ? steps + skip_level : Math.min(level, steps);
+  }
+
+  // --------------------------
+  // statistics
+  // --------------------------
+  public int getlevel() {
+    return (level);
+  }
+
+  public int getskip() {
+    return (SKIP[Math.max(0, level - steps)]);
+  }
+
+  // rendition the level asks for, 0 the full quality
+  public int getrendition() {
+    return (Math.min(level, steps));
+  }
+
+  public String toString() {
+    return ("level " + level + " (" + ((steps > 0) ? "rendition " + getrendition() + ", " : "") + "1 frame in "
+        + getskip() + "), decreases " + decreases + ", increases " + increases + ", skipped frames "
+        + skipped_frames);
+  }
+}
@@ -0,0 +1,186 @@
+/* ------------------
+   Renditions
+   rendition ladder of a video: lower quality copies of the MJPEG file,
+   generated offline by main and aligned frame for frame with it, so
+   that a session can switch to another rendition on any frame boundary
+   and a constrained client pulls a fraction of the bit rate, for the
+   same disk and CPU cost per frame on the server. Rendition 0 is the
+   file itself, rendition i the file movie-r<i>.Mjpeg next to it; the
+   ladder ends at the first one missing
+   usage: java Renditions [frame period ms] [video file] [scale:JPEG quality]...
+   e.g. java Renditions 100 movie.Mjpeg 0.5:0.8 0.25:0.7
+   ---------------------- */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+public class Renditions {
+
+  static String[] LADDER = { "0.5:0.8", "0.25:0.7" }; // default ladder: half and quarter size
+  static int MAX_RENDITIONS = 8; // renditions looked for next to a video, the full quality one included
+  static int BLOCK = 16; // sizes are multiples of the 4:2:0 MCU, as RFC 2435 needs multiples of 8
+
+  // ------------------------------------
+  // name: file name of rendition i of the video filename
+  // ------------------------------------
+  public static String name(String filename, int i) {
+    if (i == 0)
+      return (filename);
+    int dot = filename.lastIndexOf('.');
+    if (dot <= Math.max(filename.lastIndexOf('/'), filename.lastIndexOf(File.separatorChar)))
+      dot = filename.length();
+    return (filename.substring(0, dot) + "-r" + i + filename.substring(dot));
+  }
+
+  // ------------------------------------
+  // find: file names of the ladder of the video filename, rendition 0
+  // first. A rendition with another frame count than the video is not
+  // aligned with it: the ladder stops there. The counts come from the
+  // frame index sidecars, or without one from a scan of the length
+  // prefixes of the file
+  // ------------------------------------
+  public static String[] find(String filename) {
+    ArrayList<String> ladder = new ArrayList<String>();
+    ladder.add(filename);
+    int source = -1; // counted once there is a rendition
+    for (int i = 1; i < MAX_RENDITIONS; i++) {
+      String rendition = name(filename, i);
+      if (!new File(rendition).isFile())
+        break;
+      if (source < 0)
+        source = frames(filename);
+      int count = frames(rendition);
+      if (source < 0 || count != source) {
+        AsyncLog.log("Ignoring " + rendition + ": " + count + " frames, " + filename + " has " + source);
+        break;
+      }
+      ladder.add(rendition);
+    }
+    return (ladder.toArray(new String[ladder.size()]));
+  }
+
+  // frames of the video filename, through its sidecar if it has one; -1
+  // if it cannot be read
+  static int frames(String filename) {
+    try {
+      VideoStream video = new VideoStream(filename);
+      try {
+        return (video.getframes());
+      } finally {
+        video.close();
+      }
+    } catch (Exception ex) {
+      return (-1);
+    }
+  }
+
+  // ------------------------------------
+  // main: decode every frame of the video, and write it to each
+  // rendition scaled and encoded at its JPEG quality; the video and its
+  // renditions get their frame index
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    int frame_period = Integer.parseInt(argv[0]);
+    if (frame_period <= 0)
+      throw new IllegalArgumentException("Frame period of " + frame_period + " ms, it must be positive");
+    String filename = argv[1];
+    String[] ladder = (argv.length > 2) ? Arrays.copyOfRange(argv, 2, argv.length) : LADDER;
+    if (ladder.length >= MAX_RENDITIONS)
+      throw new IllegalArgumentException("At most " + (MAX_RENDITIONS - 1) + " renditions");
+
+    int count = ladder.length;
+    double[] scales = new double[count];
+    float[] qualities = new float[count];
+    OutputStream[] outputs = new OutputStream[count];
+    long[] positions = new long[count];
+    long[][] offsets = new long[count][1024];
+    int[][] lengths = new int[count][1024];
+    for (int r = 0; r < count; r++) {
+      String[] fields = ladder[r].split(":");
+      scales[r] = Double.parseDouble(fields[0]);
+      qualities[r] = Float.parseFloat(fields[1]);
+      outputs[r] = new BufferedOutputStream(new FileOutputStream(name(filename, r + 1)), 1 << 16);
+    }
+
+    long start = System.nanoTime();
+    VideoStream video = new VideoStream(filename);
+    byte[] frame = new byte[VideoStream.MAX_FRAME_SIZE];
+    int frames = 0;
+    try {
+      while (true) {
+        int length;
+        try {
+          length = video.getnextframe(frame);
+        } catch (EOFException eof) {
+          break; // end of the video, or a truncated last frame left out
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(frame, 0, length));
+        if (image == null)
+          throw new IOException("Frame " + (frames + 1) + " of " + filename + " is not a JPEG image");
+
+        for (int r = 0; r < count; r++) {
+          byte[] jpeg = encode(scale(image, scales[r]), qualities[r]);
+          if (jpeg.length > VideoStream.MAX_FRAME_SIZE)
+            throw new IOException("Frame " + (frames + 1) + " of rendition " + (r + 1) + " is " + jpeg.length
+                + " bytes, lower its quality");
+          if (frames == offsets[r].length) {
+            offsets[r] = Arrays.copyOf(offsets[r], 2 * frames);
+            lengths[r] = Arrays.copyOf(lengths[r], 2 * frames);
+          }
+          outputs[r].write(String.format("%05d", jpeg.length).getBytes("US-ASCII"));
+          outputs[r].write(jpeg);
+          offsets[r][frames] = positions[r] + VideoStream.LENGTH_PREFIX;
+          lengths[r][frames] = jpeg.length;
+          positions[r] += VideoStream.LENGTH_PREFIX + jpeg.length;
+        }
+        frames++;
+      }
+    } finally {
+      video.close();
+      for (int r = 0; r < count; r++)
+        outputs[r].close();
+    }
+
+    FrameIndex.write(filename, frame_period);
+    for (int r = 0; r < count; r++) {
+      File rendition = new File(name(filename, r + 1));
+      FrameIndex.write(rendition.getPath(), rendition.length(), rendition.lastModified(), frame_period, offsets[r],
+          lengths[r], frames);
+      System.out.println(rendition + ": " + frames + " frames, scale " + scales[r] + ", quality " + qualities[r]
+          + ", " + (rendition.length() >> 10) + " KB");
+    }
+    System.out.println(filename + ": " + frames + " frames, " + (new File(filename).length() >> 10) + " KB, "
+        + count + " renditions in " + (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+  // image scaled by scale, to a size multiple of BLOCK
+  static BufferedImage scale(BufferedImage image, double scale) {
+    int width = Math.max(BLOCK, (int) Math.round(image.getWidth() * scale / BLOCK) * BLOCK);
+    int height = Math.max(BLOCK, (int) Math.round(image.getHeight() * scale / BLOCK) * BLOCK);
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = scaled.createGraphics();
+    graphics.drawImage(image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+    graphics.dispose();
+    return (scaled);
+  }
+
+  // baseline JPEG of the image at quality (0 to 1)
+  static byte[] encode(BufferedImage image, float quality) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(quality);
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    try (ImageOutputStream output = ImageIO.createImageOutputStream(jpeg)) {
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return (jpeg.toByteArray());
+  }
+}
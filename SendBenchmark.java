@@ -0,0 +1,232 @@
+/* ------------------
+   SendBenchmark
+   cost of sending the frames of many sessions from one pacing thread,
+   with the three ways the server has sent them:
+     frame   one datagram per frame, built in a new RTPpacket and copied
+             into a new DatagramPacket (the original Server.actionPerformed)
+     direct  RFC 2435 packets written one by one by an RTPwriter
+     batch   RFC 2435 packets queued in SendQueues and written by the
+             BatchSender at the end of each pacing tick
+   The frames are read into memory first and the receivers never read
+   their sockets, so only the sending side is measured
+   usage: java SendBenchmark [frame|direct|batch|all] [sessions] [seconds] [video file]
+   ---------------------- */
+
+import java.lang.management.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class SendBenchmark {
+
+  static int WARMUP = 2; // seconds before measuring
+
+  ByteBuffer[] frames; // frames of the video, in memory
+  byte[][] frame_bytes; // same, as arrays for the frame mode
+  int sessions;
+  int seconds;
+
+  // counters, on the pacer thread
+  long frames_sent;
+  long packets_sent;
+  long bytes_sent;
+  long errors;
+
+  // ------------------------------------
+  // main
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    String mode = (argv.length > 0) ? argv[0] : "all";
+    SendBenchmark benchmark = new SendBenchmark();
+    benchmark.sessions = (argv.length > 1) ? Integer.parseInt(argv[1]) : 200;
+    benchmark.seconds = (argv.length > 2) ? Integer.parseInt(argv[2]) : 10;
+    benchmark.load((argv.length > 3) ? argv[3] : "movie.Mjpeg");
+
+    String[] modes = mode.equals("all") ? new String[] { "frame", "direct", "batch" } : new String[] { mode };
+    for (String m : modes)
+      benchmark.run(m);
+  }
+
+  // ------------------------------------
+  // load: read the frames of the video into memory
+  // ------------------------------------
+  void load(String filename) throws Exception {
+    VideoStream video = new VideoStream(filename);
+    ArrayList<ByteBuffer> list = new ArrayList<ByteBuffer>();
+    try {
+      for (int n = 1; n <= video.getframes(); n++) {
+        ByteBuffer frame = video.getframebuffer(n);
+        ByteBuffer copy = ByteBuffer.allocateDirect(frame.remaining());
+        copy.put(frame);
+        copy.flip();
+        list.add(copy);
+      }
+    } catch (Exception ex) {
+      // end of the video
+    }
+    video.close();
+    frames = list.toArray(new ByteBuffer[0]);
+    frame_bytes = new byte[frames.length][];
+    for (int i = 0; i < frames.length; i++) {
+      frame_bytes[i] = new byte[frames[i].remaining()];
+      frames[i].duplicate().get(frame_bytes[i]);
+    }
+    System.out.println(frames.length + " frames of " + filename + ", " + sessions + " sessions at "
+        + (1000 / StreamingServer.FRAME_PERIOD) + " fps, " + seconds + " s per mode");
+  }
+
+  // ------------------------------------
+  // run: stream to the sessions for the given time and print the cost
+  // ------------------------------------
+  void run(String mode) throws Exception {
+    Pacer pacer = new Pacer("Pacer-" + mode);
+    BatchSender sender = mode.equals("batch") ? new BatchSender(pacer) : null;
+    ArrayList<DatagramChannel> sinks = new ArrayList<DatagramChannel>();
+    ArrayList<AutoCloseable> sockets = new ArrayList<AutoCloseable>();
+    ArrayList<Pacer.Entry> entries = new ArrayList<Pacer.Entry>();
+    Random random = new Random();
+    long period = StreamingServer.FRAME_PERIOD * 1000000L;
+
+    for (int i = 0; i < sessions; i++) {
+      // receiver that never reads, the kernel drops what does not fit
+      DatagramChannel sink = DatagramChannel.open();
+      sink.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      sinks.add(sink);
+      Runnable task;
+      if (mode.equals("frame")) {
+        DatagramSocket socket = new DatagramSocket();
+        sockets.add(socket);
+        task = frame_task(socket, (InetSocketAddress) sink.getLocalAddress());
+      } else {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(sink.getLocalAddress());
+        sockets.add(channel);
+        RTPwriter writer;
+        SendQueue queue = null;
+        if (sender != null) {
+          queue = new SendQueue(channel, StreamingServer.SEND_QUEUE, StreamingServer.RTP_MTU);
+          writer = new RTPwriter(channel, StreamingServer.MJPEG_TYPE, 0, i, queue);
+        } else {
+          writer = new RTPwriter(channel, StreamingServer.MJPEG_TYPE, 0, i);
+        }
+        task = packet_task(writer, queue, sender);
+      }
+      // the sessions start at random times, as PLAY requests would
+      entries.add(pacer.schedule(task, period, (long) (random.nextDouble() * period)));
+    }
+
+    Thread.sleep(WARMUP * 1000L);
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long id = pacer.thread.getId();
+    pacer.reset();
+    long[] start;
+    synchronized (this) {
+      start = new long[] { frames_sent, packets_sent, bytes_sent, errors };
+    }
+    long cpu_start = threads.getThreadCpuTime(id);
+    long time_start = System.nanoTime();
+
+    Thread.sleep(seconds * 1000L);
+
+    long cpu = threads.getThreadCpuTime(id) - cpu_start;
+    double elapsed = (System.nanoTime() - time_start) / 1e9;
+    long frames_count;
+    long packets_count;
+    long bytes_count;
+    long errors_count;
+    synchronized (this) {
+      frames_count = frames_sent - start[0];
+      packets_count = packets_sent - start[1];
+      bytes_count = bytes_sent - start[2];
+      errors_count = errors - start[3];
+    }
+    String pacing = pacer.toString();
+
+    for (Pacer.Entry entry : entries)
+      entry.cancel();
+    pacer.stop();
+    pacer.thread.join();
+    for (AutoCloseable socket : sockets)
+      socket.close();
+    for (DatagramChannel sink : sinks)
+      sink.close();
+
+    System.out.println(mode + ": " + (int) (frames_count / elapsed) + " frames/s, " + (int) (packets_count / elapsed)
+        + " packets/s, " + String.format("%.1f", bytes_count / elapsed / 1e6) + " MB/s, pacer CPU "
+        + String.format("%.1f", cpu / 1e7 / elapsed) + "%, "
+        + ((packets_count == 0) ? 0 : cpu / 1000 / packets_count) + " us per packet, "
+        + ((frames_count == 0) ? 0 : cpu / 1000 / frames_count) + " us per frame, errors " + errors_count);
+    System.out.println("  " + pacing + ((sender == null) ? "" : "; " + sender));
+    frames_sent = 0;
+    packets_sent = 0;
+    bytes_sent = 0;
+    errors = 0;
+  }
+
+  // ------------------------------------
+  // frame_task: the original sender, one datagram per frame
+  // ------------------------------------
+  Runnable frame_task(final DatagramSocket socket, final InetSocketAddress destination) {
+    return (new Runnable() {
+      int imagenb;
+
+      public void run() {
+        imagenb++;
+        byte[] buf = frame_bytes[imagenb % frame_bytes.length];
+        RTPpacket rtp_packet = new RTPpacket(StreamingServer.MJPEG_TYPE, imagenb, imagenb
+            * StreamingServer.FRAME_PERIOD, buf, buf.length);
+        int packet_length = rtp_packet.getlength();
+        byte[] packet_bits = new byte[packet_length];
+        rtp_packet.getpacket(packet_bits);
+        try {
+          socket.send(new DatagramPacket(packet_bits, packet_length, destination));
+          count(1, packet_length);
+        } catch (Exception ex) {
+          // e.g. a frame larger than a datagram
+          synchronized (SendBenchmark.this) {
+            errors++;
+          }
+        }
+      }
+    });
+  }
+
+  // ------------------------------------
+  // packet_task: RFC 2435 packets, written directly or queued for the batch
+  // ------------------------------------
+  Runnable packet_task(final RTPwriter writer, final SendQueue queue, final BatchSender sender) {
+    return (new Runnable() {
+      JpegPacketizer packetizer = new JpegPacketizer(StreamingServer.RTP_MTU - RTPpacket.HEADER_SIZE);
+      int imagenb;
+
+      public void run() {
+        imagenb++;
+        ByteBuffer frame = frames[imagenb % frames.length];
+        frame.limit(frame.capacity()).position(0); // the writer moved them when the frame was last sent
+        try {
+          int packet_count = packetizer.packetize(frame);
+          int bytes = 0;
+          for (int i = 0; i < packet_count; i++) {
+            int marker = (i == packet_count - 1) ? 1 : 0;
+            bytes += writer.send(imagenb * StreamingServer.FRAME_PERIOD, marker, packetizer.getheader(i), frame,
+                packetizer.getfragment_index(i), packetizer.getfragment_length(i));
+          }
+          if (sender != null)
+            sender.add(queue);
+          count(packet_count, bytes);
+        } catch (Exception ex) {
+          synchronized (SendBenchmark.this) {
+            errors++;
+          }
+        }
+      }
+    });
+  }
+
+  synchronized void count(int packets, int bytes) {
+    frames_sent++;
+    packets_sent += packets;
+    bytes_sent += bytes;
+  }
+}
@@ -0,0 +1,120 @@
+/* ------------------
+   SendQueue
+   small per-session queue of RTP packets waiting to be sent on a
+   non-blocking DatagramChannel: the packets are encoded into a ring of
+   preallocated direct buffers and written out in batches by the
+   BatchSender of the pacer. A frame larger than the ring flushes it
+   early. When the socket buffer is full the rest waits for the channel
+   to be writable, and the packets that no longer fit in the ring are
+   dropped, which the client reports as loss over RTCP
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class SendQueue {
+
+  DatagramChannel channel; // connected, non-blocking
+  ByteBuffer[] slots; // ring of packets
+  int head; // next packet to write
+  int count; // packets queued
+  boolean pending; // in the pending list of the BatchSender
+  SelectionKey key; // registration with the BatchSender selector, once blocked
+
+  // counters
+  long sent;
+  long dropped; // ring full
+  long blocked; // socket buffer full
+
+  // --------------------------
+  // Constructor: capacity packets of at most packet_size bytes
+  // --------------------------
+  public SendQueue(DatagramChannel channel, int capacity, int packet_size) throws IOException {
+    this(capacity, packet_size);
+    this.channel = channel;
+    channel.configureBlocking(false);
+  }
+
+  // the ring alone, for a queue writing to another kind of channel
+  SendQueue(int capacity, int packet_size) {
+    slots = new ByteBuffer[capacity];
+    for (int i = 0; i < capacity; i++)
+      slots[i] = ByteBuffer.allocateDirect(packet_size);
+  }
+
+  // --------------------------
+  // next: a cleared buffer to encode the next packet into, null if the
+  // queue is full and cannot be flushed (the packet is dropped); see commit
+  // --------------------------
+  public synchronized ByteBuffer next() {
+    if (count == slots.length) {
+      try {
+        flush();
+      } catch (IOException ioe) {
+        clear();
+      }
+      if (count == slots.length) {
+        dropped++;
+        return (null);
+      }
+    }
+    ByteBuffer slot = slots[(head + count) % slots.length];
+    slot.clear();
+    return (slot);
+  }
+
+  // --------------------------
+  // commit: queue the packet encoded (and flipped) in the buffer of next
+  // --------------------------
+  public synchronized void commit() {
+    count++;
+  }
+
+  // --------------------------
+  // flush: write the queued packets until the socket buffer is full,
+  // returns true when the queue is empty
+  // --------------------------
+  public synchronized boolean flush() throws IOException {
+    while (count > 0) {
+      ByteBuffer packet = slots[head];
+      try {
+        if (channel.write(packet) == 0) {
+          blocked++;
+          return (false);
+        }
+        sent++;
+      } catch (PortUnreachableException pue) {
+        // ICMP error of an earlier packet, the client is not listening yet
+        dropped++;
+      }
+      head = (head + 1) % slots.length;
+      count--;
+    }
+    return (true);
+  }
+
+  // --------------------------
+  // register: wait on selector for the channel to be writable again
+  // --------------------------
+  public SelectionKey register(Selector selector) throws IOException {
+    return (channel.register(selector, SelectionKey.OP_WRITE, this));
+  }
+
+  // --------------------------
+  // clear: drop the queued packets
+  // --------------------------
+  public synchronized void clear() {
+    dropped += count;
+    count = 0;
+  }
+
+  public synchronized int getcount() {
+    return (count);
+  }
+
+  public synchronized String toString() {
+    return ("sent " + sent + ", dropped " + dropped + ", blocked " + blocked);
+  }
+}
@@ -0,0 +1,851 @@
+/* ------------------
+   ServerSession
+   one RTSP session of the Server: RTSP state machine, video stream,
+   RTP socket and frame pacing of a single client. The RTP and RTCP
+   packets go to the client ports over UDP, or on the RTSP connection
+   for an interleaved transport (RTP/AVP/TCP)
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+public class ServerSession implements Runnable {
+
+  // RTP variables:
+  // ----------------
+  DatagramChannel RTPchannel; // channel connected to the client RTP port
+  JpegPacketizer packetizer; // splits the frames into MTU-sized RTP payloads
+  RTPwriter writer; // encodes the RTP packets without allocating
+  SendQueue queue; // packets of the frame, sent in a batch by sender
+  BatchSender sender; // batched sends of the pacer
+  RTCPsender rtcp; // sender reports to the client RTCP port, and its receiver reports
+  Pacer.Entry reporting; // periodic RTCP task on pacer
+  RateController rate; // thins the frames sent when the client reports congestion
+
+  InetAddress ClientIPAddr; // Client IP address
+  int RTP_dest_port = 0; // destination port for RTP packets (given by the RTSP Client)
+  int interleaved_channel = -1; // RTP channel on the RTSP connection, RTCP on the next one; -1 for UDP
+  InterleavedQueue interleaved; // packets and responses on the RTSP connection, null for UDP
+  byte[] interleaved_packet; // last packet the client sent on the RTSP connection
+
+  // Video variables:
+  // ----------------
+  int imagenb = 0; // image nb of the image currently transmitted
+  int ticks = 0; // frame periods played, the RTP timestamps follow it whatever the seeks and scale
+  int scale = 1; // frames advanced per frame period, negative to rewind (trick play)
+  int play_end; // last frame to play, in play order (end of the Range)
+  int frames; // frames in the video, the same in all its renditions
+  FrameIndex index; // timestamps of the frames of the video, null without a sidecar
+  int video_period; // ms between two frames of the video, for the RTP timestamps
+  VideoStream video; // VideoStream object used to access video frames, of the current rendition
+  String[] renditions; // file names of the rendition ladder of the video, full quality first
+  VideoStream[] rendition_videos; // their VideoStreams, all opened at SETUP
+  int rendition; // rendition sent, index in renditions
+  boolean auto_rendition = true; // the rate controller picks the rendition, not the client
+  FramePrefetcher.Ring prefetch; // next frames of video read ahead, null reads them on the pacer
+  int prefetch_depth; // frames read ahead, 0 for none
+  boolean mapped; // memory-map the video file and send frames without copying them
+  BroadcastGroup broadcast; // live group sending the frames instead of video, null if none
+  boolean multicast; // the client receives the broadcast on the multicast group
+
+  Pacer pacer; // pacing thread sending the frames of this session
+  Pacer.Entry pacing; // periodic send task on pacer, null when not playing
+  int frame_period; // pacing period of this session, in ms
+
+  // RTSP variables
+  // ----------------
+  // rtsp states
+  final static int INIT = 0;
+  final static int READY = 1;
+  final static int PLAYING = 2;
+  // rtsp message types
+  final static int SETUP = 3;
+  final static int PLAY = 4;
+  final static int PAUSE = 5;
+  final static int TEARDOWN = 6;
+  final static int ADVANCE = 7; // Custom command for advancing one frame
+  final static int BACK = 8; // Custom command for going back one frame
+  final static int SET_PARAMETER = 9; // Rendition, Prefetch or Frame-Period change without a PLAY
+
+  int state; // RTSP Server state == INIT or READY or PLAY
+  Socket RTSPsocket; // socket used to send/receive RTSP messages
+  InterleavedQueue.Input RTSPinput; // reads the requests once the connection is non-blocking
+  // input and output stream filters
+  BufferedReader RTSPBufferedReader;
+  BufferedWriter RTSPBufferedWriter;
+  String VideoFileName; // video file requested from the client
+  int RTSP_ID; // ID of the RTSP session
+  int RTSPSeqNb = 0; // Sequence number of RTSP messages within the session
+  double range_start; // Range of the last request, npt seconds, -1 if none or "now"
+  double range_end; // -1 if open-ended
+  double request_scale; // Scale of the last request, 0 if none
+  int request_rendition; // Rendition of the last request, -1 for auto, -2 if none
+  int request_prefetch; // Prefetch of the last request, frames read ahead, -1 if none
+  int request_frame_period; // Frame-Period of the last request, pacing in ms, 0 if none
+  boolean closed = false; // set once the session has been torn down
+
+  StreamingServer server; // server owning this session, used for status updates
+
+  final static String CRLF = "\r\n";
+  final static int MAX_LINE = 8192; // longest header line read ahead to find the end of a legacy request
+
+  // frames skipped because they cannot be packetized, logged 1 in 100
+  static AsyncLog.Sampler skip_log = new AsyncLog.Sampler(100);
+
+  // --------------------------------
+  // Constructor
+  // --------------------------------
+  public ServerSession(StreamingServer server, Socket RTSPsocket, int RTSP_ID, boolean mapped, Pacer pacer,
+      BatchSender sender) {
+    this.server = server;
+    this.mapped = mapped;
+    this.RTSPsocket = RTSPsocket;
+    this.RTSP_ID = RTSP_ID;
+
+    // frames are sent by the pacer, at the frame rate of the video by default
+    this.pacer = pacer;
+    this.sender = sender;
+    frame_period = video_period = StreamingServer.FRAME_PERIOD;
+    prefetch_depth = StreamingServer.PREFETCH;
+    rate = new RateController();
+
+    // init the RFC 2435 packetizer
+    packetizer = new JpegPacketizer(StreamingServer.RTP_MTU - RTPpacket.HEADER_SIZE);
+
+    // Get Client IP address
+    ClientIPAddr = RTSPsocket.getInetAddress();
+
+    // Initiate RTSPstate
+    state = INIT;
+  }
+
+  // ------------------------------------
+  // run: handle the RTSP requests of this session until TEARDOWN
+  // ------------------------------------
+  public void run() {
+    try {
+      // Set input and output stream filters:
+      // (one char per byte, the client may interleave binary RTCP packets)
+      InputStream input = RTSPsocket.getInputStream();
+      if (RTSPsocket.getChannel() != null)
+        input = RTSPinput = new InterleavedQueue.Input(RTSPsocket.getChannel());
+      RTSPBufferedReader = new BufferedReader(new InputStreamReader(input, StandardCharsets.ISO_8859_1));
+      RTSPBufferedWriter = new BufferedWriter(new OutputStreamWriter(RTSPsocket.getOutputStream()));
+
+      // Wait for the SETUP message from the client
+      int request_type;
+      while (!closed && state == INIT) {
+        request_type = parse_RTSP_request(); // blocking
+
+        if (request_type == SETUP) {
+          // update RTSP state
+          state = READY;
+          AsyncLog.log("Session " + RTSP_ID + " - New RTSP state: READY");
+
+          // Send response
+          send_RTSP_response();
+
+          // init the VideoStream object, or join the broadcast of the file
+          if (VideoFileName.startsWith(BroadcastGroup.PREFIX)) {
+            broadcast = server.join_broadcast(VideoFileName.substring(BroadcastGroup.PREFIX.length()));
+            frames = broadcast.getframes();
+          } else {
+            open_video();
+          }
+
+          // RTP sequence numbers and SSRC start at random
+          Random random = new Random();
+          if (interleaved_channel >= 0) {
+            // RTP and RTCP on the RTSP connection, from now on non-blocking;
+            // larger packets, TCP segments them
+            if (RTSPsocket.getChannel() == null)
+              throw new IOException("No channel for an interleaved transport");
+            queue = interleaved = new InterleavedQueue(RTSPsocket.getChannel(), interleaved_channel,
+                StreamingServer.SEND_QUEUE, InterleavedQueue.PREFIX + StreamingServer.INTERLEAVED_MTU);
+            writer = new RTPwriter(null, StreamingServer.MJPEG_TYPE, random.nextInt(0x10000), random.nextInt(),
+                queue);
+            rtcp = new RTCPsender(interleaved, interleaved_channel + 1, writer, StreamingServer.RTP_CLOCK_RATE);
+            packetizer = new JpegPacketizer(StreamingServer.INTERLEAVED_MTU - RTPpacket.HEADER_SIZE);
+          } else {
+            // init RTP socket
+            RTPchannel = DatagramChannel.open();
+            RTPchannel.connect(new InetSocketAddress(ClientIPAddr, RTP_dest_port));
+            queue = new SendQueue(RTPchannel, StreamingServer.SEND_QUEUE, StreamingServer.RTP_MTU);
+            writer = new RTPwriter(RTPchannel, StreamingServer.MJPEG_TYPE, random.nextInt(0x10000),
+                random.nextInt(), queue);
+
+            // RTCP on the next port of the client
+            rtcp = new RTCPsender(server.rtcp, new InetSocketAddress(ClientIPAddr, RTP_dest_port + 1), writer,
+                StreamingServer.RTP_CLOCK_RATE);
+          }
+          // reports sent by the pacer
+          reporting = pacer.schedule(new Runnable() {
+            public void run() {
+              rtcp_report();
+            }
+          }, RTCPsender.REPORT_INTERVAL * 1000000L, RTCPsender.REPORT_INTERVAL * 1000000L);
+        } else if (request_type == TEARDOWN) {
+          send_RTSP_response();
+          close();
+        }
+      }
+
+      // loop to handle RTSP requests
+      while (!closed) {
+        // parse the request
+        request_type = parse_RTSP_request(); // blocking
+
+        if ((request_type == PLAY) && (state == READY || state == PLAYING)) {
+          // seek or change speed if asked, also while playing; send back
+          // response with where and how fast the play goes
+          String headers = (broadcast != null) ? "" : apply_rendition() + apply_prefetch() + apply_frame_period()
+              + play_range();
+          send_RTSP_response(headers);
+          // start sending frames
+          start_pacing();
+          // update state
+          state = PLAYING;
+          AsyncLog.log("Session " + RTSP_ID + " - New RTSP state: PLAYING");
+        } else if ((request_type == PAUSE) && (state == PLAYING)) {
+          // send back response
+          send_RTSP_response();
+          // stop sending frames
+          stop_pacing();
+          // update state
+          state = READY;
+          AsyncLog.log("Session " + RTSP_ID + " - New RTSP state: READY");
+        } else if (request_type == TEARDOWN) {
+          // send back response
+          send_RTSP_response();
+          close();
+        } else if (request_type == SET_PARAMETER && (state == READY || state == PLAYING)) {
+          // switch rendition, read-ahead depth or pacing, from the next frame sent
+          send_RTSP_response(
+              (broadcast != null) ? "" : apply_rendition() + apply_prefetch() + apply_frame_period());
+        } else if (request_type == ADVANCE && (state == READY || state == PLAYING)) {
+          // First, send response to client
+          send_RTSP_response();
+
+          // Advance to next frame if possible
+          if (imagenb < frames) {
+            step_frame(imagenb + 1);
+          } else {
+            AsyncLog.log("Session " + RTSP_ID + " - Cannot advance: End of video reached");
+          }
+        } else if (request_type == BACK && (state == READY || state == PLAYING)) {
+          // First send response to client
+          send_RTSP_response();
+
+          // Go back to previous frame if possible
+          if (imagenb > 1) {
+            step_frame(imagenb - 1);
+          } else {
+            AsyncLog.log("Session " + RTSP_ID + " - Cannot go back: Already at first frame");
+          }
+        }
+      }
+    } catch (Exception ex) {
+      AsyncLog.log("Session " + RTSP_ID + " - Exception caught: " + ex);
+    } finally {
+      close();
+    }
+  }
+
+  // ------------------------------------
+  // step_frame: send a single frame out of band for ADVANCE/BACK
+  // ------------------------------------
+  private synchronized void step_frame(int target) {
+    if (broadcast != null) {
+      AsyncLog.log("Session " + RTSP_ID + " - Cannot seek in a live broadcast");
+      return;
+    }
+    // the pacer does not send while this (synchronized) step is in progress
+    try {
+      // seek straight to the frame through the VideoStream index, then
+      // read ahead from there
+      imagenb = target;
+      ticks++;
+      synchronized (video) {
+        send_frame(video.getframebuffer(target));
+      }
+      if (prefetch != null)
+        prefetch.restart(target + scale);
+    } catch (Exception ex) {
+      AsyncLog.log("Session " + RTSP_ID + " - Exception caught when seeking: " + ex);
+    }
+  }
+
+  // ------------------------------------
+  // pacing: send the frames at frame_period on the pacer thread
+  // ------------------------------------
+  synchronized void start_pacing() throws IOException {
+    if (broadcast != null) {
+      broadcast.subscribe(this, multicast);
+      return;
+    }
+    if (pacing == null)
+      pacing = pacer.schedule(new Runnable() {
+        public void run() {
+          send_next_frame();
+        }
+      }, frame_period * 1000000L, 0);
+  }
+
+  synchronized void stop_pacing() {
+    if (broadcast != null)
+      broadcast.unsubscribe(this, multicast);
+    if (pacing != null) {
+      pacing.cancel();
+      pacing = null;
+    }
+  }
+
+  // ------------------------------------
+  // set_frame_period: change the pacing period of this session, in ms
+  // ------------------------------------
+  public synchronized void set_frame_period(int period) {
+    frame_period = period;
+    if (pacing != null)
+      pacing.set_period(period * 1000000L);
+  }
+
+  // ------------------------------------
+  // set_prefetch: change the number of frames read ahead for this
+  // session, 0 reads each frame on the pacer when it is due
+  // ------------------------------------
+  public synchronized void set_prefetch(int depth) {
+    prefetch_depth = depth;
+    if (prefetch != null) {
+      prefetch.close();
+      prefetch = null;
+    }
+    if (video != null && !closed && depth > 0)
+      prefetch = server.prefetcher.open(video, depth, imagenb + scale, scale, frames, false);
+  }
+
+  // ------------------------------------
+  // play_range: apply the Range and Scale of a PLAY request: seek to the
+  // frame at the start time, through the VideoStream index, and play
+  // scale frames per frame period. Only those frames are read and sent,
+  // so fast-forward and rewind keep the bit rate of normal play. Without
+  // a Range the play resumes where it is, without a Scale at normal speed;
+  // a Range with only an end applies that end. Returns the Range and
+  // Scale headers of the response
+  // ------------------------------------
+  synchronized String play_range() {
+    int new_scale = 1;
+    if (request_scale != 0) {
+      new_scale = (int) Math.round(request_scale);
+      if (new_scale == 0)
+        new_scale = (request_scale > 0) ? 1 : -1; // slow motion is not supported, normal speed
+      new_scale = Math.max(-StreamingServer.MAX_SCALE, Math.min(StreamingServer.MAX_SCALE, new_scale));
+    }
+
+    if (range_start >= 0 || new_scale != scale) {
+      int start = (range_start >= 0) ? frame_at(range_start) : frame_in_video(imagenb + new_scale);
+      int end = (range_end >= 0) ? frame_at(range_end) : ((new_scale > 0) ? frames : 1);
+      scale = new_scale;
+      play_end = end;
+      imagenb = start - scale; // the next frame sent is start
+      if (prefetch != null)
+        prefetch.restart(start, scale);
+    } else if (range_end >= 0) {
+      // only a new end (npt=-30, npt=now-30): the play goes on from where it is
+      play_end = frame_at(range_end);
+    }
+
+    int next = frame_in_video(imagenb + scale);
+    return ("Range: npt=" + npt(next) + "-" + ((range_end >= 0) ? npt(play_end) : "") + CRLF + "Scale: " + scale
+        + CRLF);
+  }
+
+  // frame at npt time seconds, from the timestamps of the frame index,
+  // and back; a video without one has a frame every video period
+  int frame_at(double seconds) {
+    long ms = (long) (seconds * 1000);
+    if (index != null)
+      return (frame_in_video(index.getframe_at(ms)));
+    return (frame_in_video((int) Math.min(frames, ms / video_period + 1)));
+  }
+
+  String npt(int frame) {
+    long ms = (index != null && frames > 0) ? index.gettimestamp(frame) : (frame - 1) * (long) video_period;
+    return (String.format(Locale.ROOT, "%.3f", ms / 1000.0));
+  }
+
+  int frame_in_video(int frame) {
+    return (Math.max(1, Math.min(frames, frame)));
+  }
+
+  // open the video file of the session and start reading it ahead; its
+  // other renditions are opened too, here on the RTSP thread, so that a
+  // switch on the pacer does no file I/O. The ladder ends at a rendition
+  // that cannot be opened
+  synchronized void open_video() throws Exception {
+    renditions = Renditions.find(VideoFileName);
+    rendition_videos = new VideoStream[renditions.length];
+    video = rendition_videos[0] = new VideoStream(VideoFileName, mapped, server.cache);
+    for (int r = 1; r < renditions.length; r++) {
+      try {
+        rendition_videos[r] = new VideoStream(renditions[r], mapped, server.cache);
+      } catch (Exception ex) {
+        AsyncLog.log("Session " + RTSP_ID + " - Cannot open " + renditions[r] + ": " + ex);
+        renditions = Arrays.copyOf(renditions, r);
+        rendition_videos = Arrays.copyOf(rendition_videos, r);
+        break;
+      }
+    }
+    frames = play_end = video.getframes();
+    index = video.getindex();
+    // played at the rate of its frame index
+    frame_period = video_period = video.getframe_period(StreamingServer.FRAME_PERIOD);
+    rate.set_renditions(renditions.length);
+    set_prefetch(prefetch_depth);
+  }
+
+  // ------------------------------------
+  // apply_rendition: apply the Rendition of a PLAY or SET_PARAMETER
+  // request, a rendition number or auto to let the rate controller step
+  // down the ladder before it skips frames. Returns the Rendition header
+  // of the response: rendition/renditions, ;auto if automatic
+  // ------------------------------------
+  synchronized String apply_rendition() {
+    if (request_rendition == -1) {
+      auto_rendition = true;
+      rate.set_renditions(renditions.length);
+      switch_rendition(rate.getrendition());
+    } else if (request_rendition >= 0) {
+      auto_rendition = false;
+      rate.set_renditions(1);
+      switch_rendition(Math.min(request_rendition, renditions.length - 1));
+    }
+    return ("Rendition: " + rendition + "/" + renditions.length + (auto_rendition ? ";auto" : "") + CRLF);
+  }
+
+  // ------------------------------------
+  // apply_prefetch: apply the Prefetch of a PLAY or SET_PARAMETER request,
+  // the number of frames read ahead for this session, up to MAX_PREFETCH.
+  // Returns the Prefetch header of the response, empty if none was asked
+  // ------------------------------------
+  synchronized String apply_prefetch() {
+    if (request_prefetch < 0)
+      return ("");
+    if (request_prefetch != prefetch_depth)
+      set_prefetch(request_prefetch);
+    return ("Prefetch: " + prefetch_depth + CRLF);
+  }
+
+  // ------------------------------------
+  // apply_frame_period: apply the Frame-Period of a PLAY or SET_PARAMETER
+  // request, the pacing period of this session in ms, which otherwise
+  // follows the frame index of the video. RTP timestamps keep the media
+  // period, so the client plays faster or slower. Returns the
+  // Frame-Period header of the response, empty if none was asked
+  // ------------------------------------
+  synchronized String apply_frame_period() {
+    if (request_frame_period <= 0)
+      return ("");
+    set_frame_period(Math.max(request_frame_period, StreamingServer.MIN_FRAME_PERIOD));
+    return ("Frame-Period: " + frame_period + CRLF);
+  }
+
+  // ------------------------------------
+  // switch_rendition: send rendition r from the next frame on; the
+  // renditions are aligned frame for frame, so the play goes on at the
+  // same frame number, and the read-ahead restarts in the new file, which
+  // was opened at SETUP
+  // ------------------------------------
+  synchronized void switch_rendition(int r) {
+    if (r == rendition || closed)
+      return;
+    video = rendition_videos[r];
+    rendition = r;
+    set_prefetch(prefetch_depth);
+    AsyncLog.log("Session " + RTSP_ID + " - Sending rendition " + r + " (" + renditions[r] + ")");
+  }
+
+  // ------------------------------------
+  // rtcp_report: send a sender report and adapt the frame rate to the
+  // last receiver report, on the pacer thread; synchronized so the writer
+  // counters are consistent
+  // ------------------------------------
+  synchronized void rtcp_report() {
+    if (closed)
+      return;
+    try {
+      rtcp.send_report((broadcast != null) ? broadcast.gettimestamp() : ticks * video_period);
+      if (interleaved != null)
+        sender.add(interleaved);
+    } catch (IOException ioe) {
+      AsyncLog.log("Session " + RTSP_ID + " - RTCP exception caught: " + ioe);
+    }
+    if (rate.update(rtcp, System.currentTimeMillis())) {
+      if (auto_rendition && broadcast == null)
+        switch_rendition(rate.getrendition());
+      AsyncLog.log("Session " + RTSP_ID + " - Sending rendition " + rendition + ", 1 frame in " + rate.getskip()
+          + " (" + rtcp + ")");
+    }
+  }
+
+  // ------------------------
+  // Handler for the pacer
+  // ------------------------
+  synchronized void send_next_frame() {
+
+    // if the next image is not past the end of the range (of the video)
+    int next = imagenb + scale;
+    if ((scale > 0) ? next <= play_end : next >= play_end) {
+      // update current imagenb, scale frames further in trick play
+      imagenb = next;
+      ticks++;
+
+      // the frames thinned out by the rate controller are not sent (nor
+      // read, without read-ahead)
+      if (!rate.send(ticks))
+        return;
+
+      try {
+        if (prefetch != null) {
+          // the frame read ahead; one still being read is late, skip it
+          ByteBuffer frame = prefetch.take(imagenb);
+          if (frame == null)
+            return;
+          try {
+            send_frame(frame);
+          } finally {
+            prefetch.release();
+          }
+        } else {
+          // get next frame to send from the video
+          synchronized (video) {
+            send_frame(video.getframebuffer(imagenb));
+          }
+        }
+      } catch (Exception ex) {
+        AsyncLog.log("Session " + RTSP_ID + " - Exception caught: " + ex);
+        close();
+      }
+    } else {
+      // if we have reached the end of the video file, stop sending
+      stop_pacing();
+    }
+  }
+
+  // ------------------------
+  // send_broadcast: send the packets the broadcast group built for its
+  // current frame, with our sequence numbers and SSRC; on the group's pacer
+  // ------------------------
+  synchronized void send_broadcast(BroadcastGroup group) {
+    if (closed || !rate.send((int) group.getplayed()))
+      return;
+    // queued like our own frames: a full socket buffer is waited for by the
+    // batch sender, and what overflows the queue is counted dropped
+    for (int i = 0; i < group.getpacket_count(); i++)
+      writer.queue_packet(group.getpacket(i));
+    sender.add(queue);
+    server.frame_sent(this);
+  }
+
+  // ------------------------
+  // send_frame: split the frame into RFC 2435 fragments and queue them for
+  // the client, they are sent with the packets of the other sessions due
+  // at the same tick; nothing is allocated per frame. The fragments are
+  // copied into the queue, frame can be reused once this returns
+  // ------------------------
+  private void send_frame(ByteBuffer frame) throws IOException {
+    int packet_count;
+    try {
+      packet_count = packetizer.packetize(frame);
+    } catch (IOException ioe) {
+      // the frame cannot be sent as RFC 2435, skip it
+      if (skip_log.next())
+        AsyncLog.log("Session " + RTSP_ID + " - Skipping frame #" + imagenb + ": " + ioe.getMessage());
+      return;
+    }
+
+    for (int i = 0; i < packet_count; i++) {
+      // the marker bit is set on the last packet of the frame
+      int marker = (i == packet_count - 1) ? 1 : 0;
+      writer.send(ticks * video_period, marker, packetizer.getheader(i), frame, packetizer.getfragment_index(i),
+          packetizer.getfragment_length(i));
+    }
+    sender.add(queue);
+
+    // update GUI
+    server.frame_sent(this);
+  }
+
+  // ------------------------------------
+  // close: stop streaming and release the sockets of this session
+  // ------------------------------------
+  synchronized void close() {
+    if (closed)
+      return;
+    closed = true;
+    stop_pacing();
+    if (reporting != null)
+      reporting.cancel();
+    try {
+      RTSPsocket.close();
+      if (RTSPinput != null)
+        RTSPinput.close();
+    } catch (IOException ioe) {
+      // nothing to do, the client is gone
+    }
+    if (rtcp != null) {
+      AsyncLog.log("Session " + RTSP_ID + " - RTCP " + rtcp + ", rate " + rate
+          + ((renditions != null && renditions.length > 1) ? ", rendition " + rendition : "") + ", send queue " + queue
+          + ((writer.getdropped() > 0) ? ", unsent " + writer.getdropped() : "")
+          + ((prefetch != null) ? ", prefetch " + prefetch : ""));
+      rtcp.close();
+    }
+    if (writer != null)
+      writer.close();
+    if (queue != null)
+      queue.clear();
+    try {
+      if (RTPchannel != null)
+        RTPchannel.close();
+    } catch (IOException ioe) {
+      // nothing to do, the socket is released anyway
+    }
+    if (prefetch != null)
+      prefetch.close();
+    if (rendition_videos != null)
+      for (VideoStream opened : rendition_videos) {
+        try {
+          if (opened != null)
+            synchronized (opened) {
+              opened.close();
+            }
+        } catch (IOException ioe) {
+          // nothing to do, the file was only read
+        }
+      }
+    if (broadcast != null)
+      server.leave_broadcast(broadcast);
+    server.session_closed(this);
+    AsyncLog.log("Session " + RTSP_ID + " - closed");
+  }
+
+  // ------------------------------------
+  // Parse RTSP Request
+  // ------------------------------------
+  int parse_RTSP_request() {
+    int request_type = -1;
+    try {
+      // parse request line and extract the request_type:
+      String RequestLine;
+      do {
+        if (interleaved_channel >= 0)
+          read_interleaved();
+        RequestLine = RTSPBufferedReader.readLine();
+      } while (RequestLine != null && RequestLine.isEmpty()); // end of the previous request
+      if (RequestLine == null) {
+        // the client closed the RTSP connection without a TEARDOWN
+        close();
+        return (request_type);
+      }
+      AsyncLog.log("Session " + RTSP_ID + " - " + RequestLine);
+
+      StringTokenizer tokens = new StringTokenizer(RequestLine);
+      String request_type_string = tokens.nextToken();
+
+      // convert to request_type structure:
+      if (request_type_string.equals("SETUP")) {
+        request_type = SETUP;
+      } else if (request_type_string.equals("PLAY")) {
+        request_type = PLAY;
+      } else if (request_type_string.equals("PAUSE")) {
+        request_type = PAUSE;
+      } else if (request_type_string.equals("TEARDOWN")) {
+        request_type = TEARDOWN;
+      } else if (request_type_string.equals("ADVANCE")) {
+        request_type = ADVANCE;
+      } else if (request_type_string.equals("BACK")) {
+        request_type = BACK;
+      } else if (request_type_string.equals("SET_PARAMETER")) {
+        request_type = SET_PARAMETER;
+      }
+
+      if (request_type == SETUP) {
+        // extract VideoFileName from RequestLine
+        VideoFileName = tokens.nextToken();
+      }
+
+      // parse the header lines up to the blank line, in any order
+      range_start = -1;
+      range_end = -1;
+      request_scale = 0;
+      request_rendition = -2;
+      request_prefetch = -1;
+      request_frame_period = 0;
+      String LastLine = "";
+      String line;
+      while ((line = next_header(!LastLine.isEmpty())) != null && !line.isEmpty()) {
+        int colon = line.indexOf(':');
+        if (colon < 0)
+          continue;
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        if (name.equalsIgnoreCase("CSeq")) {
+          // extract CSeq field
+          RTSPSeqNb = Integer.parseInt(value);
+        } else if (name.equalsIgnoreCase("Range")) {
+          parse_range(value);
+        } else if (name.equalsIgnoreCase("Scale")) {
+          request_scale = Double.parseDouble(value);
+        } else if (name.equalsIgnoreCase("Rendition")) {
+          request_rendition = value.equalsIgnoreCase("auto") ? -1 : Math.max(0, Integer.parseInt(value));
+        } else if (name.equalsIgnoreCase("Prefetch")) {
+          request_prefetch = Math.min(Math.max(0, Integer.parseInt(value)), StreamingServer.MAX_PREFETCH);
+        } else if (name.equalsIgnoreCase("Frame-Period")) {
+          request_frame_period = Integer.parseInt(value);
+        } else if (name.equalsIgnoreCase("Transport") || name.equalsIgnoreCase("Session")) {
+          LastLine = line;
+        }
+      }
+
+      if (request_type == SETUP) {
+        int interleaved_at = LastLine.indexOf("interleaved=");
+        if (interleaved_at >= 0) {
+          // RTP/AVP/TCP;interleaved=0-1: extract the RTP channel
+          tokens = new StringTokenizer(LastLine.substring(interleaved_at + 12), " \t;-");
+          interleaved_channel = Integer.parseInt(tokens.nextToken());
+        } else {
+          // extract RTP_dest_port from LastLine
+          tokens = new StringTokenizer(LastLine, " \t;");
+          for (int i = 0; i < 3; i++)
+            tokens.nextToken(); // skip unused stuff
+          RTP_dest_port = Integer.parseInt(tokens.nextToken());
+          // multicast delivery of a broadcast, if the server has a group address
+          multicast = LastLine.indexOf("multicast") >= 0 && server.multicast_address != null;
+        }
+      }
+      // else LastLine will be the SessionId line ... do not check for now.
+    } catch (Exception ex) {
+      AsyncLog.log("Session " + RTSP_ID + " - Exception caught: " + ex);
+      close();
+    }
+    return (request_type);
+  }
+
+  // ------------------------------------
+  // next_header: the next header line of the request, null at the end of
+  // the stream. Clients of the original protocol end their requests with
+  // the Session or Transport line, without the blank line: once that
+  // line was read (legacy), the request also ends when nothing more has
+  // arrived, or before an interleaved packet or the next request line,
+  // which are left in the stream
+  // ------------------------------------
+  String next_header(boolean legacy) throws IOException {
+    if (!legacy)
+      return (RTSPBufferedReader.readLine());
+    if (!RTSPBufferedReader.ready())
+      return ("");
+    RTSPBufferedReader.mark(MAX_LINE);
+    if (RTSPBufferedReader.read() == '$') {
+      RTSPBufferedReader.reset();
+      return ("");
+    }
+    RTSPBufferedReader.reset();
+    String line = RTSPBufferedReader.readLine();
+    if (line != null && line.indexOf(':') < 0 && line.indexOf(" RTSP/") >= 0) {
+      RTSPBufferedReader.reset();
+      return ("");
+    }
+    return (line);
+  }
+
+  // ------------------------------------
+  // parse_range: Range: npt=start-[end], in seconds; "now" for the start
+  // resumes where the play is
+  // ------------------------------------
+  void parse_range(String value) {
+    if (!value.startsWith("npt="))
+      return; // smpte and clock ranges are not supported, play from where it is
+    String range = value.substring(4);
+    int end = range.indexOf(';'); // ;time= of a delayed play, ignored
+    if (end >= 0)
+      range = range.substring(0, end);
+    int dash = range.indexOf('-');
+    String start = ((dash < 0) ? range : range.substring(0, dash)).trim();
+    String stop = (dash < 0) ? "" : range.substring(dash + 1).trim();
+    if (!start.isEmpty() && !start.equals("now"))
+      range_start = Double.parseDouble(start);
+    if (!stop.isEmpty())
+      range_end = Double.parseDouble(stop);
+  }
+
+  // ------------------------------------
+  // read_interleaved: consume the packets the client sends on the RTSP
+  // connection before its next request ('$', channel, 16-bit length):
+  // the receiver reports of an interleaved session
+  // ------------------------------------
+  void read_interleaved() throws IOException {
+    while (true) {
+      RTSPBufferedReader.mark(2); // the LF of the last request may come first
+      if (RTSPBufferedReader.read() != '$') {
+        RTSPBufferedReader.reset();
+        return;
+      }
+      int channel = RTSPBufferedReader.read();
+      int length = (RTSPBufferedReader.read() << 8) | RTSPBufferedReader.read();
+      if (channel < 0 || length < 0)
+        throw new EOFException("Truncated interleaved packet");
+      if (interleaved_packet == null || interleaved_packet.length < length)
+        interleaved_packet = new byte[Math.max(length, 1500)];
+      for (int i = 0; i < length; i++) {
+        int c = RTSPBufferedReader.read();
+        if (c < 0)
+          throw new EOFException("Truncated interleaved packet");
+        interleaved_packet[i] = (byte) c;
+      }
+
+      if (rtcp == null || channel != interleaved_channel + 1)
+        continue;
+      long now = System.currentTimeMillis();
+      for (RTCPpacket report : RTCPpacket.parse(interleaved_packet, 0, length))
+        for (RTCPpacket.ReportBlock block : report.blocks)
+          if (block.Ssrc == rtcp.getssrc())
+            rtcp.receiver_report(block, now);
+    }
+  }
+
+  // ------------------------------------
+  // Send RTSP Response, with the headers given before the Session line
+  // ------------------------------------
+  private void send_RTSP_response() {
+    send_RTSP_response("");
+  }
+
+  private void send_RTSP_response(String headers) {
+    if (interleaved != null) {
+      // ahead of the RTP packets waiting on the connection
+      byte[] response = ("RTSP/1.0 200 OK" + CRLF + "CSeq: " + RTSPSeqNb + CRLF + headers + "Session: " + RTSP_ID
+          + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+      try {
+        if (!interleaved.send_message(response, response.length))
+          sender.add(interleaved);
+      } catch (IOException ioe) {
+        AsyncLog.log("Session " + RTSP_ID + " - Exception caught: " + ioe);
+        close();
+      }
+      return;
+    }
+    try {
+      RTSPBufferedWriter.write("RTSP/1.0 200 OK" + CRLF);
+      RTSPBufferedWriter.write("CSeq: " + RTSPSeqNb + CRLF);
+      RTSPBufferedWriter.write(headers);
+      RTSPBufferedWriter.write("Session: " + RTSP_ID + CRLF);
+      RTSPBufferedWriter.flush();
+    } catch (Exception ex) {
+      AsyncLog.log("Session " + RTSP_ID + " - Exception caught: " + ex);
+      close();
+    }
+  }
+}
@@ -0,0 +1,19 @@
+/* ------------------
+   ServerStatus
+   receives the status events of a StreamingServer, implemented by the
+   GUI of Server and by the periodic log of HeadlessServer. The calls
+   come from the session and pacing threads: frame_sent is on the send
+   path and must only update counters
+   ---------------------- */
+
+public interface ServerStatus {
+
+  // a new RTSP session was accepted
+  void session_opened(ServerSession session);
+
+  // a session was torn down or its client went away
+  void session_closed(ServerSession session);
+
+  // a frame was sent by a session
+  void frame_sent(ServerSession session);
+}
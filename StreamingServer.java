@@ -0,0 +1,288 @@
+/* ------------------
+   StreamingServer
+   streaming core shared by the GUI Server and the HeadlessServer:
+   accepts the RTSP connections and runs their sessions, with no AWT
+   dependency. Status goes to a ServerStatus
+   ---------------------- */
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class StreamingServer {
+
+  // Video variables:
+  // ----------------
+  static int MJPEG_TYPE = 26; // RTP payload type for MJPEG video
+  static int FRAME_PERIOD = 100; // Frame period of a video without a frame index, in ms
+  static int RTP_CLOCK_RATE = 1000; // the RTP timestamps are in ms
+  static int RTP_MTU = 1400; // largest RTP packet, to avoid IP fragmentation
+  static int INTERLEAVED_MTU = 8192; // largest RTP packet on an RTSP connection, TCP segments it
+  static int SEND_QUEUE = 16; // RTP packets queued per session between two batched sends
+  static int MAX_SCALE = 8; // fastest fast-forward and rewind, in frames per frame period
+  boolean mapped; // memory-map the video files instead of reading them (mmap mode)
+  static int CACHE_MB = 64; // default size of the frame cache, in MB
+  FrameCache cache; // frames shared by the sessions streaming the same file
+  static int PREFETCH = 4; // default frames read ahead per session, 0 reads them on the pacer
+  static int MIN_FRAME_PERIOD = 10; // fastest pacing a client may ask for its session, in ms
+  static int MAX_PREFETCH = 32; // most frames a client may ask to read ahead for its session
+  static int PREFETCH_THREADS = 2; // I/O threads reading ahead for all the sessions
+  FramePrefetcher prefetcher; // reads the frames ahead of the pacers
+  HashMap<String, BroadcastGroup> broadcasts; // live groups by file name, under the lock
+  int broadcasts_created; // spreads the groups over the pacers
+  InetAddress multicast_address; // group address for the multicast subscribers, null if none
+
+  // Session variables:
+  // ----------------
+  static int MAX_SESSIONS = 2000; // default limit of concurrent RTSP sessions
+  ThreadPoolExecutor sessions; // executor running one task per RTSP session
+  Pacer[] pacers; // pacing threads, one per core, shared by the sessions
+  BatchSender[] senders; // batched sends of the sessions of each pacer
+  RTCPserver rtcp; // RTCP socket shared by the sessions
+  AtomicInteger RTSP_ID = new AtomicInteger(123456); // ID of the next RTSP session
+  AtomicInteger active_sessions = new AtomicInteger(0); // number of sessions currently open
+  AtomicLong frames_sent = new AtomicLong(0); // frames sent over all sessions
+  AtomicLong refused_sessions = new AtomicLong(0); // clients refused at the session limit
+
+  ServerStatus status; // receives the status events
+  ServerSocket listenSocket;
+
+  final static String CRLF = "\r\n";
+
+  // --------------------------------
+  // Constructor
+  // --------------------------------
+  public StreamingServer(int max_sessions, boolean mapped, int cache_mb, InetAddress multicast_address,
+      ServerStatus status) {
+    this.mapped = mapped;
+    this.multicast_address = multicast_address;
+    this.status = status;
+    cache = new FrameCache((long) cache_mb << 20);
+    broadcasts = new HashMap<String, BroadcastGroup>();
+    prefetcher = new FramePrefetcher(PREFETCH_THREADS);
+
+    // one thread per session, bounded by max_sessions: a blocked RTSP read
+    // only ever holds its own session's thread
+    sessions = new ThreadPoolExecutor(0, max_sessions, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
+    // frames are paced on dedicated threads, which send the packets of the
+    // frames due at a tick in a batch; RTCP reports of all the sessions on one socket
+    pacers = new Pacer[Runtime.getRuntime().availableProcessors()];
+    senders = new BatchSender[pacers.length];
+    try {
+      for (int i = 0; i < pacers.length; i++) {
+        pacers[i] = new Pacer("Pacer-" + i);
+        senders[i] = new BatchSender(pacers[i]);
+      }
+      rtcp = new RTCPserver();
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Cannot open the server sockets", ioe);
+    }
+  }
+
+  // ------------------------------------
+  // create: build a StreamingServer from the command line arguments
+  // [RTSP listening port] [max concurrent sessions] [stream|mmap] [frame cache MB]
+  // [multicast group|-] [frames read ahead per session]
+  // ------------------------------------
+  public static StreamingServer create(String argv[], ServerStatus status) throws UnknownHostException {
+    int max_sessions = (argv.length > 1) ? Integer.parseInt(argv[1]) : MAX_SESSIONS;
+    boolean mapped = (argv.length > 2) && argv[2].equals("mmap");
+    int cache_mb = (argv.length > 3) ? Integer.parseInt(argv[3]) : CACHE_MB;
+    InetAddress multicast_address = (argv.length > 4 && !argv[4].equals("-")) ? InetAddress.getByName(argv[4])
+        : null;
+    if (argv.length > 5)
+      PREFETCH = Integer.parseInt(argv[5]);
+    return (new StreamingServer(max_sessions, mapped, cache_mb, multicast_address, status));
+  }
+
+  // ------------------------------------
+  // serve: accept RTSP connections until the server is shut down
+  // ------------------------------------
+  public void serve(int RTSPport) throws IOException {
+    // accepted through a channel, so that a session can send its RTP
+    // packets on the RTSP connection without blocking (interleaved)
+    ServerSocketChannel listenChannel = ServerSocketChannel.open();
+    listenChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    listenChannel.bind(new InetSocketAddress(RTSPport));
+    listenSocket = listenChannel.socket();
+    while (!listenSocket.isClosed()) {
+      Socket RTSPsocket;
+      try {
+        RTSPsocket = listenSocket.accept();
+        RTSPsocket.setTcpNoDelay(true); // the responses are small, do not hold them back
+      } catch (SocketException se) {
+        break; // shut down
+      } catch (ClosedChannelException cce) {
+        break; // shut down while accepting
+      }
+      int id = RTSP_ID.getAndIncrement();
+      int pacer = id % pacers.length;
+      ServerSession session = new ServerSession(this, RTSPsocket, id, mapped, pacers[pacer], senders[pacer]);
+      active_sessions.incrementAndGet();
+      try {
+        sessions.execute(session);
+        status.session_opened(session);
+      } catch (RejectedExecutionException ree) {
+        // too many sessions: refuse the client instead of queueing it
+        active_sessions.decrementAndGet();
+        refused_sessions.incrementAndGet();
+        AsyncLog.log("Session limit reached, refusing " + RTSPsocket.getInetAddress());
+        refuse(RTSPsocket);
+      }
+    }
+  }
+
+  // ------------------------------------
+  // refuse: answer a client that cannot get a session and drop it. The
+  // CSeq is the one of the request if it has arrived already, 0 if not:
+  // the accept thread does not wait for a client
+  // ------------------------------------
+  private void refuse(Socket RTSPsocket) {
+    try {
+      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(RTSPsocket.getOutputStream()));
+      writer.write("RTSP/1.0 503 Service Unavailable" + CRLF);
+      writer.write("CSeq: " + arrived_cseq(RTSPsocket) + CRLF);
+      writer.write(CRLF);
+      writer.flush();
+      RTSPsocket.close();
+    } catch (IOException ioe) {
+      // nothing to do, the client is gone
+    }
+  }
+
+  // CSeq of the request already received on the socket, 0 if none
+  static int arrived_cseq(Socket RTSPsocket) throws IOException {
+    InputStream input = RTSPsocket.getInputStream();
+    int available = Math.min(input.available(), 4096);
+    if (available <= 0)
+      return (0);
+    byte[] request = new byte[available];
+    int length = input.read(request);
+    BufferedReader reader = new BufferedReader(new StringReader(new String(request, 0, Math.max(0, length),
+        "ISO-8859-1")));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      int colon = line.indexOf(':');
+      if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("CSeq")) {
+        try {
+          return (Integer.parseInt(line.substring(colon + 1).trim()));
+        } catch (NumberFormatException nfe) {
+          return (0);
+        }
+      }
+    }
+    return (0);
+  }
+
+  // ------------------------------------
+  // shutdown: stop accepting connections and stop the sessions
+  // ------------------------------------
+  public void shutdown() {
+    try {
+      if (listenSocket != null)
+        listenSocket.close();
+    } catch (IOException ioe) {
+      // closing anyway
+    }
+    sessions.shutdownNow();
+    for (int i = 0; i < pacers.length; i++)
+      pacers[i].stop();
+    prefetcher.stop();
+    rtcp.close();
+  }
+
+  // ------------------------------------
+  // join_broadcast: the broadcast group of a file, created for its first
+  // session; every join is matched by a leave_broadcast
+  // ------------------------------------
+  synchronized BroadcastGroup join_broadcast(String name) throws Exception {
+    BroadcastGroup group = broadcasts.get(name);
+    if (group == null) {
+      group = new BroadcastGroup(this, name, pacers[broadcasts_created++ % pacers.length], multicast_address);
+      broadcasts.put(name, group);
+    }
+    group.sessions++;
+    return (group);
+  }
+
+  synchronized void leave_broadcast(BroadcastGroup group) {
+    if (--group.sessions == 0) {
+      broadcasts.remove(group.name);
+      group.close();
+    }
+  }
+
+  // ------------------------------------
+  // callbacks from the sessions
+  // ------------------------------------
+  void frame_sent(ServerSession session) {
+    frames_sent.incrementAndGet();
+    status.frame_sent(session);
+  }
+
+  void session_closed(ServerSession session) {
+    active_sessions.decrementAndGet();
+    status.session_closed(session);
+  }
+
+  // ------------------------------------
+  // metrics
+  // ------------------------------------
+  public int getactive_sessions() {
+    return (active_sessions.get());
+  }
+
+  public long getframes_sent() {
+    return (frames_sent.get());
+  }
+
+  public long getrefused_sessions() {
+    return (refused_sessions.get());
+  }
+
+  // ------------------------------------
+  // status_line: one line summary of the metrics
+  // ------------------------------------
+  public String status_line() {
+    return ("Sessions: " + active_sessions.get() + "   Sent frames: " + frames_sent.get() + "   " + cache
+        + "   pacing: " + pacing_status() + "   prefetch: " + prefetcher + "   memory: " + memory_status());
+  }
+
+  // ------------------------------------
+  // memory_status: heap in use, direct memory (frame cache, read-ahead,
+  // send buffers) and the garbage collections so far: the frames stay
+  // off the heap, so the heap and the pauses should not grow with the
+  // cache
+  // ------------------------------------
+  static String memory_status() {
+    long collections = 0;
+    long collection_time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      collections += Math.max(0, gc.getCollectionCount());
+      collection_time += Math.max(0, gc.getCollectionTime());
+    }
+    long direct = 0;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+      if (pool.getName().equals("direct"))
+        direct = pool.getMemoryUsed();
+    long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    return ("heap " + (heap >> 20) + " MB, direct " + (direct >> 20) + " MB, GC " + collections + " ("
+        + collection_time + " ms, avg " + ((collections == 0) ? 0 : collection_time / collections) + " ms)");
+  }
+
+  // ------------------------------------
+  // pacing_status: send jitter of the busiest pacer
+  // ------------------------------------
+  String pacing_status() {
+    Pacer busiest = pacers[0];
+    for (int i = 1; i < pacers.length; i++)
+      if (pacers[i].getruns() > busiest.getruns())
+        busiest = pacers[i];
+    return (busiest.toString());
+  }
+}
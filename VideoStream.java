@@ -1,18 +1,88 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 
 public class VideoStream {
 
-  FileInputStream fis; //video file
+  RandomAccessFile file; //video file
   int frame_nb; //current frame nb
 
+  //frame index, filled lazily as frames are read or seeked past:
+  //offset of the payload of frame nb i+1 and its length
+  long[] frame_offset;
+  int[] frame_length;
+  int indexed; //number of frames in the index
+  long index_end; //file offset right after the last indexed frame
+  byte[] prefix; //buffer for the length prefix in stream mode
+
+  //frame index of the sidecar file written by the ingest step, used
+  //instead of the lazy index when the file has one (null otherwise)
+  FrameIndex sidecar;
+  int frames; //frames in the file, -1 until counted without a sidecar
+
+  //memory-mapped mode: frames are read-only slices of a mapped window of
+  //the file, so they can go to a socket without a copy on the heap
+  boolean mapped;
+  FileChannel channel;
+  long file_size;
+  MappedByteBuffer window; //mapped part of the file
+  ByteBuffer window_view; //read-only view of window returned by getframebuffer
+  long window_start; //file offset of the first byte of window
+
+  //stream mode: frames returned by getframebuffer are read into the
+  //direct buffer frame_buffer, off the heap, and returned through the
+  //read-only view frame_view
+  ByteBuffer frame_buffer;
+  ByteBuffer frame_view;
+
+  //frame cache shared with the other VideoStreams (null when not cached),
+  //frames of this file are cached under its canonical path
+  FrameCache cache;
+  String cache_name;
+  FrameCache.Frame held; //cached frame returned by getframebuffer, released by the next call
+  ByteBuffer held_view; //its buffer, given back with it
+
+  final static int LENGTH_PREFIX = 5; //size of the ASCII length prefix of a frame
+  final static long WINDOW_SIZE = 256L << 20; //largest part of the file mapped at once
+  final static int MAX_FRAME_SIZE = 99999; //largest frame a 5-digit length prefix can describe
+
   //-----------------------------------
   //constructor
   //-----------------------------------
   public VideoStream(String filename) throws Exception{
+    this(filename, false);
+  }
+
+  public VideoStream(String filename, boolean mapped) throws Exception{
+    this(filename, mapped, null);
+  }
+
+  public VideoStream(String filename, boolean mapped, FrameCache cache) throws Exception{
 
     //init variables
-    fis = new FileInputStream(filename);
+    file = new RandomAccessFile(filename, "r");
     frame_nb = 0;
+
+    frame_offset = new long[1024];
+    frame_length = new int[1024];
+    indexed = 0;
+    index_end = 0;
+    prefix = new byte[LENGTH_PREFIX];
+    sidecar = FrameIndex.open(filename);
+    frames = -1;
+
+    this.mapped = mapped;
+    if (mapped) {
+      channel = file.getChannel();
+      file_size = channel.size();
+      window_start = -1;
+    }
+
+    //frames of a mapped file are already shared through the page cache
+    if (cache != null && !mapped) {
+      this.cache = cache;
+      cache_name = new File(filename).getCanonicalPath();
+    }
   }
 
   //-----------------------------------
@@ -21,17 +91,300 @@ public class VideoStream {
   //-----------------------------------
   public int getnextframe(byte[] frame) throws Exception
   {
-    int length = 0;
-    String length_string;
-    byte[] frame_length = new byte[5];
+    return(getframe(frame_nb + 1, frame));
+  }
+
+  //-----------------------------------
+  // getframe
+  //returns frame nb n (starting at 1) as an array of byte and its size,
+  //the following getnextframe returns frame n+1
+  //-----------------------------------
+  public int getframe(int n, byte[] frame) throws Exception
+  {
+    if (cache != null) {
+      int length = cache.get(cache_name, n, frame);
+      if (length >= 0) {
+        frame_nb = n;
+        return(length);
+      }
+    }
+
+    index_to(n);
+
+    int length = length_of(n);
+    if (mapped) {
+      map(offset_of(n), length).get(frame, 0, length);
+    } else {
+      file.seek(offset_of(n));
+      file.readFully(frame, 0, length);
+      if (cache != null)
+        cache.put(cache_name, n, frame, length);
+    }
+    frame_nb = n;
+
+    return(length);
+  }
+
+  //-----------------------------------
+  // getframe
+  //copies frame nb n into the buffer frame, cleared then flipped, and
+  //returns its size; without going through the heap if frame is direct
+  //-----------------------------------
+  public int getframe(int n, ByteBuffer frame) throws Exception
+  {
+    if (cache != null) {
+      int length = cache.get(cache_name, n, frame);
+      if (length >= 0) {
+        frame_nb = n;
+        return(length);
+      }
+    }
+
+    index_to(n);
+
+    int length = length_of(n);
+    if (frame.capacity() < length)
+      throw new IOException("Frame nb " + n + " is larger than the buffer, " + length + " bytes");
+    frame.clear();
+    if (mapped) {
+      int start = map(offset_of(n), length).position();
+      window_view.limit(start + length).position(start);
+      frame.put(window_view);
+      frame.flip();
+    } else {
+      read(offset_of(n), length, frame);
+      if (cache != null)
+        cache.put(cache_name, n, frame);
+    }
+    frame_nb = n;
+
+    return(length);
+  }
+
+  //-----------------------------------
+  // getnextframebuffer
+  //returns the next frame as a read-only ByteBuffer
+  //-----------------------------------
+  public ByteBuffer getnextframebuffer() throws Exception
+  {
+    return(getframebuffer(frame_nb + 1));
+  }
+
+  //-----------------------------------
+  // getframebuffer
+  //returns frame nb n as a read-only ByteBuffer between its position and
+  //limit: a view of the mapped file in memory-mapped mode, of the cached
+  //frame or of a frame buffer filled from the file otherwise. The buffer
+  //is valid until the next call, none of them is on the heap
+  //-----------------------------------
+  public ByteBuffer getframebuffer(int n) throws Exception
+  {
+    release_held();
+    if (!mapped && frame_buffer == null) {
+      frame_buffer = ByteBuffer.allocateDirect(MAX_FRAME_SIZE);
+      frame_view = frame_buffer.asReadOnlyBuffer();
+    }
+
+    if (cache != null) {
+      //sent straight from the cache, held until the next frame
+      held = cache.acquire(cache_name, n);
+      if (held != null) {
+        frame_nb = n;
+        held_view = held.getbuffer();
+        return(held_view);
+      }
+    }
+
+    index_to(n);
+
+    int length = length_of(n);
+    frame_nb = n;
+    if (mapped) {
+      int start = map(offset_of(n), length).position();
+      window_view.limit(start + length).position(start);
+      return(window_view);
+    }
+
+    read(offset_of(n), length, frame_buffer);
+    if (cache != null)
+      cache.put(cache_name, n, frame_buffer);
+    frame_view.limit(length).position(0);
+    return(frame_view);
+  }
+
+  //-----------------------------------
+  // read
+  //reads length bytes at file offset into frame, cleared then flipped
+  //-----------------------------------
+  void read(long offset, int length, ByteBuffer frame) throws IOException
+  {
+    frame.clear().limit(length);
+    FileChannel channel = getchannel();
+    while (frame.hasRemaining())
+      if (channel.read(frame, offset + frame.position()) < 0)
+        throw new EOFException("End of video file");
+    frame.flip();
+  }
+
+  void release_held()
+  {
+    if (held != null) {
+      held.release(held_view);
+      held = null;
+      held_view = null;
+    }
+  }
+
+  //-----------------------------------
+  // getframe_length
+  //returns the size of frame nb n, to size the buffer of getframe
+  //-----------------------------------
+  public int getframe_length(int n) throws IOException
+  {
+    index_to(n);
+    return(length_of(n));
+  }
+
+  //-----------------------------------
+  // getframes
+  //returns the number of frames of the video, a truncated last frame left
+  //out: the count of the sidecar, or without one the lazy index scanned
+  //to the end once (only the length prefixes are read)
+  //-----------------------------------
+  public int getframes() throws IOException
+  {
+    if (sidecar != null)
+      return(sidecar.getframes());
+
+    if (frames < 0) {
+      long size = file.length();
+      try {
+        while (index_end + LENGTH_PREFIX <= size)
+          index_to(indexed + 1);
+      } catch (IOException ioe) {
+        //an invalid length prefix ends the video there
+      }
+      frames = (index_end > size) ? indexed - 1 : indexed;
+    }
+    return(frames);
+  }
+
+  //-----------------------------------
+  // getframe_period
+  //returns the ms between two frames recorded in the sidecar, or
+  //default_period for a file without one
+  //-----------------------------------
+  public int getframe_period(int default_period)
+  {
+    if (sidecar != null && sidecar.getframe_period() > 0)
+      return(sidecar.getframe_period());
+    return(default_period);
+  }
 
-    //read current frame length
-    fis.read(frame_length,0,5);
-	
-    //transform frame_length to integer
-    length_string = new String(frame_length);
-    length = Integer.parseInt(length_string);
-	
-    return(fis.read(frame,0,length));
+  //-----------------------------------
+  // getindex
+  //returns the sidecar frame index, with the timestamps of the frames,
+  //or null if the file has none
+  //-----------------------------------
+  public FrameIndex getindex()
+  {
+    return(sidecar);
+  }
+
+  public FileChannel getchannel()
+  {
+    if (channel == null)
+      channel = file.getChannel();
+    return(channel);
+  }
+
+  //-----------------------------------
+  // index_to
+  //extends the frame index up to frame nb n by reading only the length
+  //prefixes, so a frame is scanned at most once per VideoStream
+  //-----------------------------------
+  void index_to(int n) throws IOException
+  {
+    if (n < 1)
+      throw new IOException("Invalid frame nb " + n);
+    if (sidecar != null) {
+      //all the frames are indexed already
+      if (n > sidecar.getframes())
+        throw new EOFException("End of video file");
+      return;
+    }
+
+    while (indexed < n) {
+      //read the length prefix of the next frame
+      if (mapped) {
+        map(index_end, LENGTH_PREFIX).get(prefix, 0, LENGTH_PREFIX);
+      } else {
+        file.seek(index_end);
+        file.readFully(prefix, 0, LENGTH_PREFIX);
+      }
+
+      //transform the prefix to integer
+      int length = 0;
+      for (int i = 0; i < LENGTH_PREFIX; i++) {
+        int digit = prefix[i] - '0';
+        if (digit < 0 || digit > 9)
+          throw new IOException("Invalid length prefix for frame nb " + (indexed + 1));
+        length = length * 10 + digit;
+      }
+
+      if (indexed == frame_offset.length) {
+        frame_offset = java.util.Arrays.copyOf(frame_offset, indexed * 2);
+        frame_length = java.util.Arrays.copyOf(frame_length, indexed * 2);
+      }
+      frame_offset[indexed] = index_end + LENGTH_PREFIX;
+      frame_length[indexed] = length;
+      indexed++;
+      index_end += LENGTH_PREFIX + length;
+    }
+  }
+
+  //-----------------------------------
+  // offset_of, length_of
+  //offset and length of frame nb n, once indexed
+  //-----------------------------------
+  long offset_of(int n)
+  {
+    return((sidecar != null) ? sidecar.getoffset(n) : frame_offset[n - 1]);
+  }
+
+  int length_of(int n)
+  {
+    return((sidecar != null) ? sidecar.getlength(n) : frame_length[n - 1]);
+  }
+
+  //-----------------------------------
+  // map
+  //returns the mapped window positioned at file offset, remapping the
+  //window when [offset, offset+length) is not inside it
+  //-----------------------------------
+  ByteBuffer map(long offset, int length) throws IOException
+  {
+    if (offset + length > file_size)
+      throw new EOFException("End of video file");
+
+    if (window_start < 0 || offset < window_start || offset + length > window_start + window.capacity()) {
+      window_start = offset;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+          Math.max(length, Math.min(WINDOW_SIZE, file_size - offset)));
+      window_view = window.asReadOnlyBuffer();
+    }
+
+    window.position((int) (offset - window_start));
+    return(window);
+  }
+
+  //-----------------------------------
+  // close
+  //releases the video file
+  //-----------------------------------
+  public void close() throws IOException
+  {
+    release_held();
+    file.close();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+/* ------------------
+   EndToEndFixture
+   the whole chain on the loopback, for jmh.EndToEndBenchmark: a
+   StreamingServer paced at 1000 fps plays a synthetic video as a live
+   broadcast (it loops), and the RTPreceiver of an RTSPclient reassembles the
+   frames out of its jitter buffer. One operation takes one complete
+   frame from the receiver
+   parameters: frame size (e.g. 320x240)
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.util.function.*;
+
+public class EndToEndFixture implements jmh.Fixture, ServerStatus {
+
+  static int FRAMES = 100;
+
+  File file;
+  StreamingServer server;
+  RTSPclient rtsp;
+  RTPreceiver receiver;
+
+  // --------------------------
+  // Constructor: start the server, then SETUP and PLAY
+  // --------------------------
+  public EndToEndFixture(String[] params) throws Exception {
+    file = SyntheticVideo.create(FRAMES, params[0]);
+
+    // server on a free port, a frame every ms, looping over the whole file
+    StreamingServer.FRAME_PERIOD = 1;
+    server = new StreamingServer(4, false, 0, null, this);
+    ServerSocket probe = new ServerSocket(0);
+    final int port = probe.getLocalPort();
+    probe.close();
+    Thread serve_thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          server.serve(port);
+        } catch (IOException ioe) {
+          System.out.println("EndToEndFixture - Exception caught: " + ioe);
+        }
+      }
+    }, "Serve");
+    serve_thread.setDaemon(true);
+    serve_thread.start();
+
+    // client, on an ephemeral port
+    for (int attempt = 0; rtsp == null; attempt++) {
+      try {
+        rtsp = new RTSPclient(InetAddress.getLoopbackAddress(), port, BroadcastGroup.PREFIX + file.getPath(), 0, null);
+      } catch (ConnectException ce) {
+        if (attempt == 50)
+          throw ce;
+        Thread.sleep(20); // not listening yet
+      }
+    }
+    if (rtsp.setup(2, 4) != 200 || rtsp.play() != 200)
+      throw new IOException("SETUP or PLAY failed");
+    receiver = rtsp.getreceiver();
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("frame"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          try {
+            RTPreceiver.Frame frame = receiver.take();
+            int length = frame.length;
+            receiver.recycle(frame);
+            return (length);
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return (0);
+          }
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() throws IOException {
+    rtsp.teardown();
+    rtsp.close();
+    server.shutdown();
+    file.delete();
+  }
+
+  // ------------------------------------
+  // status events of the server, not needed here
+  // ------------------------------------
+  public void session_opened(ServerSession session) {
+  }
+
+  public void session_closed(ServerSession session) {
+  }
+
+  public void frame_sent(ServerSession session) {
+  }
+}
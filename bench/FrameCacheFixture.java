@@ -0,0 +1,49 @@
+/* ------------------
+   FrameCacheFixture
+   frames of a synthetic MJPEG file read in a loop through the shared
+   FrameCache, for jmh.FrameCacheBenchmark: with a cache larger than the
+   video every frame is a hit, with a smaller one the frames are read,
+   cached and evicted in turn. Run with -prof gc for what the cache
+   puts on the heap
+   parameters: cache size in KB, frame size (e.g. 640x480)
+   ---------------------- */
+
+import java.io.*;
+import java.util.function.*;
+
+public class FrameCacheFixture implements jmh.Fixture {
+
+  static int FRAMES = 200;
+
+  File file;
+  VideoStream video;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public FrameCacheFixture(String[] params) throws Exception {
+    file = SyntheticVideo.create(FRAMES, params[1]);
+    video = new VideoStream(file.getPath(), false, new FrameCache(Long.parseLong(params[0]) << 10));
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("getnextframebuffer"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          try {
+            if (video.frame_nb == FRAMES)
+              return (video.getframebuffer(1).remaining());
+            return (video.getnextframebuffer().remaining());
+          } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() throws IOException {
+    video.close();
+    file.delete();
+  }
+}
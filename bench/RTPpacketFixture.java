@@ -0,0 +1,98 @@
+/* ------------------
+   RTPpacketFixture
+   RTP packet encoding and parsing, for jmh.RTPpacketBenchmark: RTPpacket,
+   which copies the header and the payload into new arrays, against
+   RTPview and RTPwriter, which the server and client use on their hot
+   paths and which allocate nothing
+   parameters: payload size
+   ---------------------- */
+
+import java.nio.*;
+import java.util.*;
+import java.util.function.*;
+
+public class RTPpacketFixture implements jmh.Fixture {
+
+  int payload_size;
+  byte[] payload; // payload to encode
+  byte[] packet; // encoded packet, to parse
+  int packet_size;
+  byte[] buffer; // destination of the copies
+  RTPpacket rtp_packet; // parsed packet, for getpayload/getpacket
+  RTPpacket last; // last packet built, kept so that it escapes
+  RTPview rtp_view;
+  ByteBuffer header; // destination of the RTPwriter header encoding
+  RTPwriter writer;
+  int seq;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public RTPpacketFixture(String[] params) {
+    payload_size = Integer.parseInt(params[0]);
+    payload = new byte[payload_size];
+    new Random(1).nextBytes(payload);
+    RTPpacket encoded = new RTPpacket(StreamingServer.MJPEG_TYPE, 1, 100, payload, payload_size);
+    packet_size = encoded.getlength();
+    packet = new byte[packet_size];
+    encoded.getpacket(packet);
+    buffer = new byte[packet_size];
+    rtp_packet = new RTPpacket(packet, packet_size);
+    rtp_view = new RTPview();
+    header = ByteBuffer.allocateDirect(RTPpacket.HEADER_SIZE);
+    writer = new RTPwriter(null, StreamingServer.MJPEG_TYPE, 0, 1234);
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("encode"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          seq++;
+          last = new RTPpacket(StreamingServer.MJPEG_TYPE, seq, seq * 100, payload, payload_size);
+          return (last.getlength());
+        }
+      });
+    if (name.equals("encode_writer_header"))
+      // header only, as RTPwriter encodes it into a reused direct buffer
+      return (new IntSupplier() {
+        public int getAsInt() {
+          header.clear();
+          writer.encode_header(header, ++seq * 100, 0, null);
+          return (header.position());
+        }
+      });
+    if (name.equals("parse"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          last = new RTPpacket(packet, packet_size);
+          return (last.SequenceNumber);
+        }
+      });
+    if (name.equals("parse_view"))
+      // header fields read in place
+      return (new IntSupplier() {
+        public int getAsInt() {
+          rtp_view.wrap(packet, 0, packet_size);
+          return (rtp_view.getsequencenumber() + rtp_view.gettimestamp() + rtp_view.getssrc()
+              + rtp_view.getpayload_offset());
+        }
+      });
+    if (name.equals("getpayload"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          return (rtp_packet.getpayload(buffer));
+        }
+      });
+    if (name.equals("getpacket"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          return (rtp_packet.getpacket(buffer));
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() {
+    writer.close();
+  }
+}
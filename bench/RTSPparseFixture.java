@@ -0,0 +1,101 @@
+/* ------------------
+   RTSPparseFixture
+   RTSP request parsing of ServerSession.parse_RTSP_request (formerly
+   Server.parse_RTSP_request), for jmh.RTSPparseBenchmark: the requests
+   the client sends are read from an in-memory stream instead of the RTSP
+   socket. Includes queueing the request line that every call logs, as
+   in the server; the log thread writes to a null stream meanwhile
+   parameters: request type (SETUP and PLAY as the client of the original
+   protocol sends them, ending with the Session or Transport line, or
+   PLAY_END: a PLAY with an end-only Range after the Session line and a
+   blank line, checked once to move the end of play)
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.util.function.*;
+
+public class RTSPparseFixture implements jmh.Fixture {
+
+  final static String CRLF = "\r\n";
+
+  StreamingServer server;
+  ServerSession session;
+  PrintStream out; // console, while the log goes to the null stream
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public RTSPparseFixture(String[] params) {
+    out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+    }));
+    server = new StreamingServer(1, false, 0, null, null);
+    session = new ServerSession(server, new Socket(), 1, false, server.pacers[0], server.senders[0]);
+    String text;
+    if (params[0].equals("SETUP"))
+      text = "SETUP movie.Mjpeg RTSP/1.0" + CRLF + "CSeq: 1" + CRLF + "Transport: RTP/UDP; client_port= 25000" + CRLF;
+    else if (params[0].equals("PLAY_END"))
+      text = "PLAY movie.Mjpeg RTSP/1.0" + CRLF + "CSeq: 3" + CRLF + "Session: 123456" + CRLF + "Range: npt=now-30"
+          + CRLF + CRLF;
+    else
+      text = "PLAY movie.Mjpeg RTSP/1.0" + CRLF + "CSeq: 2" + CRLF + "Session: 123456" + CRLF;
+    session.RTSPBufferedReader = new BufferedReader(new RepeatReader(text));
+
+    if (params[0].equals("PLAY_END")) {
+      // a 500-frame video without index, at 10 fps and playing frame 100
+      session.frames = session.play_end = 500;
+      session.video_period = 100;
+      session.imagenb = 100;
+      session.parse_RTSP_request();
+      String headers = session.play_range();
+      if (session.play_end != 301 || session.imagenb != 100 || !headers.startsWith("Range: npt=10.000-30.000"))
+        throw new IllegalStateException("End-only Range not applied: play_end " + session.play_end + ", " + headers);
+    }
+    // every request is read to its end, the next one starts at its request line
+    for (int i = 0; i < 3; i++)
+      if (session.parse_RTSP_request() != (params[0].equals("SETUP") ? ServerSession.SETUP : ServerSession.PLAY))
+        throw new IllegalStateException("Request " + i + " not read to its end");
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("parse_RTSP_request"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          return (session.parse_RTSP_request());
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() {
+    server.shutdown();
+    System.setOut(out);
+  }
+
+  // ------------------------------------
+  // RepeatReader: the same text over and over, like a client sending the
+  // same request forever
+  // ------------------------------------
+  static class RepeatReader extends Reader {
+    char[] text;
+    int position;
+
+    RepeatReader(String text) {
+      this.text = text.toCharArray();
+    }
+
+    public int read(char[] buffer, int offset, int length) {
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = text[position];
+        position = (position + 1) % text.length;
+      }
+      return (length);
+    }
+
+    public void close() {
+    }
+  }
+}
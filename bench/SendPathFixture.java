@@ -0,0 +1,82 @@
+/* ------------------
+   SendPathFixture
+   the steady-state send loop of a session, for jmh.SendPathBenchmark:
+   the next frame of a synthetic MJPEG file from the VideoStream, split
+   by the JpegPacketizer and sent by an RTPwriter to a loopback socket
+   that is never read (the kernel drops what overflows). One operation
+   sends one frame; it should not allocate, -prof gc reports ~0 B/op
+   parameters: stream|mmap, direct|queued (gathering write per packet,
+   or packets encoded into a SendQueue flushed after the frame), frame
+   size (e.g. 320x240)
+   ---------------------- */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.function.*;
+
+public class SendPathFixture implements jmh.Fixture {
+
+  static int FRAMES = 100;
+
+  File file;
+  VideoStream video;
+  JpegPacketizer packetizer;
+  DatagramChannel receiver;
+  DatagramChannel channel;
+  SendQueue queue; // null for direct writes
+  RTPwriter writer;
+  int imagenb;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public SendPathFixture(String[] params) throws Exception {
+    file = SyntheticVideo.create(FRAMES, params[2]);
+    video = new VideoStream(file.getPath(), params[0].equals("mmap"));
+    packetizer = new JpegPacketizer(StreamingServer.RTP_MTU - RTPpacket.HEADER_SIZE);
+    receiver = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    channel = DatagramChannel.open();
+    channel.connect(receiver.getLocalAddress());
+    if (params[1].equals("queued")) {
+      queue = new SendQueue(channel, StreamingServer.SEND_QUEUE, StreamingServer.RTP_MTU);
+      writer = new RTPwriter(channel, StreamingServer.MJPEG_TYPE, 0, 1234, queue);
+    } else {
+      writer = new RTPwriter(channel, StreamingServer.MJPEG_TYPE, 0, 1234);
+    }
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("send_frame"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          try {
+            imagenb = (imagenb % FRAMES) + 1;
+            ByteBuffer frame = video.getframebuffer(imagenb);
+            int packet_count = packetizer.packetize(frame);
+            int bytes = 0;
+            for (int i = 0; i < packet_count; i++)
+              bytes += writer.send(imagenb * StreamingServer.FRAME_PERIOD, (i == packet_count - 1) ? 1 : 0,
+                  packetizer.getheader(i), frame, packetizer.getfragment_index(i), packetizer.getfragment_length(i));
+            if (queue != null) {
+              queue.flush();
+              queue.clear(); // what the socket did not take now is dropped, as by a full queue
+            }
+            return (bytes);
+          } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() throws IOException {
+    writer.close();
+    channel.close();
+    receiver.close();
+    video.close();
+    file.delete();
+  }
+}
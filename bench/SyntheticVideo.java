@@ -0,0 +1,52 @@
+/* ------------------
+   SyntheticVideo
+   MJPEG file for the benchmarks, in the format read by VideoStream (a
+   5-digit length in ASCII before each JPEG frame): frames of a given
+   size with a little content, encoded by ImageIO, so they can also be
+   packetized as RFC 2435
+   ---------------------- */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import javax.imageio.*;
+
+public class SyntheticVideo {
+
+  // ------------------------------------
+  // create: a temporary MJPEG file of frames frames of width x height,
+  // deleted when the JVM exits
+  // ------------------------------------
+  public static File create(int frames, int width, int height) throws IOException {
+    File file = File.createTempFile("synthetic", ".Mjpeg");
+    file.deleteOnExit();
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < frames; i++) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color((i * 7) % 255, (i * 13) % 255, (i * 29) % 255));
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.WHITE);
+        for (int y = 20; y < height; y += 40)
+          g.drawString("frame " + (i + 1) + " line " + y, 10 + (i % 20), y);
+        g.dispose();
+
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", jpeg);
+        if (jpeg.size() > VideoStream.MAX_FRAME_SIZE)
+          throw new IOException("Frame too large for the MJPEG format: " + jpeg.size());
+        out.write(String.format("%05d", jpeg.size()).getBytes("US-ASCII"));
+        jpeg.writeTo(out);
+      }
+    }
+    return (file);
+  }
+
+  // ------------------------------------
+  // create: same, with the frame size given as widthxheight (e.g. 320x240)
+  // ------------------------------------
+  public static File create(int frames, String size) throws IOException {
+    int x = size.indexOf('x');
+    return (create(frames, Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))));
+  }
+}
@@ -0,0 +1,60 @@
+/* ------------------
+   VideoOpenFixture
+   opening a long video and seeking to its last frame, for
+   jmh.VideoOpenBenchmark: without a sidecar the VideoStream scans the
+   length prefixes of all the frames before, with one (FrameIndex) it
+   maps the index written by the ingest step. The frames are small
+   filler, only their number matters
+   parameters: scan|sidecar, number of frames
+   ---------------------- */
+
+import java.io.*;
+import java.util.function.*;
+
+public class VideoOpenFixture implements jmh.Fixture {
+
+  File file;
+  int frames;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public VideoOpenFixture(String[] params) throws Exception {
+    frames = Integer.parseInt(params[1]);
+    file = File.createTempFile("long", ".Mjpeg");
+    file.deleteOnExit();
+    byte[] filler = new byte[100];
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < frames; i++) {
+        out.write(String.format("%05d", filler.length).getBytes("US-ASCII"));
+        out.write(filler);
+      }
+    }
+    if (params[0].equals("sidecar")) {
+      FrameIndex.write(file.getPath(), 40);
+      new File(file.getPath() + FrameIndex.SUFFIX).deleteOnExit();
+    }
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("open_last"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          try {
+            VideoStream video = new VideoStream(file.getPath());
+            int length = video.getframe_length(frames);
+            video.close();
+            return (length);
+          } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() throws IOException {
+    file.delete();
+    new File(file.getPath() + FrameIndex.SUFFIX).delete();
+  }
+}
@@ -0,0 +1,62 @@
+/* ------------------
+   VideoStreamFixture
+   frame reading of VideoStream on a synthetic MJPEG file, read in a loop,
+   for jmh.VideoStreamBenchmark: getnextframe copying into an array, and
+   getnextframebuffer returning a view
+   parameters: stream|mmap, frame size (e.g. 320x240)
+   ---------------------- */
+
+import java.io.*;
+import java.util.function.*;
+
+public class VideoStreamFixture implements jmh.Fixture {
+
+  static int FRAMES = 200;
+
+  File file;
+  VideoStream video;
+  byte[] frame;
+
+  // --------------------------
+  // Constructor
+  // --------------------------
+  public VideoStreamFixture(String[] params) throws Exception {
+    file = SyntheticVideo.create(FRAMES, params[1]);
+    video = new VideoStream(file.getPath(), params[0].equals("mmap"));
+    frame = new byte[VideoStream.MAX_FRAME_SIZE];
+  }
+
+  public IntSupplier operation(String name) {
+    if (name.equals("getnextframe"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          try {
+            // loop over the video, the index is built during the first pass
+            if (video.frame_nb == FRAMES)
+              return (video.getframe(1, frame));
+            return (video.getnextframe(frame));
+          } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      });
+    if (name.equals("getnextframebuffer"))
+      return (new IntSupplier() {
+        public int getAsInt() {
+          try {
+            if (video.frame_nb == FRAMES)
+              return (video.getframebuffer(1).remaining());
+            return (video.getnextframebuffer().remaining());
+          } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      });
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+
+  public void close() throws IOException {
+    video.close();
+    file.delete();
+  }
+}
@@ -0,0 +1,96 @@
+/* ------------------
+   AllocationCheck
+   allocation budgets of the fixture operations that run once per frame
+   or per packet in steady state, and of opening a video through its
+   sidecar index: each operation is warmed up, then run as many times on
+   this thread while the JVM counts the bytes the thread allocates.
+   Prints the bytes per operation of every case and exits with status 1
+   if one of them goes over its budget, so a change that brings garbage
+   back on the send path fails instead of only showing up in a -prof gc
+   column
+   usage: java -cp target/benchmarks.jar jmh.AllocationCheck
+   ---------------------- */
+
+package jmh;
+
+import java.lang.management.*;
+import java.util.function.*;
+
+public class AllocationCheck {
+
+  // --------------------------
+  // Case: an operation of a fixture, with the most bytes it may allocate
+  // per call on average, run ops times to warm up then ops times counted
+  // --------------------------
+  static class Case {
+    String fixture;
+    String[] params;
+    String operation;
+    double budget;
+    int ops;
+
+    Case(String fixture, String operation, double budget, int ops, String... params) {
+      this.fixture = fixture;
+      this.operation = operation;
+      this.budget = budget;
+      this.ops = ops;
+      this.params = params;
+    }
+
+    public String toString() {
+      return (fixture + " " + String.join(" ", params) + " " + operation);
+    }
+  }
+
+  // budgets of 1 byte per operation mean none: a single object per call
+  // is already 16 bytes or more
+  static Case[] CASES = { new Case("SendPathFixture", "send_frame", 1, 20000, "stream", "direct", "320x240"),
+      new Case("SendPathFixture", "send_frame", 1, 20000, "stream", "queued", "320x240"),
+      new Case("SendPathFixture", "send_frame", 1, 20000, "mmap", "direct", "320x240"),
+      new Case("SendPathFixture", "send_frame", 1, 20000, "mmap", "queued", "320x240"),
+      new Case("RTPpacketFixture", "encode_writer_header", 1, 20000, "1388"),
+      new Case("RTPpacketFixture", "parse_view", 1, 20000, "1388"),
+      new Case("VideoStreamFixture", "getnextframebuffer", 1, 20000, "stream", "320x240"),
+      new Case("VideoStreamFixture", "getnextframebuffer", 1, 20000, "mmap", "320x240"),
+      new Case("FrameCacheFixture", "getnextframebuffer", 1, 20000, "65536", "640x480"),
+      // a miss adds the key and map entry of the frame it caches
+      new Case("FrameCacheFixture", "getnextframebuffer", 512, 20000, "1024", "640x480"),
+      // opening through the sidecar maps the index, whatever the length
+      // of the video; a scan allocates 30 bytes per frame
+      new Case("VideoOpenFixture", "open_last", 16384, 200, "sidecar", "100000") };
+
+  // ------------------------------------
+  // main
+  // ------------------------------------
+  public static void main(String argv[]) throws Exception {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    int failed = 0;
+    for (Case c : CASES) {
+      double per_op;
+      Fixture fixture = Fixture.open(c.fixture, c.params);
+      try {
+        IntSupplier operation = fixture.operation(c.operation);
+        int sink = 0;
+        for (int i = 0; i < c.ops; i++)
+          sink += operation.getAsInt();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < c.ops; i++)
+          sink += operation.getAsInt();
+        per_op = (double) (threads.getThreadAllocatedBytes(thread) - before) / c.ops;
+        if (sink == 42)
+          System.out.print(""); // keeps the results alive
+      } finally {
+        fixture.close();
+      }
+      boolean over = per_op > c.budget;
+      if (over)
+        failed++;
+      System.out.printf("%-70s %10.1f B/op  budget %8.1f%s%n", c, per_op, c.budget, over ? "  OVER" : "");
+    }
+    if (failed > 0) {
+      System.out.println(failed + " of " + CASES.length + " operations over their allocation budget");
+      System.exit(1);
+    }
+  }
+}
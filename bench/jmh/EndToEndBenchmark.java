@@ -0,0 +1,44 @@
+/* ------------------
+   EndToEndBenchmark
+   frames per second delivered end to end on the loopback, from the
+   server paced at 1000 fps to the client receiver; a score below 1000
+   ops/s means the chain does not keep up. See EndToEndFixture
+   run: java -jar target/benchmarks.jar EndToEndBenchmark -prof gc
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+  @Param({ "320x240", "640x480" })
+  String size;
+
+  Fixture fixture;
+  IntSupplier frame;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    fixture = Fixture.open("EndToEndFixture", size);
+    frame = fixture.operation("frame");
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int frame() {
+    return (frame.getAsInt());
+  }
+}
@@ -0,0 +1,35 @@
+/* ------------------
+   Fixture
+   workload of a benchmark, written in the default package next to the
+   classes it measures. JMH only accepts benchmark classes in a named
+   package and a named package cannot refer to the default one, so the
+   benchmarks of this package load their fixture by name and run its
+   operations through this interface
+   ---------------------- */
+
+package jmh;
+
+import java.io.*;
+import java.util.function.*;
+
+public interface Fixture extends AutoCloseable {
+
+  // --------------------------
+  // operation: the body of the benchmark called name; its result is
+  // returned by the benchmark so that the work is not optimized away
+  // --------------------------
+  IntSupplier operation(String name);
+
+  // --------------------------
+  // close: release what the fixture opened; narrower than
+  // AutoCloseable.close, which may throw InterruptedException
+  // --------------------------
+  void close() throws IOException;
+
+  // --------------------------
+  // open: the fixture of class name, built from the benchmark parameters
+  // --------------------------
+  static Fixture open(String name, String... params) throws Exception {
+    return ((Fixture) Class.forName(name).getConstructor(String[].class).newInstance((Object) params));
+  }
+}
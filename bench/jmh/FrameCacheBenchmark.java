@@ -0,0 +1,47 @@
+/* ------------------
+   FrameCacheBenchmark
+   frames per second read through the frame cache, all hits or all
+   misses with evictions, and the heap allocated per frame; see
+   FrameCacheFixture
+   run: java -jar target/benchmarks.jar FrameCacheBenchmark -prof gc
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCacheBenchmark {
+
+  @Param({ "65536", "1024" })
+  String cache_kb;
+
+  @Param({ "640x480" })
+  String size;
+
+  Fixture fixture;
+  IntSupplier getnextframebuffer;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = Fixture.open("FrameCacheFixture", cache_kb, size);
+    getnextframebuffer = fixture.operation("getnextframebuffer");
+  }
+
+  @TearDown
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int getnextframebuffer() {
+    return (getnextframebuffer.getAsInt());
+  }
+}
@@ -0,0 +1,80 @@
+/* ------------------
+   RTPpacketBenchmark
+   RTP header encoding and parsing, payload and packet copies; see
+   RTPpacketFixture
+   run: java -jar target/benchmarks.jar RTPpacketBenchmark -prof gc
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RTPpacketBenchmark {
+
+  // payload sizes: a small packet, a full RFC 2435 fragment, a whole frame
+  // in one datagram as the original server sent it
+  @Param({ "100", "1388", "20000" })
+  String payload_size;
+
+  Fixture fixture;
+  IntSupplier encode;
+  IntSupplier encode_writer_header;
+  IntSupplier parse;
+  IntSupplier parse_view;
+  IntSupplier getpayload;
+  IntSupplier getpacket;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = Fixture.open("RTPpacketFixture", payload_size);
+    encode = fixture.operation("encode");
+    encode_writer_header = fixture.operation("encode_writer_header");
+    parse = fixture.operation("parse");
+    parse_view = fixture.operation("parse_view");
+    getpayload = fixture.operation("getpayload");
+    getpacket = fixture.operation("getpacket");
+  }
+
+  @TearDown
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int encode() {
+    return (encode.getAsInt());
+  }
+
+  @Benchmark
+  public int encode_writer_header() {
+    return (encode_writer_header.getAsInt());
+  }
+
+  @Benchmark
+  public int parse() {
+    return (parse.getAsInt());
+  }
+
+  @Benchmark
+  public int parse_view() {
+    return (parse_view.getAsInt());
+  }
+
+  @Benchmark
+  public int getpayload() {
+    return (getpayload.getAsInt());
+  }
+
+  @Benchmark
+  public int getpacket() {
+    return (getpacket.getAsInt());
+  }
+}
@@ -0,0 +1,42 @@
+/* ------------------
+   RTSPparseBenchmark
+   parsing of one RTSP request by the server; see RTSPparseFixture
+   run: java -jar target/benchmarks.jar RTSPparseBenchmark -prof gc
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RTSPparseBenchmark {
+
+  @Param({ "SETUP", "PLAY", "PLAY_END" })
+  String request;
+
+  Fixture fixture;
+  IntSupplier parse_RTSP_request;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = Fixture.open("RTSPparseFixture", request);
+    parse_RTSP_request = fixture.operation("parse_RTSP_request");
+  }
+
+  @TearDown
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int parse_RTSP_request() {
+    return (parse_RTSP_request.getAsInt());
+  }
+}
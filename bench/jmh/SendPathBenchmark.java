@@ -0,0 +1,51 @@
+/* ------------------
+   SendPathBenchmark
+   frames sent per second by the send loop of a session, and what it
+   allocates: the expected gc.alloc.rate.norm is 0 B/op (JMH shows
+   ~10^-3 B/op of noise), a regression shows as bytes per frame; see
+   SendPathFixture
+   run: java -jar target/benchmarks.jar SendPathBenchmark -prof gc
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendPathBenchmark {
+
+  @Param({ "stream", "mmap" })
+  String mode;
+
+  @Param({ "direct", "queued" })
+  String writer;
+
+  @Param({ "320x240" })
+  String size;
+
+  Fixture fixture;
+  IntSupplier send_frame;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = Fixture.open("SendPathFixture", mode, writer, size);
+    send_frame = fixture.operation("send_frame");
+  }
+
+  @TearDown
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int send_frame() {
+    return (send_frame.getAsInt());
+  }
+}
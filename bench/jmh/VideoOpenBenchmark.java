@@ -0,0 +1,46 @@
+/* ------------------
+   VideoOpenBenchmark
+   time to open a long video and find its last frame, by scanning the
+   file or through its sidecar frame index; see VideoOpenFixture
+   run: java -jar target/benchmarks.jar VideoOpenBenchmark
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoOpenBenchmark {
+
+  @Param({ "scan", "sidecar" })
+  String index;
+
+  @Param({ "100000" })
+  String frames;
+
+  Fixture fixture;
+  IntSupplier open_last;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = Fixture.open("VideoOpenFixture", index, frames);
+    open_last = fixture.operation("open_last");
+  }
+
+  @TearDown
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int open_last() {
+    return (open_last.getAsInt());
+  }
+}
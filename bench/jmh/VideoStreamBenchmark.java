@@ -0,0 +1,54 @@
+/* ------------------
+   VideoStreamBenchmark
+   frames read per second from a synthetic MJPEG file (in the page cache
+   after the warmup), in stream and memory-mapped mode; see
+   VideoStreamFixture
+   run: java -jar target/benchmarks.jar VideoStreamBenchmark -prof gc
+   ---------------------- */
+
+package jmh;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoStreamBenchmark {
+
+  @Param({ "stream", "mmap" })
+  String mode;
+
+  @Param({ "320x240", "640x480" })
+  String size;
+
+  Fixture fixture;
+  IntSupplier getnextframe;
+  IntSupplier getnextframebuffer;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = Fixture.open("VideoStreamFixture", mode, size);
+    getnextframe = fixture.operation("getnextframe");
+    getnextframebuffer = fixture.operation("getnextframebuffer");
+  }
+
+  @TearDown
+  public void teardown() throws Exception {
+    fixture.close();
+  }
+
+  @Benchmark
+  public int getnextframe() {
+    return (getnextframe.getAsInt());
+  }
+
+  @Benchmark
+  public int getnextframebuffer() {
+    return (getnextframebuffer.getAsInt());
+  }
+}